@@ -0,0 +1,432 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal micro-benchmark harness, following the same conventions as JMH
+ * (warmup and measurement iterations, average time and single shot modes,
+ * per-trial and per-invocation setup) and writing results in the same
+ * JSON format as JMH's <code>-rf json</code>, so the results can be tracked
+ * with the usual JMH tooling.
+ *
+ * Benchmarks are run in the current JVM one after another, rather than in
+ * forked JVMs. Single shot benchmarks also report the peak heap used by each
+ * invocation, as a secondary metric.
+ *
+ * @author Ben
+ */
+class BenchmarkRunner
+{
+	enum Mode
+	{
+		/** Repeatedly calls the benchmark for the iteration time, and reports the average time per call in microseconds. */
+		AVERAGE_TIME("avgt", "us/op", 1000.0),
+		/** Calls the benchmark once per iteration, and reports the time taken in milliseconds; for expensive operations. */
+		SINGLE_SHOT("ss", "ms/op", 1000000.0);
+
+		final String shortName;
+		final String unit;
+		final double nanosPerUnit;
+
+		Mode(String shortName, String unit, double nanosPerUnit)
+		{
+			this.shortName = shortName;
+			this.unit = unit;
+			this.nanosPerUnit = nanosPerUnit;
+		}
+	}
+
+	/**
+	 * A benchmark with a specific set of parameters. The setup methods are
+	 * not included in the measured time.
+	 */
+	static abstract class Benchmark
+	{
+		final String name;
+		final Mode mode;
+		final Map<String, String> params;
+
+		Benchmark(String name, Mode mode, Map<String, String> params)
+		{
+			this.name = name;
+			this.mode = mode;
+			this.params = params;
+		}
+
+		/** Called once before all warmup and measurement iterations. */
+		void setupTrial() throws Exception {}
+
+		/** If overridden, called before every invocation, and each invocation is timed separately. */
+		void setupInvocation() throws Exception {}
+
+		boolean hasInvocationSetup() { return false; }
+
+		/** The operation being measured. Returns a result so the JIT can't eliminate it. */
+		abstract Object run() throws Exception;
+
+		/** Called after the last iteration, to release anything created by setupTrial. */
+		void tearDownTrial() throws Exception {}
+	}
+
+	static class Result
+	{
+		final Benchmark benchmark;
+		final double[] scores;
+		/** The peak heap used by each measurement iteration in MB, or null if not measured. */
+		final double[] peakHeapScores;
+		final int warmupIterations;
+		final long iterationMillis;
+
+		Result(Benchmark benchmark, double[] scores, double[] peakHeapScores, int warmupIterations, long iterationMillis)
+		{
+			this.benchmark = benchmark;
+			this.scores = scores;
+			this.peakHeapScores = peakHeapScores;
+			this.warmupIterations = warmupIterations;
+			this.iterationMillis = iterationMillis;
+		}
+
+		double getScore()
+		{
+			return getMean(scores);
+		}
+
+		/** The half-width of the 99.9% confidence interval, as reported by JMH; NaN with fewer than two iterations. */
+		double getScoreError()
+		{
+			return getError(scores);
+		}
+	}
+
+	static double getMean(double[] scores)
+	{
+		double total = 0;
+		for (double s: scores) total += s;
+		return total/scores.length;
+	}
+
+	static double getError(double[] scores)
+	{
+		if (scores.length < 2) return Double.NaN;
+		double mean = getMean(scores);
+		double sumOfSquares = 0;
+		for (double s: scores) sumOfSquares += (s-mean)*(s-mean);
+		double standardDeviation = Math.sqrt(sumOfSquares/(scores.length-1));
+		return studentT999(scores.length-1)*standardDeviation/Math.sqrt(scores.length);
+	}
+
+	static double getPercentile(double[] scores, double percentile)
+	{
+		double[] sorted = scores.clone();
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile/100.0*sorted.length)-1;
+		return sorted[Math.max(0, Math.min(sorted.length-1, index))];
+	}
+
+	/** The name of the secondary metric for the peak heap used by single shot benchmarks. */
+	static final String PEAK_HEAP_METRIC = "peakHeap";
+
+	/** Two-sided 99.9% critical values of Student's t distribution, for 1 to 10 degrees of freedom. */
+	private static final double[] STUDENT_T_999 = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587};
+
+	static double studentT999(int degreesOfFreedom)
+	{
+		if (degreesOfFreedom <= STUDENT_T_999.length) return STUDENT_T_999[degreesOfFreedom-1];
+		if (degreesOfFreedom <= 30) return 3.646;
+		return 3.291;
+	}
+
+	final int warmupIterations;
+	final int measurementIterations;
+	final long iterationMillis;
+
+	/** Results are written here so that the JIT can't eliminate the benchmarked code. */
+	private volatile Object sink;
+
+	/** The peak heap used by the last single shot invocation, in MB. */
+	private double lastPeakHeap;
+
+	BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis)
+	{
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	Result run(Benchmark benchmark) throws Exception
+	{
+		System.out.println("# Benchmark: "+benchmark.name+" "+benchmark.params+" ("+benchmark.mode.shortName+")");
+		System.gc();
+		benchmark.setupTrial();
+		try {
+			for (int i = 0; i < warmupIterations; i++)
+				System.out.println(String.format("# Warmup Iteration %3d: %.3f %s", i+1, runIteration(benchmark), benchmark.mode.unit));
+			double[] scores = new double[measurementIterations];
+			double[] peakHeapScores = benchmark.mode == Mode.SINGLE_SHOT ? new double[measurementIterations] : null;
+			for (int i = 0; i < measurementIterations; i++)
+			{
+				scores[i] = runIteration(benchmark);
+				if (peakHeapScores == null)
+					System.out.println(String.format("Iteration %3d: %.3f %s", i+1, scores[i], benchmark.mode.unit));
+				else
+				{
+					peakHeapScores[i] = lastPeakHeap;
+					System.out.println(String.format("Iteration %3d: %.3f %s, peak heap %.1f MB", i+1, scores[i], benchmark.mode.unit, lastPeakHeap));
+				}
+			}
+			return new Result(benchmark, scores, peakHeapScores, warmupIterations, iterationMillis);
+		} finally {
+			benchmark.tearDownTrial();
+			sink = null;
+		}
+	}
+
+	/**
+	 * @return The score for this iteration, in the units for the benchmark's mode.
+	 */
+	private double runIteration(Benchmark benchmark) throws Exception
+	{
+		if (benchmark.mode == Mode.SINGLE_SHOT)
+		{
+			benchmark.setupInvocation();
+			sink = null;
+			long heapBefore = resetPeakHeap();
+			long start = System.nanoTime();
+			sink = benchmark.run();
+			double score = (System.nanoTime()-start)/benchmark.mode.nanosPerUnit;
+			lastPeakHeap = (getPeakHeap()-heapBefore)/(1024.0*1024.0);
+			return score;
+		}
+
+		long operations = 0;
+		long measuredNanos = 0;
+		long endTime = System.nanoTime()+iterationMillis*1000000L;
+		if (benchmark.hasInvocationSetup())
+		{
+			long now;
+			do {
+				benchmark.setupInvocation();
+				long start = System.nanoTime();
+				sink = benchmark.run();
+				now = System.nanoTime();
+				measuredNanos += now-start;
+				operations++;
+			} while (now < endTime);
+		}
+		else
+		{
+			long start = System.nanoTime();
+			long now;
+			do {
+				sink = benchmark.run();
+				operations++;
+				now = System.nanoTime();
+			} while (now < endTime);
+			measuredNanos = now-start;
+		}
+		return measuredNanos/benchmark.mode.nanosPerUnit/operations;
+	}
+
+	/**
+	 * Collects garbage and resets the peak usage of the heap memory pools.
+	 * @return The heap used afterwards, in bytes.
+	 */
+	private static long resetPeakHeap()
+	{
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				pool.resetPeakUsage();
+				used += pool.getUsage().getUsed();
+			}
+		return used;
+	}
+
+	/**
+	 * @return The total of the peak usage of the heap memory pools since they
+	 * were last reset, in bytes. This is a slight overestimate of the peak heap,
+	 * since the pools may not all peak at the same time.
+	 */
+	private static long getPeakHeap()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	static void printSummary(List<Result> results)
+	{
+		List<String> paramNames = new ArrayList<>();
+		for (Result r: results)
+			for (String p: r.benchmark.params.keySet())
+				if (!paramNames.contains(p)) paramNames.add(p);
+
+		StringBuilder header = new StringBuilder(String.format("%-40s", "Benchmark"));
+		for (String p: paramNames) header.append(String.format(" %12s", "("+p+")"));
+		header.append(String.format(" %5s %4s %14s %12s %6s", "Mode", "Cnt", "Score", "Error", "Units"));
+		System.out.println();
+		System.out.println(header);
+		for (Result r: results)
+		{
+			StringBuilder line = new StringBuilder(String.format("%-40s", r.benchmark.name));
+			for (String p: paramNames)
+				line.append(String.format(" %12s", r.benchmark.params.containsKey(p) ? r.benchmark.params.get(p) : "N/A"));
+			line.append(String.format(" %5s %4d %14.3f %12s %6s", r.benchmark.mode.shortName, r.scores.length,
+					r.getScore(), Double.isNaN(r.getScoreError()) ? "" : String.format("+- %.3f", r.getScoreError()), r.benchmark.mode.unit));
+			System.out.println(line);
+			if (r.peakHeapScores != null)
+			{
+				// secondary metrics are shown as extra rows, as JMH does
+				line = new StringBuilder(String.format("%-40s", r.benchmark.name+":"+PEAK_HEAP_METRIC));
+				for (String p: paramNames)
+					line.append(String.format(" %12s", r.benchmark.params.containsKey(p) ? r.benchmark.params.get(p) : "N/A"));
+				double error = getError(r.peakHeapScores);
+				line.append(String.format(" %5s %4d %14.3f %12s %6s", r.benchmark.mode.shortName, r.peakHeapScores.length,
+						getMean(r.peakHeapScores), Double.isNaN(error) ? "" : String.format("+- %.3f", error), "MB"));
+				System.out.println(line);
+			}
+		}
+	}
+
+	/**
+	 * Writes the results using the same JSON structure as JMH.
+	 */
+	static void writeJSON(List<Result> results, File file) throws IOException
+	{
+		String jdkVersion = System.getProperty("java.version");
+		String vmName = System.getProperty("java.vm.name");
+		String vmVersion = System.getProperty("java.vm.version");
+		String jvm = new File(System.getProperty("java.home"), "bin"+File.separator+"java").getPath();
+		List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+
+		StringBuilder json = new StringBuilder("[\n");
+		for (int i = 0; i < results.size(); i++)
+		{
+			Result r = results.get(i);
+			Map<String, Object> secondaryMetrics = new LinkedHashMap<>();
+			if (r.peakHeapScores != null)
+				secondaryMetrics.put(PEAK_HEAP_METRIC, getMetricJSON(r.peakHeapScores, "MB"));
+
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("benchmark", BenchmarkRunner.class.getPackage().getName()+"."+r.benchmark.name);
+			result.put("mode", r.benchmark.mode.shortName);
+			result.put("threads", 1);
+			result.put("forks", 0);
+			result.put("jvm", jvm);
+			result.put("jvmArgs", jvmArgs);
+			result.put("jdkVersion", jdkVersion);
+			result.put("vmName", vmName);
+			result.put("vmVersion", vmVersion);
+			result.put("warmupIterations", r.warmupIterations);
+			result.put("warmupTime", r.benchmark.mode == Mode.SINGLE_SHOT ? "single-shot" : r.iterationMillis+" ms");
+			result.put("warmupBatchSize", 1);
+			result.put("measurementIterations", r.scores.length);
+			result.put("measurementTime", r.benchmark.mode == Mode.SINGLE_SHOT ? "single-shot" : r.iterationMillis+" ms");
+			result.put("measurementBatchSize", 1);
+			result.put("params", r.benchmark.params);
+			result.put("primaryMetric", getMetricJSON(r.scores, r.benchmark.mode.unit));
+			result.put("secondaryMetrics", secondaryMetrics);
+
+			json.append("    ");
+			appendJSON(json, result, "    ");
+			json.append(i < results.size()-1 ? ",\n" : "\n");
+		}
+		json.append("]\n");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static Map<String, Object> getMetricJSON(double[] scores, String unit)
+	{
+		Map<String, Object> percentiles = new LinkedHashMap<>();
+		for (double p: new double[] {0.0, 50.0, 90.0, 95.0, 99.0, 99.9, 99.99, 99.9999, 100.0})
+			percentiles.put(String.valueOf(p), getPercentile(scores, p));
+
+		double score = getMean(scores);
+		double error = getError(scores);
+		Map<String, Object> metric = new LinkedHashMap<>();
+		metric.put("score", score);
+		metric.put("scoreError", error);
+		metric.put("scoreConfidence", Arrays.asList(score-error, score+error));
+		metric.put("scorePercentiles", percentiles);
+		metric.put("scoreUnit", unit);
+		List<Object> rawData = new ArrayList<>();
+		for (double s: scores) rawData.add(s);
+		metric.put("rawData", Arrays.asList(rawData));
+		return metric;
+	}
+
+	private static void appendJSON(StringBuilder json, Object value, String indent)
+	{
+		if (value instanceof Map)
+		{
+			json.append("{");
+			boolean first = true;
+			for (Map.Entry<?, ?> e: ((Map<?, ?>)value).entrySet())
+			{
+				json.append(first ? "\n" : ",\n").append(indent).append("    ");
+				appendJSON(json, e.getKey().toString(), indent+"    ");
+				json.append(" : ");
+				appendJSON(json, e.getValue(), indent+"    ");
+				first = false;
+			}
+			json.append(first ? "}" : "\n"+indent+"}");
+		}
+		else if (value instanceof List)
+		{
+			json.append("[");
+			boolean first = true;
+			for (Object o: (List<?>)value)
+			{
+				json.append(first ? "" : ", ");
+				appendJSON(json, o, indent);
+				first = false;
+			}
+			json.append("]");
+		}
+		else if (value instanceof Double)
+		{
+			double d = (Double)value;
+			// JMH writes non-finite numbers as strings
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				json.append('"').append(d).append('"');
+			else
+				json.append(d);
+		}
+		else if (value instanceof Number)
+			json.append(value);
+		else
+		{
+			json.append('"');
+			for (char c: value.toString().toCharArray())
+			{
+				if (c == '"' || c == '\\') json.append('\\').append(c);
+				else if (c < 0x20) json.append(String.format("\\u%04x", (int)c));
+				else json.append(c);
+			}
+			json.append('"');
+		}
+	}
+}
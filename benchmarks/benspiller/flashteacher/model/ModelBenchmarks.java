@@ -0,0 +1,566 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.jdom.DocType;
+import org.jdom.Document;
+import org.jdom.Element;
+
+import benspiller.flashteacher.model.BenchmarkRunner.Benchmark;
+import benspiller.flashteacher.model.BenchmarkRunner.Mode;
+import benspiller.flashteacher.utils.XMLUtils;
+
+/**
+ * Benchmarks for the hot paths in the model: loading a question set,
+ * selecting, answering and passing questions, scoring and saving, for
+ * synthetic question sets of various sizes. The load benchmarks read the
+ * DTDs from the question_files directory, so must be run from the project
+ * directory.
+ *
+ * Run with <code>ant benchmark</code>, or run this class directly with
+ * <code>--help</code> for the available arguments. Results are written in
+ * JMH's JSON format so regressions can be tracked over time.
+ *
+ * @author Ben
+ */
+public class ModelBenchmarks
+{
+	static final long DAY_MILLIS = 24*60*60*1000L;
+
+	/** Seed for generating the synthetic question sets and for question selection, so runs are comparable. */
+	static final long SEED = 1;
+
+	/**
+	 * Generates a question set and a question history for it, with a mix
+	 * of new, passed, slow, quick and wrongly-answered questions similar
+	 * to a real history file.
+	 */
+	static class SyntheticDeck
+	{
+		final int size;
+		final String selector;
+		final List<Question> questions;
+
+		SyntheticDeck(int size, String selector)
+		{
+			this.size = size;
+			this.selector = selector;
+			questions = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				questions.add(new Question("question "+i, "answer "+i, true));
+		}
+
+		Options createOptions()
+		{
+			Element questionListElement = new Element("questionList");
+			questionListElement.setAttribute("questionFontSize", "25");
+			questionListElement.setAttribute("answerFontSize", "40");
+			questionListElement.setAttribute("questionSelector", selector);
+			return new Options(questionListElement);
+		}
+
+		Element createHistory() throws Exception
+		{
+			Random random = new Random(SEED);
+			long now = System.currentTimeMillis();
+			QuestionManager qm = new QuestionManager(questions, (Element)null, createOptions(), new SplittableRandom(SEED), Clock.systemUTC());
+			QuestionHistoryStore store = qm.allQuestions;
+			for (int id = 0; id < store.size(); id++)
+			{
+				if (random.nextInt(10) == 0) continue; // never asked
+
+				int timesAsked = 1+random.nextInt(20);
+				long timeLastAsked = now - random.nextInt(90*24*60*60)*1000L;
+				for (int i = 0; i < timesAsked; i++)
+					store.recordAsked(id, timeLastAsked);
+				store.setAverageTimeToAnswer(id, 500+random.nextInt(20000));
+				if (random.nextInt(5) == 0)
+					store.recordWrongAnswer(id, "wrong answer");
+				if (random.nextInt(30) == 0)
+					store.setPassModeCounter(id, QuestionManager.PASS_COUNTER_VALUE);
+				int repetitionInterval = 600*(1+random.nextInt(1000));
+				store.setRepetitionInterval(id, repetitionInterval);
+				store.setDueTime(id, timeLastAsked + repetitionInterval*1000L);
+			}
+			return qm.save();
+		}
+
+		QuestionManager createQuestionManager() throws Exception
+		{
+			return new QuestionManager(questions, createHistory(), createOptions(), new SplittableRandom(SEED), Clock.systemUTC());
+		}
+
+		/**
+		 * Writes the question file and its history file to a new temporary
+		 * directory, along with the DTDs needed to validate them.
+		 * @return The question file.
+		 */
+		File writeFiles() throws Exception
+		{
+			File dir = Files.createTempDirectory("flashteacher-benchmark").toFile();
+			for (String dtd: new String[] {"questionList.dtd", "questionHistory.dtd"})
+				Files.copy(new File(ModelHolder.DEFAULT_QUESTION_FILE_DIRECTORY, dtd).toPath(), new File(dir, dtd).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+			Element questionListElement = new Element("questionList");
+			questionListElement.setAttribute("questionFontSize", "25");
+			questionListElement.setAttribute("answerFontSize", "40");
+			questionListElement.setAttribute("questionSelector", selector);
+			for (Question q: questions)
+			{
+				Element questionElement = new Element("question");
+				questionElement.addContent(new Element("questionText").setText(q.getQuestion()));
+				questionElement.addContent(new Element("answerText").setText(q.getAnswer()));
+				questionListElement.addContent(questionElement);
+			}
+			File questionFile = new File(dir, "benchmark."+ModelHolder.EXTENSION_QUESTION_FILES);
+			XMLUtils.saveXML(new Document(questionListElement, new DocType("questionList", "questionList.dtd")), questionFile);
+
+			Element historyElement = createHistory();
+			XMLUtils.saveXML(new Document(historyElement, new DocType(historyElement.getName(), "questionHistory.dtd")), 
+					new ModelHolder(questionFile).historyFile);
+			return questionFile;
+		}
+
+		static void deleteFiles(File questionFile)
+		{
+			if (questionFile == null) return;
+			File dir = questionFile.getParentFile();
+			for (File f: dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+
+		Map<String, String> getParams()
+		{
+			Map<String, String> params = new LinkedHashMap<>();
+			params.put("deckSize", String.valueOf(size));
+			params.put("selector", selector);
+			return params;
+		}
+	}
+
+	/** A benchmark that operates on an existing QuestionManager for the deck. */
+	static abstract class QuestionManagerBenchmark extends Benchmark
+	{
+		final SyntheticDeck deck;
+		QuestionManager qm;
+
+		QuestionManagerBenchmark(String name, Mode mode, SyntheticDeck deck)
+		{
+			super(name, mode, deck.getParams());
+			this.deck = deck;
+		}
+
+		@Override
+		void setupTrial() throws Exception
+		{
+			qm = deck.createQuestionManager();
+		}
+
+		@Override
+		void tearDownTrial()
+		{
+			qm = null;
+		}
+	}
+
+	/** A benchmark that saves the history of an existing QuestionManager to a temporary file. */
+	static abstract class SaveBenchmark extends QuestionManagerBenchmark
+	{
+		File historyFile;
+
+		SaveBenchmark(String name, SyntheticDeck deck)
+		{
+			super(name, Mode.SINGLE_SHOT, deck);
+		}
+
+		@Override
+		void setupTrial() throws Exception
+		{
+			super.setupTrial();
+			historyFile = File.createTempFile("flashteacher-benchmark", ".questionHistory.xml");
+			historyFile.deleteOnExit();
+		}
+
+		@Override
+		void tearDownTrial()
+		{
+			super.tearDownTrial();
+			historyFile.delete();
+		}
+	}
+
+	static List<Benchmark> createBenchmarks(SyntheticDeck deck)
+	{
+		List<Benchmark> benchmarks = new ArrayList<>();
+
+		benchmarks.add(new Benchmark("QuestionManager.construct", Mode.SINGLE_SHOT, deck.getParams()) {
+			Element historyElement;
+			Options options;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				historyElement = deck.createHistory();
+				options = deck.createOptions();
+			}
+
+			@Override
+			Object run() throws Exception
+			{
+				return new QuestionManager(deck.questions, historyElement, options, new SplittableRandom(SEED), Clock.systemUTC());
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				historyElement = null;
+			}
+		});
+
+		benchmarks.add(new Benchmark("ModelHolder.load", Mode.SINGLE_SHOT, deck.getParams()) {
+			File questionFile;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				questionFile = deck.writeFiles();
+			}
+
+			@Override
+			Object run() throws Exception
+			{
+				ModelHolder modelHolder = new ModelHolder(questionFile);
+				modelHolder.load(null);
+				return modelHolder;
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				SyntheticDeck.deleteFiles(questionFile);
+			}
+		});
+
+		benchmarks.add(new Benchmark("ModelHolder.loadBinary", Mode.SINGLE_SHOT, deck.getParams()) {
+			File questionFile;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				questionFile = deck.writeFiles();
+				ModelHolder modelHolder = new ModelHolder(questionFile);
+				HistoryConverter.convert(modelHolder.historyFile, modelHolder.binaryHistoryFile);
+			}
+
+			@Override
+			Object run() throws Exception
+			{
+				ModelHolder modelHolder = new ModelHolder(questionFile);
+				modelHolder.load(null);
+				return modelHolder;
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				SyntheticDeck.deleteFiles(questionFile);
+			}
+		});
+
+		benchmarks.add(new Benchmark("ModelHolder.reloadUnchanged", Mode.SINGLE_SHOT, deck.getParams()) {
+			File questionFile;
+			ModelHolder modelHolder;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				questionFile = deck.writeFiles();
+				modelHolder = new ModelHolder(questionFile);
+				modelHolder.load(null);
+			}
+
+			@Override
+			Object run() throws Exception
+			{
+				// as when the user starts another session without changing the files
+				modelHolder.load(null);
+				return modelHolder;
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				modelHolder = null;
+				SyntheticDeck.deleteFiles(questionFile);
+			}
+		});
+
+		benchmarks.add(new Benchmark("ModelHolder.reloadChangedQuestionFile", Mode.SINGLE_SHOT, deck.getParams()) {
+			File questionFile;
+			ModelHolder modelHolder;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				questionFile = deck.writeFiles();
+				modelHolder = new ModelHolder(questionFile);
+				modelHolder.load(null);
+			}
+
+			@Override
+			boolean hasInvocationSetup() { return true; }
+
+			@Override
+			void setupInvocation()
+			{
+				// the question file is parsed again and matched with the history already in memory
+				questionFile.setLastModified(questionFile.lastModified()+1000);
+			}
+
+			@Override
+			Object run() throws Exception
+			{
+				modelHolder.load(null);
+				return modelHolder;
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				modelHolder = null;
+				SyntheticDeck.deleteFiles(questionFile);
+			}
+		});
+
+		benchmarks.add(new Benchmark("ModelHolder.loadWithJDOM", Mode.SINGLE_SHOT, deck.getParams()) {
+			File questionFile;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				questionFile = deck.writeFiles();
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			Object run() throws Exception
+			{
+				// the way question files were loaded before they were streamed, for comparison
+				Element questionListElement = XMLUtils.loadXML(questionFile).getRootElement();
+				Options options = new Options(questionListElement);
+				List<Question> questions = new ArrayList<>();
+				for (Element questionElement: (List<Element>)questionListElement.getChildren("question"))
+					questions.add(new Question(questionElement.getChildTextNormalize("questionText"), 
+							questionElement.getChildTextNormalize("answerText"), options.isCaseSensitive));
+				Element historyElement = XMLUtils.loadXML(new ModelHolder(questionFile).historyFile).getRootElement();
+				return new QuestionManager(questions, historyElement, options, new SplittableRandom(), Clock.systemUTC());
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				SyntheticDeck.deleteFiles(questionFile);
+			}
+		});
+
+		benchmarks.add(new QuestionManagerBenchmark("QuestionManager.moveToNextQuestion", Mode.AVERAGE_TIME, deck) {
+			@Override
+			Object run()
+			{
+				qm.moveToNextQuestion();
+				return qm.getCurrentQuestion();
+			}
+		});
+
+		benchmarks.add(new QuestionManagerBenchmark("QuestionManager.answerQuestion", Mode.AVERAGE_TIME, deck) {
+			int invocations;
+
+			@Override
+			Object run()
+			{
+				// one wrong answer in five, after which the same question is answered correctly
+				if (++invocations % 5 == 0)
+					return qm.answerQuestion(false, "wrong answer", 4000, null);
+				return qm.answerQuestion(true, qm.getCurrentAnswer(), 4000, null);
+			}
+		});
+
+		benchmarks.add(new QuestionManagerBenchmark("QuestionManager.answerQuestionJournaled", Mode.AVERAGE_TIME, deck) {
+			File historyFile;
+
+			@Override
+			void setupTrial() throws Exception
+			{
+				super.setupTrial();
+				historyFile = File.createTempFile("flashteacher-benchmark", ".questionHistory.xml");
+				historyFile.deleteOnExit();
+				qm.journal = new HistoryJournal(historyFile);
+			}
+
+			@Override
+			Object run()
+			{
+				// as in a session started by ModelHolder, which forces each answer to disk
+				return qm.answerQuestion(true, qm.getCurrentAnswer(), 4000, null);
+			}
+
+			@Override
+			void tearDownTrial()
+			{
+				qm.journal.deleteUpTo(qm.journal.rotate());
+				historyFile.delete();
+				super.tearDownTrial();
+			}
+		});
+
+		benchmarks.add(new QuestionManagerBenchmark("QuestionManager.passQuestion", Mode.AVERAGE_TIME, deck) {
+			@Override
+			boolean hasInvocationSetup() { return true; }
+
+			@Override
+			void setupInvocation()
+			{
+				qm.moveToNextQuestion();
+			}
+
+			@Override
+			Object run()
+			{
+				return qm.passQuestion();
+			}
+		});
+
+		benchmarks.add(new QuestionManagerBenchmark("Scorer.getQuestionSetScores", Mode.AVERAGE_TIME, deck) {
+			@Override
+			Object run()
+			{
+				return Scorer.getQuestionSetScores(qm);
+			}
+		});
+
+		benchmarks.add(new SaveBenchmark("QuestionManager.save", deck) {
+			@Override
+			Object run() throws Exception
+			{
+				// as in ModelHolder.saveHistory()
+				HistoryFileWriter.write(qm, historyFile);
+				return historyFile;
+			}
+		});
+
+		benchmarks.add(new SaveBenchmark("QuestionManager.prepareSave", deck) {
+			@Override
+			Object run() throws Exception
+			{
+				// the part of ModelHolder.saveHistoryInBackground() that runs on the caller's thread
+				return qm.prepareSave();
+			}
+		});
+
+		benchmarks.add(new SaveBenchmark("QuestionManager.saveBinary", deck) {
+			@Override
+			Object run() throws Exception
+			{
+				// as in ModelHolder.saveHistory() with the binary format enabled
+				BinaryHistoryFile.write(qm.prepareSave(), historyFile);
+				return historyFile;
+			}
+		});
+
+		benchmarks.add(new SaveBenchmark("QuestionManager.saveWithJDOM", deck) {
+			@Override
+			Object run() throws Exception
+			{
+				// the way history files were saved before they were streamed, for comparison
+				Element rootElement = qm.save();
+				XMLUtils.saveXML(new Document(rootElement, new DocType(rootElement.getName(), "questionHistory.dtd")), historyFile);
+				return rootElement;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	static void printUsage()
+	{
+		System.out.println("Usage: "+ModelBenchmarks.class.getName()+" [args]");
+		System.out.println("  --decks N,N,...      Question set sizes to benchmark (default 1000,100000,1000000)");
+		System.out.println("  --selectors S,S,...  Question selectors to benchmark (default "+Options.QUESTION_SELECTOR_DEFAULT+")");
+		System.out.println("  --benchmarks REGEX   Only run benchmarks whose names contain a match for this regular expression");
+		System.out.println("  --warmup N           Number of warmup iterations (default 3)");
+		System.out.println("  --iterations N       Number of measurement iterations (default 5)");
+		System.out.println("  --time MILLIS        Duration of each average time iteration (default 1000)");
+		System.out.println("  --output FILE        JSON results file (default benchmark-results.json)");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String decks = "1000,100000,1000000";
+		String selectors = Options.QUESTION_SELECTOR_DEFAULT;
+		Pattern filter = Pattern.compile("");
+		int warmupIterations = 3;
+		int measurementIterations = 5;
+		long iterationMillis = 1000;
+		File outputFile = new File("benchmark-results.json");
+
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("--help") || i+1 == args.length)
+			{
+				printUsage();
+				System.exit(arg.equals("--help") ? 0 : 1);
+			}
+			String value = args[++i];
+			switch (arg)
+			{
+			case "--decks": decks = value; break;
+			case "--selectors": selectors = value; break;
+			case "--benchmarks": filter = Pattern.compile(value); break;
+			case "--warmup": warmupIterations = Integer.parseInt(value); break;
+			case "--iterations": measurementIterations = Integer.parseInt(value); break;
+			case "--time": iterationMillis = Long.parseLong(value); break;
+			case "--output": outputFile = new File(value); break;
+			default:
+				System.err.println("Unknown argument: "+arg);
+				printUsage();
+				System.exit(1);
+			}
+		}
+
+		// the model logs at INFO level when loading, which we don't want to measure
+		Logger.getLogger("").setLevel(Level.WARNING);
+		for (Handler h: Logger.getLogger("").getHandlers())
+			h.setLevel(Level.WARNING);
+
+		BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, measurementIterations, iterationMillis);
+		List<BenchmarkRunner.Result> results = new ArrayList<>();
+		for (String selector: selectors.split(","))
+			for (String deckSize: decks.split(","))
+			{
+				SyntheticDeck deck = new SyntheticDeck(Integer.parseInt(deckSize.trim()), selector.trim());
+				for (Benchmark benchmark: createBenchmarks(deck))
+					if (filter.matcher(benchmark.name).find())
+						results.add(runner.run(benchmark));
+			}
+
+		BenchmarkRunner.printSummary(results);
+		BenchmarkRunner.writeJSON(results, outputFile);
+		System.out.println();
+		System.out.println("Results written to "+outputFile.getAbsolutePath());
+	}
+}
@@ -0,0 +1,266 @@
+package benspiller.flashteacher;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+
+import com.jgoodies.forms.factories.DefaultComponentFactory;
+
+import benspiller.flashteacher.model.KnowledgeDashboard;
+import benspiller.flashteacher.model.KnowledgeIndexHistory;
+import benspiller.flashteacher.model.QuestionSetScores;
+
+/**
+ * Shows the progress made with all the question files in a directory: a
+ * summary of them all combined, and a table of the scores of each one. The
+ * combined knowledge index history can be viewed in a PerformanceWindow.
+ */
+public class DashboardWindow extends JDialog
+{
+	private static final long serialVersionUID = 1L;
+
+	final JTextField summaryField;
+	final JProgressBar summaryBar;
+	final DeckTableModel deckTableModel = new DeckTableModel();
+	final JLabel errorsLabel;
+	final JButton performanceButton;
+	final JButton closeButton;
+
+	private KnowledgeDashboard dashboard;
+	private PerformanceWindow performanceWindow = null;
+
+	private final DateFormat DATE_FORMAT_NO_TIME = new SimpleDateFormat("E d MMM yyyy");
+
+	public DashboardWindow(Window owner)
+	{
+		super(owner, ModalityType.APPLICATION_MODAL);
+		setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+
+		final int BORDER_WIDTH = 10;
+
+		// Summary panel
+		Box summaryPanel = Box.createVerticalBox();
+		summaryPanel.setBorder(BorderFactory.createEmptyBorder(0, BORDER_WIDTH, 0, 0));
+
+		summaryField = new JTextField();
+		summaryField.setBackground(getBackground());
+		summaryField.setEditable(false);
+		summaryField.setBorder(BorderFactory.createEmptyBorder());
+		summaryField.setFont(summaryField.getFont().deriveFont(Font.BOLD));
+
+		summaryBar = new JProgressBar(0, 100);
+
+		summaryPanel.add(summaryField);
+		summaryPanel.add(Box.createVerticalStrut(BORDER_WIDTH));
+		summaryPanel.add(summaryBar);
+
+		// Decks panel
+		JTable deckTable = new JTable(deckTableModel);
+		deckTable.setAutoCreateRowSorter(true);
+		deckTable.setFillsViewportHeight(true);
+		deckTable.setDefaultRenderer(Date.class, new DefaultTableCellRenderer() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void setValue(Object value)
+			{
+				setText((value == null) ? "" : DATE_FORMAT_NO_TIME.format((Date)value));
+			}
+		});
+		deckTable.getColumnModel().getColumn(DeckTableModel.COLUMN_TIME_SPENT).setCellRenderer(new DefaultTableCellRenderer() {
+			private static final long serialVersionUID = 1L;
+			{
+				setHorizontalAlignment(RIGHT);
+			}
+			@Override
+			protected void setValue(Object value)
+			{
+				setText(PerformanceWindow.formatDuration((Long)value));
+			}
+		});
+		deckTable.getColumnModel().getColumn(0).setPreferredWidth(200);
+		JScrollPane deckScrollPane = new JScrollPane(deckTable);
+		deckScrollPane.setPreferredSize(new Dimension(650, 300));
+
+		errorsLabel = new JLabel();
+
+		JPanel decksPanel = new JPanel(new BorderLayout(0, BORDER_WIDTH/2));
+		decksPanel.setBorder(BorderFactory.createEmptyBorder(0, BORDER_WIDTH, 0, 0));
+		decksPanel.add(deckScrollPane, BorderLayout.CENTER);
+		decksPanel.add(errorsLabel, BorderLayout.SOUTH);
+
+		// Button panel
+		JPanel buttonPanel = new JPanel(new BorderLayout());
+		buttonPanel.setBorder(BorderFactory.createEmptyBorder());
+
+		performanceButton = new JButton(Messages.getString("DashboardWindow.performanceButton.text"));
+		performanceButton.setMnemonic((int)performanceButton.getText().toUpperCase().charAt(0));
+		closeButton = new JButton(Messages.getString("DashboardWindow.closeButton.text"));
+		closeButton.setMnemonic((int)closeButton.getText().toUpperCase().charAt(0));
+		getRootPane().setDefaultButton(closeButton);
+
+		buttonPanel.add(performanceButton, BorderLayout.WEST);
+		buttonPanel.add(closeButton, BorderLayout.EAST);
+
+		// Parent panel
+		Box topPanels = Box.createVerticalBox();
+
+		topPanels.add(DefaultComponentFactory.getInstance().createSeparator(Messages.getString("DashboardWindow.summaryPanel.title")));
+		topPanels.add(Box.createVerticalStrut(BORDER_WIDTH));
+		topPanels.add(summaryPanel);
+		topPanels.add(Box.createVerticalStrut(BORDER_WIDTH*2));
+
+		topPanels.add(DefaultComponentFactory.getInstance().createSeparator(Messages.getString("DashboardWindow.decksPanel.title")));
+
+		JPanel dialogPanel = new JPanel(new BorderLayout(0, BORDER_WIDTH));
+		dialogPanel.setBorder(BorderFactory.createEmptyBorder(BORDER_WIDTH*2, BORDER_WIDTH*2, BORDER_WIDTH*2, BORDER_WIDTH*2));
+		dialogPanel.add(topPanels, BorderLayout.NORTH);
+		dialogPanel.add(decksPanel, BorderLayout.CENTER);
+		dialogPanel.add(buttonPanel, BorderLayout.SOUTH);
+		setContentPane(dialogPanel);
+
+		// listeners
+		closeButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e)
+			{
+				setVisible(false);
+			}
+		});
+
+		performanceButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e)
+			{
+				if (performanceWindow == null) performanceWindow = new PerformanceWindow(DashboardWindow.this);
+				// the scores saved with each history are the only ones there are, so there's nothing to compare them with
+				performanceWindow.initialize(dashboard.getCombinedScores(), dashboard.getCombinedScores(),
+						dashboard.getCombinedKnowledgeIndexHistory(), null);
+				performanceWindow.setTitle(getTitle());
+				performanceWindow.setLocationRelativeTo(DashboardWindow.this);
+				performanceWindow.setVisible(true);
+			}
+		});
+
+		pack();
+	}
+
+	/**
+	 * Must be called to initialize the dialog's data every time it is about to
+	 * be made visible.
+	 * @param directory The directory that the dashboard was loaded from.
+	 */
+	public void initialize(File directory, KnowledgeDashboard dashboard)
+	{
+		this.dashboard = dashboard;
+		setTitle(Messages.getString("DashboardWindow.title", directory.getName()));
+
+		QuestionSetScores scores = dashboard.getCombinedScores();
+		summaryField.setText(Messages.getString("DashboardWindow.summaryPanel.summary.text",
+				dashboard.getDecks().size(), scores.totalQuestions, scores.questionSetPercentScore, scores.knowledgeIndexScore));
+		summaryBar.setValue((int)scores.questionSetPercentScore);
+
+		deckTableModel.setDashboard(dashboard);
+
+		if (dashboard.getErrors().isEmpty())
+		{
+			errorsLabel.setText(null);
+			errorsLabel.setToolTipText(null);
+		}
+		else
+		{
+			errorsLabel.setText(Messages.getString("DashboardWindow.errors.text", dashboard.getErrors().size()));
+			StringBuilder errors = new StringBuilder();
+			for (IOException e: dashboard.getErrors())
+				errors.append((errors.length() == 0) ? "" : "\n").append(e.getMessage());
+			errorsLabel.setToolTipText(errors.toString());
+		}
+
+		performanceButton.setEnabled(!dashboard.getDecks().isEmpty());
+		closeButton.requestFocusInWindow();
+	}
+
+	/**
+	 * A row for each deck in the dashboard.
+	 */
+	static class DeckTableModel extends AbstractTableModel
+	{
+		private static final long serialVersionUID = 1L;
+
+		static final int COLUMN_TIME_SPENT = 4;
+		private static final String[] COLUMNS = {"name", "totalQuestions", "score", "knowledgeIndex", "timeSpent", "lastSession"};
+		private static final Class<?>[] COLUMN_CLASSES = {String.class, Integer.class, Long.class, Long.class, Long.class, Date.class};
+
+		private KnowledgeDashboard dashboard;
+
+		void setDashboard(KnowledgeDashboard dashboard)
+		{
+			this.dashboard = dashboard;
+			fireTableDataChanged();
+		}
+
+		public int getRowCount()
+		{
+			return (dashboard == null) ? 0 : dashboard.getDecks().size();
+		}
+
+		public int getColumnCount()
+		{
+			return COLUMNS.length;
+		}
+
+		@Override
+		public String getColumnName(int column)
+		{
+			return Messages.getString("DashboardWindow.decksPanel.column."+COLUMNS[column]);
+		}
+
+		@Override
+		public Class<?> getColumnClass(int column)
+		{
+			return COLUMN_CLASSES[column];
+		}
+
+		public Object getValueAt(int row, int column)
+		{
+			KnowledgeDashboard.Deck deck = dashboard.getDecks().get(row);
+			KnowledgeIndexHistory knowledgeIndexHistory = deck.getKnowledgeIndexHistory();
+			switch (column)
+			{
+			case 0:
+				return deck.getName();
+			case 1:
+				return deck.getScores().totalQuestions;
+			case 2:
+				return Math.round(deck.getScores().questionSetPercentScore);
+			case 3:
+				return Math.round(deck.getScores().knowledgeIndexScore);
+			case COLUMN_TIME_SPENT:
+				return knowledgeIndexHistory.totalTimeSpentMillis();
+			case 5:
+				return (knowledgeIndexHistory.size() == 0) ? null : new Date(knowledgeIndexHistory.getDate(knowledgeIndexHistory.size()-1));
+			default:
+				throw new IndexOutOfBoundsException("Invalid column: "+column);
+			}
+		}
+	}
+}
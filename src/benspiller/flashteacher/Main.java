@@ -2,7 +2,9 @@ package benspiller.flashteacher;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -15,6 +17,7 @@ import com.jgoodies.looks.Options;
 import com.jgoodies.looks.plastic.Plastic3DLookAndFeel;
 
 import benspiller.flashteacher.model.ModelHolder;
+import benspiller.flashteacher.model.MultiDeckSession;
 
 public class Main {
 
@@ -30,29 +33,35 @@ public class Main {
 	}
 	
 	/**
-	 * Asks the user to select a question file to open. 
+	 * Asks the user to select one or more question files to open. 
 	 * @return <code>null</code> if the user cancels the dialog. Otherwise, the 
-	 * location of a file that exists. 
+	 * locations of files that exist. 
 	 */
-	private static File getQuestionFile()
+	private static List<File> getQuestionFiles()
 	{
 		JFileChooser fileChooser = new JFileChooser(ModelHolder.DEFAULT_QUESTION_FILE_DIRECTORY);
-		fileChooser.setDialogTitle("Select Question File");
+		fileChooser.setDialogTitle("Select Question File(s)");
+		fileChooser.setMultiSelectionEnabled(true);
 		fileChooser.setFileFilter(new benspiller.flashteacher.utils.FileNameExtensionFilter("Question Files (*."+ModelHolder.EXTENSION_QUESTION_FILES+")", ModelHolder.EXTENSION_QUESTION_FILES));
 		if (fileChooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION)
 			return null;
 
-		File result = fileChooser.getSelectedFile();
-		try {
-			result = result.getCanonicalFile();
-		} catch (IOException e) { /* ignore */ }
-		
-		if (result.exists())
-			return result;
-
-		// if it doesn't exist, try again
-		JOptionPane.showMessageDialog(null, "Question file \""+result.getPath()+"\" does not exist.", "File Not Found", JOptionPane.ERROR_MESSAGE);
-		return getQuestionFile();
+		List<File> results = new ArrayList<>();
+		for (File result: fileChooser.getSelectedFiles())
+		{
+			try {
+				result = result.getCanonicalFile();
+			} catch (IOException e) { /* ignore */ }
+			
+			if (!result.exists())
+			{
+				// if it doesn't exist, try again
+				JOptionPane.showMessageDialog(null, "Question file \""+result.getPath()+"\" does not exist.", "File Not Found", JOptionPane.ERROR_MESSAGE);
+				return getQuestionFiles();
+			}
+			results.add(result);
+		}
+		return results;
 	}
 	
 	/**
@@ -86,26 +95,28 @@ public class Main {
 		
 		});		
 		
-		// get initial file, or exit if desired
-		File initialFile = null; 
-		if (args.length > 0)
-			initialFile = new File(args[0]);
+		// get initial file(s), or exit if desired
+		List<File> initialFiles = new ArrayList<>(); 
+		for (String arg: args)
+			initialFiles.add(new File(arg));
 		
-		if (initialFile != null && !initialFile.exists())
-		{
-			JOptionPane.showMessageDialog(null, "Question file \""+initialFile.getPath()+"\" does not exist.", "File Not Found", JOptionPane.ERROR_MESSAGE);
-			initialFile = null;
-		}
+		for (File initialFile: initialFiles)
+			if (!initialFile.exists())
+			{
+				JOptionPane.showMessageDialog(null, "Question file \""+initialFile.getPath()+"\" does not exist.", "File Not Found", JOptionPane.ERROR_MESSAGE);
+				initialFiles.clear();
+				break;
+			}
 
-		if (initialFile == null)
-			initialFile = getQuestionFile();
+		if (initialFiles.isEmpty())
+			initialFiles = getQuestionFiles();
 		
-		logger.log(java.util.logging.Level.INFO, "Initial file = "+initialFile);
+		logger.log(java.util.logging.Level.INFO, "Initial files = "+initialFiles);
 		
-		if (initialFile == null)
+		if (initialFiles == null || initialFiles.isEmpty())
 			return;
 		
-		final ModelHolder model = new ModelHolder(initialFile);
+		final ModelHolder model = (initialFiles.size() == 1) ? new ModelHolder(initialFiles.get(0)) : new MultiDeckSession(initialFiles);
 		
 		final QuestionWindow questionWindow = new QuestionWindow(null);
 		SwingUtilities.invokeLater(new Runnable() {
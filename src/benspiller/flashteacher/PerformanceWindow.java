@@ -18,6 +18,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.LongFunction;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -53,8 +54,10 @@ import com.jgoodies.forms.factories.DefaultComponentFactory;
 import com.jgoodies.looks.Options;
 import com.jgoodies.looks.plastic.Plastic3DLookAndFeel;
 
+import benspiller.flashteacher.model.AnswerStatistics;
 import benspiller.flashteacher.model.KnowledgeIndexHistory;
 import benspiller.flashteacher.model.QuestionSetScores;
+import benspiller.flashteacher.utils.Downsampler;
 
 public class PerformanceWindow extends JDialog
 {
@@ -70,6 +73,12 @@ public class PerformanceWindow extends JDialog
 	
 	private long endOfTodayMillis;
 
+	/** 
+	 * The most data points plotted on the knowledge chart, which is about 
+	 * as many as can be distinguished at its usual width. 
+	 */
+	private static final int MAX_CHART_POINTS = 600;
+
 	private static final int DEFAULT_TIME_WINDOW_INDEX = 3;
 	private static final int TIME_WINDOW_INDEX_ALL = 0;
 	private final TimeWindow[] TIME_WINDOWS = { // must not be a static field - since current time (i.e. the upper bound) could change
@@ -130,6 +139,7 @@ public class PerformanceWindow extends JDialog
 				null,
 				"averageTimeToAnswer", 
 				"averageTimeToAllowPerCharacter",
+				"answers",
 				null,
 				"averageMinutesPerDay",
 				"totalTimeSpent"
@@ -309,35 +319,36 @@ public class PerformanceWindow extends JDialog
 				if (e.getStateChange() != ItemEvent.SELECTED) return;
 				
 				TimeWindow timeWindow = (TimeWindow)timeWindowComboBox.getSelectedItem();
+				long timeLowerBound = timeWindow.getLowerBound();
+				
+				// only chart the data points in the window, plus the one before it so the line comes in from the edge
+				int first = knowledgeIndexHistory.indexOf(timeLowerBound);
+				int last = knowledgeIndexHistory.size();
+				knowledgeDataSet.addSeries("series", Downsampler.largestTriangleThreeBuckets(
+						knowledgeIndexHistory.getKnowledgeIndexArray(Math.max(0, first-1), last), MAX_CHART_POINTS));
 				
 				for (JFreeChart chart: new JFreeChart[] {knowledgeChart, timeSpentChart})
 				{
-					if (timeWindow.getLowerBound() == 0)
+					if (timeLowerBound == 0)
 					{
 						chart.getXYPlot().getDomainAxis().setAutoRange(true); // times (x)
 						chart.getXYPlot().getRangeAxis().setAutoRange(true); // index values (y)
 					}
 					else {
-						long timeLowerBound = timeWindow.getLowerBound();
 						chart.getXYPlot().getDomainAxis().setRangeWithMargins(timeLowerBound, endOfTodayMillis);
 						
 						chart.getXYPlot().getRangeAxis().setAutoRange(true); // index values (y)
-						
-						if (chart == knowledgeChart) {
-							double minValue = -1d; // sentinel value
-							for (KnowledgeIndexHistory.DataPoint dataPoint: knowledgeIndexHistory)
-							{
-								if (dataPoint.getDate() < timeLowerBound) continue;
-								if (minValue < 0 || dataPoint.getValue() < minValue)
-									minValue = dataPoint.getValue();
-							}
-							if (minValue < 0) minValue = 0;
-							minValue = minValue*0.95; // create a margin so we can still see the bottom vlues
-							//chart.getXYPlot().getRangeAxis().setLowerBound(minValue);
-							//chart.getXYPlot().getRangeAxis().setLowerMargin(minValue);
-						}
 					}
 				}
+				
+				// the automatic range would include the point before the window, so fit the values in the window instead
+				if (timeLowerBound != 0 && first < last)
+				{
+					double minValue = knowledgeIndexHistory.getMinValue(first, last);
+					double maxValue = knowledgeIndexHistory.getMaxValue(first, last);
+					double margin = (maxValue > minValue) ? (maxValue-minValue)*0.05 : Math.max(1, Math.abs(maxValue)*0.05);
+					knowledgeChart.getXYPlot().getRangeAxis().setRange(minValue-margin, maxValue+margin);
+				}
 				timeSpentChart.getXYPlot().getRangeAxis().setLowerBound(0);
 				
 				// Since the timeSpentChart is quantitized into whole days, automatic range might leave it different to the 
@@ -345,6 +356,7 @@ public class PerformanceWindow extends JDialog
 				timeSpentChart.getXYPlot().getDomainAxis().setLowerBound(knowledgeChart.getXYPlot().getDomainAxis().getLowerBound());
 				timeSpentChart.getXYPlot().getDomainAxis().setUpperBound(knowledgeChart.getXYPlot().getDomainAxis().getUpperBound());
 
+				updateAnswerStatistics(timeWindow.getLowerBound());
 			}
 		
 		});
@@ -353,6 +365,7 @@ public class PerformanceWindow extends JDialog
 	}
 	
 	private KnowledgeIndexHistory knowledgeIndexHistory;
+	private LongFunction<AnswerStatistics> answerStatistics;
 	
 	/**
 	 * Must be called to initialize the dialog's data every time it is about to 
@@ -360,9 +373,13 @@ public class PerformanceWindow extends JDialog
 	 * @param previousScores May be <code>null</code>.
 	 * @param scores May be <code>null</code>.
 	 * @param knowledgeIndexHistory 
+	 * @param answerStatistics Returns the statistics for the answers given 
+	 * since the specified time, or null if they aren't recorded. May be 
+	 * <code>null</code> if they aren't available, e.g. for several question 
+	 * files combined. 
 	 */
 	public void initialize(QuestionSetScores previousScores, QuestionSetScores scores, 
-			KnowledgeIndexHistory knowledgeIndexHistory)
+			KnowledgeIndexHistory knowledgeIndexHistory, LongFunction<AnswerStatistics> answerStatistics)
 	{
 		if (scores == null)
 			scores = new QuestionSetScores(); // initialize to all zeroes
@@ -371,9 +388,10 @@ public class PerformanceWindow extends JDialog
 		
 		endOfTodayMillis = KnowledgeIndexHistory.removeTimeFromDateTime(System.currentTimeMillis())+1000*60*60*24;
 		
-		knowledgeDataSet.addSeries("series", knowledgeIndexHistory.getKnowledgeIndexArray());
+		// the knowledge series is set when the time window is selected below
 		timeSpentDataSet.addSeries("series", knowledgeIndexHistory.getTimeSpentArray());
 		this.knowledgeIndexHistory = knowledgeIndexHistory;
+		this.answerStatistics = answerStatistics;
 
 		summaryBar.setValue((int)scores.questionSetPercentScore);
 		
@@ -404,6 +422,8 @@ public class PerformanceWindow extends JDialog
 				args = new Object[]{ knowledgeIndexHistory.getAverageMinutesPerDayThisWeek() };
 			else if ("detailsPanel.totalTimeSpent".equals(s))
 				args = new Object[] {formatDuration(knowledgeIndexHistory.totalTimeSpentMillis())};
+			else if ("detailsPanel.answers".equals(s))
+				continue; // depends on the time window, so set by updateAnswerStatistics()
 			else
 				throw new RuntimeException("Unhandled text component: "+s);
 			
@@ -416,14 +436,32 @@ public class PerformanceWindow extends JDialog
 		timeWindowComboBox.setSelectedIndex(selected);
 		
 		// if less than 3 data points in this period, or it's less than the current selection (e.g. 2 weeks but we have only one day's data), reset to showing everything
-		if (knowledgeIndexHistory.getKnowledgeIndexArray()[0].length < 3 || 
-				knowledgeIndexHistory.getKnowledgeIndexArray()[0][knowledgeIndexHistory.getKnowledgeIndexArray()[0].length-1]-knowledgeIndexHistory.getKnowledgeIndexArray()[0][0] < timeWindowComboBox.getItemAt(selected).periodMillis)
+		if (knowledgeIndexHistory.size() < 3 || 
+				knowledgeIndexHistory.getDate(knowledgeIndexHistory.size()-1)-knowledgeIndexHistory.getDate(0) < timeWindowComboBox.getItemAt(selected).periodMillis)
 			timeWindowComboBox.setSelectedIndex(TIME_WINDOW_INDEX_ALL);
 		
 		closeButton.requestFocusInWindow();
 	}
 	
-	private static String formatDuration(long millis)
+	/**
+	 * Displays the statistics for the answers given since the start of the 
+	 * selected time window. 
+	 */
+	private void updateAnswerStatistics(long sinceMillis)
+	{
+		if (answerStatistics == null)
+		{
+			textComponents.get("detailsPanel.answers").setText(Messages.getString("PerformanceWindow.detailsPanel.answers.notAvailable"));
+			return;
+		}
+		AnswerStatistics statistics = answerStatistics.apply(sinceMillis);
+		textComponents.get("detailsPanel.answers").setText((statistics == null) 
+				? Messages.getString("PerformanceWindow.detailsPanel.answers.notRecorded")
+				: Messages.getString("PerformanceWindow.detailsPanel.answers.text", 
+						statistics.answers, statistics.getCorrectAnswersPercent(), statistics.getAverageRawTime()/1000d));
+	}
+	
+	static String formatDuration(long millis)
 	{
 		return formatDurationDelta(millis).replace("+", "");
 	}
@@ -573,7 +611,7 @@ public class PerformanceWindow extends JDialog
 		knowledgeIndexHistory.add(new Date(new Date().getTime()-1000L*60*60*4), 10000d, 2*60000);
 		knowledgeIndexHistory.add(new Date(new Date().getTime()-1000L*60*60*1), 9600d, 3*60000);
 		knowledgeIndexHistory.add(new Date(new Date().getTime()-1000L*60), 9600d, 3*60000);
-		window.initialize(previousScores, scores, knowledgeIndexHistory);
+		window.initialize(previousScores, scores, knowledgeIndexHistory, null);
 		window.setLocationRelativeTo(null);
 		window.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
 		window.closeButton.addActionListener(new ActionListener() {
@@ -14,15 +14,18 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -45,6 +48,7 @@ import javax.swing.text.StyleConstants;
 import java.util.logging.Logger;
 
 import benspiller.flashteacher.model.AnswerOutcome;
+import benspiller.flashteacher.model.KnowledgeDashboard;
 import benspiller.flashteacher.model.ModelHolder;
 import benspiller.flashteacher.model.Options;
 import benspiller.flashteacher.utils.AbstractResourceAction;
@@ -104,6 +108,7 @@ public class QuestionWindow extends JFrame {
 	private boolean someQuestionsAnswered = false;
 	
 	PerformanceWindow performanceWindow = null;
+	DashboardWindow dashboardWindow = null;
 	
 	public QuestionWindow(Window owner) {
 		super();//owner, ModalityType.APPLICATION_MODAL);
@@ -262,6 +267,7 @@ public class QuestionWindow extends JFrame {
 		}));
 		
 		menu.add(new JMenuItem(showPerformanceWindowAction));
+		menu.add(new JMenuItem(showDashboardAction));
 		
 		menu.add(new JSeparator());
 		
@@ -356,6 +362,8 @@ public class QuestionWindow extends JFrame {
 			answerField.setEnabled(false);
 			answerField.setForeground(ANSWER_COLOR_STANDARD);
 			aboutAction.setEnabled(true);
+			if (model != null)
+				model.stopWatchingQuestionFile();
 			passButton.setEnabled(false);
 			statusProgressBar.setVisible(false);
 			
@@ -386,9 +394,11 @@ public class QuestionWindow extends JFrame {
 			aboutAction.setEnabled(false);
 			statusProgressBar.setVisible(false);
 
+			model.selectNextQuestion();
 			if (!questionField.getText().equals(model.getQuestionManager().getCurrentQuestion().getQuestion())) {
 				questionField.setText(model.getQuestionManager().getCurrentQuestion().getQuestion());
 				model.onQuestionChanged();
+				model.prefetchNextQuestion();
 			}
 
 			answerTimer.startTiming();
@@ -447,21 +457,18 @@ public class QuestionWindow extends JFrame {
 		
 		answerField.setDisabledTextColor(answerField.getForeground());
 
-		// may need to save at this point
+		// may need to save at this point; this happens in the background, 
+		// so that saving a large history doesn't freeze the window
 		if (newState == States.ReadyToStart)
-			try {
-				if (oldState != States.ReadyToStart && someQuestionsAnswered)
-				{
-					logger.log(java.util.logging.Level.INFO, "Saving question history");
-					model.saveHistory();
-					someQuestionsAnswered = false;
-				}
-				else
-					logger.log(java.util.logging.Level.FINE, "NOT saving question history (someQuestionsAnswered="+someQuestionsAnswered+")");
-			} catch (IOException ioe)
+			if (oldState != States.ReadyToStart && someQuestionsAnswered)
 			{
-				JOptionPane.showMessageDialog(this, ioe.getMessage(), "Failed to save question history", JOptionPane.ERROR_MESSAGE);
+				logger.log(java.util.logging.Level.INFO, "Saving question history");
+				statusLabel.setText(Messages.getString("QuestionWindow.statusLabel.text.ReadyToStart.saving")); //$NON-NLS-1$
+				model.saveHistoryInBackground().whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> historySaved(ex)));
+				someQuestionsAnswered = false;
 			}
+			else
+				logger.log(java.util.logging.Level.FINE, "NOT saving question history (someQuestionsAnswered="+someQuestionsAnswered+")");
 
 		if (newState == States.ReadyToStart)
 			startStopButton.requestFocusInWindow();
@@ -470,11 +477,30 @@ public class QuestionWindow extends JFrame {
 		
 		String title = Messages.getString("QuestionWindow.title"); //$NON-NLS-1$
 		if (model.isLoaded() && currentState != States.ReadyToStart)
-			title += model.getQuestionManager().getSessionStatus();
+			title += model.getSessionStatus();
 		setTitle(title);
 		
 	}
 	
+	/**
+	 * Called on the event thread when a background save of the history has 
+	 * finished. 
+	 * @param ex The reason the save failed, or null if it succeeded. 
+	 */
+	void historySaved(Throwable ex)
+	{
+		if (ex instanceof CompletionException && ex.getCause() != null)
+			ex = ex.getCause();
+		if (ex != null)
+		{
+			logger.log(java.util.logging.Level.SEVERE, "Failed to save question history: ", ex);
+			JOptionPane.showMessageDialog(this, ex.getMessage(), "Failed to save question history", JOptionPane.ERROR_MESSAGE);
+		}
+		// unless we've already moved on to another session
+		else if (currentState == States.ReadyToStart)
+			statusLabel.setText(Messages.getString("QuestionWindow.statusLabel.text.ReadyToStart.saved")); //$NON-NLS-1$
+	}
+	
 	final Action startAction = new AbstractResourceAction("QuestionWindow.startAction") { 
 		private static final long serialVersionUID = 0L;
 		
@@ -487,10 +513,9 @@ public class QuestionWindow extends JFrame {
 				return;
 			}
 			try {
-				// This is slightly inefficient the first time Start is called since model was 
-				// already only just loaded during initializing... but in practice probably not 
-				// worth optimizing it since it's usually only a slow operation the very 
-				// first time (in case there is a plugin that needs to do some slow initialization). 
+				// This starts a new session; it's quick if the model was already loaded during 
+				// initializing (or by the last session), since files that haven't changed since 
+				// then aren't loaded again. 
 				model.load(questionFieldPanel);
 						
 				QuestionWindow.this.pack();
@@ -500,6 +525,8 @@ public class QuestionWindow extends JFrame {
 				JOptionPane.showMessageDialog(QuestionWindow.this, ioe.getMessage(), "Invalid File Format", JOptionPane.ERROR_MESSAGE);
 				return;
 			}
+			// so that edits to the question file take effect during the session
+			model.startWatchingQuestionFile();
 			moveToState(States.Answering);
 		}
 	
@@ -645,7 +672,8 @@ public class QuestionWindow extends JFrame {
 				performanceWindow.initialize(
 						model.getQuestionManager().getPreviousQuestionSetScores(), 
 						model.getQuestionManager().getPreviousQuestionSetScores(), 
-						model.getQuestionManager().getKnowledgeIndexHistory());				
+						model.getQuestionManager().getKnowledgeIndexHistory(),
+						model.getQuestionManager()::getAnswerStatistics);				
 			}
 			else
 			{
@@ -653,13 +681,44 @@ public class QuestionWindow extends JFrame {
 				performanceWindow.initialize(
 						model.getQuestionManager().getPreviousQuestionSetScores(), 
 						model.getQuestionManager().getQuestionSetScores(), 
-						model.getQuestionManager().getKnowledgeIndexHistory());
+						model.getQuestionManager().getKnowledgeIndexHistory(),
+						model.getQuestionManager()::getAnswerStatistics);
 			}
 			performanceWindow.setLocationRelativeTo(QuestionWindow.this);
 			performanceWindow.setVisible(true);
 		}
 	};
 	
+	final Action showDashboardAction = new AbstractResourceAction("QuestionWindow.actions.file.showDashboard") {
+		private static final long serialVersionUID = 0L;
+		private File directory = new File(ModelHolder.DEFAULT_QUESTION_FILE_DIRECTORY).getAbsoluteFile();
+		public void handleActionPerformed(ActionEvent e)
+		{
+			logger.log(java.util.logging.Level.FINE, "QuestionWindow.showDashboard");
+			JFileChooser fileChooser = new JFileChooser(directory.getParentFile());
+			fileChooser.setDialogTitle(Messages.getString(resourceKey+".chooserTitle"));
+			fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			fileChooser.setSelectedFile(directory);
+			if (fileChooser.showOpenDialog(QuestionWindow.this) != JFileChooser.APPROVE_OPTION)
+				return;
+			directory = fileChooser.getSelectedFile();
+			
+			KnowledgeDashboard dashboard;
+			try {
+				dashboard = KnowledgeDashboard.load(directory);
+			} catch (IOException ioe)
+			{
+				logger.log(java.util.logging.Level.SEVERE, "Failed to load dashboard: ", ioe);
+				JOptionPane.showMessageDialog(QuestionWindow.this, ioe.getMessage(), "Cannot Load Dashboard", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			if (dashboardWindow == null) dashboardWindow = new DashboardWindow(QuestionWindow.this);
+			dashboardWindow.initialize(directory, dashboard);
+			dashboardWindow.setLocationRelativeTo(QuestionWindow.this);
+			dashboardWindow.setVisible(true);
+		}
+	};
+	
 	/**
 	 * @return <code>true</code> if this window should be allowed to close now.  
 	 */
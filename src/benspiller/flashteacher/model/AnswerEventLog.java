@@ -0,0 +1,286 @@
+package benspiller.flashteacher.model;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.logging.Logger;
+
+/**
+ * Encodes the log of recent answers to a single question, which is kept (if
+ * the answerHistoryLength option is set) so that changes in how quickly and
+ * accurately each question is answered can be analysed, rather than just the
+ * moving average held in the question history.
+ *
+ * Each log is an immutable byte array, so the history store can share it
+ * between copies; adding an event creates a new array. The events are held
+ * newest first, so queries for recent events (the usual kind) only decode
+ * the events they need. Every number is an unsigned variable-length integer
+ * of 7 bits per byte, least significant group first:
+ * <pre>
+ * count of events
+ * newest event:  time (epoch millis), raw time to answer, (adjusted time to answer &lt;&lt; 1) | correct
+ * older events:  zig-zag encoded difference from the time of the next newer event, raw time, adjusted time | correct
+ * </pre>
+ * which takes about 8 bytes per event, rather than the 25 needed to hold
+ * the same fields in fixed-size form.
+ *
+ * @author Ben
+ */
+final class AnswerEventLog
+{
+	private static final Logger logger = Logger.getLogger(AnswerEventLog.class.getName());
+
+	private AnswerEventLog()
+	{
+	}
+
+	/**
+	 * @param log The existing log, or null if there isn't one yet.
+	 * @param time When the answer was given, in epoch millis.
+	 * @param rawTime How long the answer took, in millis.
+	 * @param adjustedTime The time recorded in the history for the answer,
+	 * i.e. adjusted for the length of the answer, or the penalty for a wrong
+	 * answer.
+	 * @param maxEvents The most events to keep; the oldest are discarded.
+	 * @return A new log with the event added.
+	 */
+	static byte[] add(byte[] log, long time, long rawTime, long adjustedTime, boolean isCorrect, int maxEvents)
+	{
+		if (maxEvents < 1)
+			throw new IllegalArgumentException("maxEvents must be at least 1");
+		Cursor previous = new Cursor(log);
+		int keep = Math.min(previous.size(), maxEvents-1);
+
+		Encoder out = new Encoder(32 + ((log == null) ? 0 : log.length));
+		out.putVarLong(keep+1);
+		out.putEvent(time, rawTime, adjustedTime, isCorrect);
+		if (keep > 0)
+		{
+			// only the newest existing event has to be re-encoded; the rest are copied as they are
+			previous.next();
+			out.putVarLong(zigZag(time-previous.getTime()));
+			out.putVarLong(previous.getRawTime());
+			out.putVarLong((previous.getAdjustedTime() << 1) | (previous.isCorrect() ? 1 : 0));
+			int start = previous.position;
+			for (int i = 1; i < keep; i++)
+				previous.next();
+			out.put(log, start, previous.position-start);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The number of events in the specified log, which may be null.
+	 */
+	static int size(byte[] log)
+	{
+		return new Cursor(log).size();
+	}
+
+	/**
+	 * @return The proportion of the answers in the specified log that were
+	 * correct, or 1 if there are none (or no log).
+	 */
+	static double getAccuracy(byte[] log)
+	{
+		Cursor cursor = new Cursor(log);
+		if (cursor.size() == 0)
+			return 1;
+		int correct = 0;
+		while (cursor.next())
+			if (cursor.isCorrect()) correct++;
+		return (double)correct/cursor.size();
+	}
+
+	/**
+	 * Adds the events in the specified log that happened in the specified
+	 * range of times to a set of statistics.
+	 * @param fromMillis Inclusive.
+	 * @param toMillis Exclusive.
+	 */
+	static void addStatistics(byte[] log, long fromMillis, long toMillis, AnswerStatistics statistics)
+	{
+		Cursor cursor = new Cursor(log);
+		while (cursor.next() && cursor.getTime() >= fromMillis)
+		{
+			if (cursor.getTime() >= toMillis)
+				continue;
+			statistics.answers++;
+			statistics.totalRawTime += cursor.getRawTime();
+			if (cursor.isCorrect())
+			{
+				statistics.correctAnswers++;
+				statistics.totalAdjustedTime += cursor.getAdjustedTime();
+			}
+		}
+	}
+
+	/**
+	 * @return The log in the form saved in the XML history file.
+	 */
+	static String toString(byte[] log)
+	{
+		return Base64.getEncoder().encodeToString(log);
+	}
+
+	/**
+	 * @return The log saved by toString(), or null if it's invalid, in which
+	 * case it's discarded, since it isn't needed for asking questions.
+	 */
+	static byte[] fromString(String value)
+	{
+		try {
+			return validate(Base64.getDecoder().decode(value));
+		} catch (IllegalArgumentException e)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Ignoring invalid answer log in question history: "+e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return The specified log, after checking that it can be decoded.
+	 * @throws IllegalArgumentException If it can't.
+	 */
+	static byte[] validate(byte[] log) throws IllegalArgumentException
+	{
+		Cursor cursor = new Cursor(log);
+		while (cursor.next()) { }
+		if (cursor.position != log.length)
+			throw new IllegalArgumentException("unexpected data after the last answer event");
+		return log;
+	}
+
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Decodes the events of a log, newest first.
+	 */
+	static final class Cursor
+	{
+		private final byte[] log;
+		private final int size;
+		private int position;
+		private int remaining;
+
+		private long time;
+		private long rawTime;
+		private long adjustedTime;
+		private boolean isCorrect;
+
+		/**
+		 * @param log May be null, which is treated as an empty log.
+		 * @throws IllegalArgumentException If the log is invalid.
+		 */
+		Cursor(byte[] log) throws IllegalArgumentException
+		{
+			this.log = log;
+			size = (log == null) ? 0 : (int)getVarLong();
+			if (size < 0)
+				throw new IllegalArgumentException("invalid answer event count");
+			remaining = size;
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Moves to the next (i.e. older) event.
+		 * @return False if there are no more events.
+		 * @throws IllegalArgumentException If the log is invalid.
+		 */
+		boolean next() throws IllegalArgumentException
+		{
+			if (remaining == 0)
+				return false;
+			time = (remaining == size) ? getVarLong() : time-unZigZag(getVarLong());
+			rawTime = getVarLong();
+			long adjusted = getVarLong();
+			adjustedTime = adjusted >>> 1;
+			isCorrect = (adjusted & 1) != 0;
+			remaining--;
+			return true;
+		}
+
+		/** @return When the answer was given, in epoch millis. */
+		long getTime() { return time; }
+		/** @return How long the answer took, in millis. */
+		long getRawTime() { return rawTime; }
+		/** @return The time recorded in the history for the answer, in millis. */
+		long getAdjustedTime() { return adjustedTime; }
+		boolean isCorrect() { return isCorrect; }
+
+		private long getVarLong()
+		{
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				if (position >= log.length)
+					throw new IllegalArgumentException("answer log is truncated");
+				byte b = log[position++];
+				result |= (long)(b & 0x7F) << shift;
+				if (b >= 0)
+					return result;
+			}
+			throw new IllegalArgumentException("invalid number in answer log");
+		}
+	}
+
+	private static final class Encoder
+	{
+		private byte[] bytes;
+		private int length;
+
+		Encoder(int initialCapacity)
+		{
+			bytes = new byte[initialCapacity];
+		}
+
+		void putEvent(long time, long rawTime, long adjustedTime, boolean isCorrect)
+		{
+			putVarLong(time);
+			putVarLong(rawTime);
+			putVarLong((adjustedTime << 1) | (isCorrect ? 1 : 0));
+		}
+
+		void putVarLong(long value)
+		{
+			if (value < 0)
+				throw new IllegalArgumentException("negative value in answer log: "+value);
+			ensureCapacity(length+10);
+			while ((value & ~0x7FL) != 0)
+			{
+				bytes[length++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte)value;
+		}
+
+		void put(byte[] source, int offset, int count)
+		{
+			ensureCapacity(length+count);
+			System.arraycopy(source, offset, bytes, length, count);
+			length += count;
+		}
+
+		private void ensureCapacity(int capacity)
+		{
+			if (capacity > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length*2));
+		}
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package benspiller.flashteacher.model;
+
+/**
+ * Statistics about the answers given during a period of time, calculated
+ * from the answer log of each question.
+ *
+ * @author Ben
+ */
+public class AnswerStatistics
+{
+	/** The number of answers given, i.e. first attempts at a question. */
+	public int answers;
+	public int correctAnswers;
+
+	/** The total time taken for all answers, in millis. */
+	public long totalRawTime;
+	/** The total time recorded for the correct answers, i.e. adjusted for the length of each answer, in millis. */
+	public long totalAdjustedTime;
+
+	/**
+	 * @return The percentage of answers that were correct, or 0 if there
+	 * were none.
+	 */
+	public double getCorrectAnswersPercent()
+	{
+		return (answers == 0) ? 0 : 100d*correctAnswers/answers;
+	}
+
+	/**
+	 * @return The average time taken for each answer, in millis.
+	 */
+	public long getAverageRawTime()
+	{
+		return (answers == 0) ? 0 : totalRawTime/answers;
+	}
+
+	/**
+	 * @return The average time recorded for each correct answer, in millis.
+	 */
+	public long getAverageAdjustedTime()
+	{
+		return (correctAnswers == 0) ? 0 : totalAdjustedTime/correctAnswers;
+	}
+}
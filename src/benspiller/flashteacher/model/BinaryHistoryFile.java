@@ -0,0 +1,521 @@
+package benspiller.flashteacher.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the binary question history format, a compact
+ * alternative to the XML history file that is much smaller and quicker to
+ * load and save for large question sets. It holds exactly the same
+ * information as the XML file, and HistoryConverter converts between them.
+ *
+ * The file consists of a header, a sequence of sections, and a trailer:
+ * <pre>
+ * header:  int MAGIC, short VERSION, short 0 (reserved)
+ * section: int section id, int length of the contents in bytes, contents
+ * trailer: int CRC32 of everything before the trailer
+ * </pre>
+ * The sections are:
+ * <ul>
+ * <li>SECTION_STRINGS: int count, then for each string an int length and
+ * that many bytes of UTF-8. Records refer to their text by its index in this
+ * table, so text that appears in many records is only stored once. </li>
+ * <li>SECTION_RECORDS: int count, int record size, then that many
+ * fixed-size records, each holding the fields of a QuestionHistory (see
+ * writeRecord()), in the same order as the XML file. </li>
+ * <li>SECTION_SCORES: the previous question set scores, as saved in the XML
+ * file. </li>
+ * <li>SECTION_KNOWLEDGE_INDEX: int count, then for each data point a long
+ * date, double value and long session duration, followed by the int
+ * length and UTF-8 bytes of the id of the time zone used to group them into
+ * days (which is missing from files saved by earlier versions). </li>
+ * <li>SECTION_ANSWER_LOGS: int count, then for each record that has an
+ * answer log, the int index of the record in SECTION_RECORDS, an int length
+ * and the log as encoded by AnswerEventLog. Only written if there are any
+ * answer logs. </li>
+ * </ul>
+ * All numbers are big-endian. Sections with unknown ids and any bytes after
+ * the known fields of a record are skipped when reading, so fields and
+ * sections can be added without changing the version, which only changes if
+ * the existing contents change in an incompatible way.
+ *
+ * @author Ben
+ */
+final class BinaryHistoryFile
+{
+	static final int MAGIC = 0x46544842; // "FTHB"
+	static final short VERSION = 1;
+
+	static final int SECTION_STRINGS = 1;
+	static final int SECTION_RECORDS = 2;
+	static final int SECTION_SCORES = 3;
+	static final int SECTION_KNOWLEDGE_INDEX = 4;
+	static final int SECTION_ANSWER_LOGS = 5;
+
+	private static final byte FLAG_PRIORITIZED = 1;
+
+	/** The number of bytes written by writeRecordFields(). */
+	static final int RECORD_FIELDS_SIZE = 4 + 1 + 5*8 + 4;
+	/** The number of bytes written for each record by this version. */
+	static final int RECORD_SIZE = 3*4 + RECORD_FIELDS_SIZE;
+	private static final int SCORES_SIZE = 5*4 + 3*8 + 2*8;
+	private static final int KNOWLEDGE_INDEX_DATA_SIZE = 3*8;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int TRAILER_SIZE = 4;
+	private static final int BUFFER_SIZE = 64*1024;
+
+	private BinaryHistoryFile()
+	{
+	}
+
+	/**
+	 * @return True if the specified file starts with the binary history
+	 * format's magic number, false if it doesn't (e.g. if it's XML).
+	 */
+	static boolean isBinaryHistoryFile(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return file.length() >= HEADER_SIZE && in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves the specified history to a file.
+	 * @throws IOException If the file cannot be written, or the history is
+	 * too large for the format.
+	 */
+	static void write(HistorySnapshot history, File file) throws IOException
+	{
+		// build the string table first, so each section's length can be written before its contents
+		int recordCount = history.records.size();
+		Map<String, Integer> stringIndexes = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		long stringsLength = 4;
+		int[] textIndexes = new int[3*recordCount];
+		// most records won't have an answer log, so only those that do are listed
+		List<Integer> answerLogIndexes = new ArrayList<>();
+		List<byte[]> answerLogs = new ArrayList<>();
+		long answerLogsLength = 4;
+		for (int i = 0; i < recordCount; i++)
+		{
+			QuestionHistory record = history.records.get(i);
+			if (record.answerLog != null)
+			{
+				answerLogIndexes.add(i);
+				answerLogs.add(record.answerLog);
+				answerLogsLength += 8 + record.answerLog.length;
+			}
+			String[] texts = {record.question.getQuestion(), record.question.getAnswer(),
+					(record.totalWrongAnswers > 0) ? record.lastWrongAnswer : null};
+			for (int t = 0; t < texts.length; t++)
+			{
+				if (texts[t] == null)
+				{
+					textIndexes[3*i+t] = -1;
+					continue;
+				}
+				Integer index = stringIndexes.get(texts[t]);
+				if (index == null)
+				{
+					index = strings.size();
+					stringIndexes.put(texts[t], index);
+					strings.add(texts[t]);
+					stringsLength += 4 + texts[t].getBytes(StandardCharsets.UTF_8).length;
+				}
+				textIndexes[3*i+t] = index;
+			}
+		}
+		stringIndexes = null;
+		long recordsLength = 8 + (long)RECORD_SIZE*recordCount;
+		if (stringsLength > Integer.MAX_VALUE || recordsLength > Integer.MAX_VALUE || answerLogsLength > Integer.MAX_VALUE)
+			throw new IOException("The question history is too large to be saved in the binary format");
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			OutputStream channelStream = Channels.newOutputStream(channel);
+			CheckedOutputStream checkedStream = new CheckedOutputStream(channelStream, new CRC32());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checkedStream, BUFFER_SIZE));
+
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+
+			out.writeInt(SECTION_STRINGS);
+			out.writeInt((int)stringsLength);
+			out.writeInt(strings.size());
+			for (String s: strings)
+			{
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(SECTION_RECORDS);
+			out.writeInt((int)recordsLength);
+			out.writeInt(recordCount);
+			out.writeInt(RECORD_SIZE);
+			for (int i = 0; i < recordCount; i++)
+				writeRecord(out, history.records.get(i), textIndexes[3*i], textIndexes[3*i+1], textIndexes[3*i+2]);
+
+			if (!answerLogs.isEmpty())
+			{
+				out.writeInt(SECTION_ANSWER_LOGS);
+				out.writeInt((int)answerLogsLength);
+				out.writeInt(answerLogs.size());
+				for (int i = 0; i < answerLogs.size(); i++)
+				{
+					out.writeInt(answerLogIndexes.get(i));
+					out.writeInt(answerLogs.get(i).length);
+					out.write(answerLogs.get(i));
+				}
+			}
+
+			QuestionSetScores scores = history.questionSetScores;
+			out.writeInt(SECTION_SCORES);
+			out.writeInt(SCORES_SIZE);
+			out.writeInt(scores.unknownAnswers);
+			out.writeInt(scores.wrongAnswers);
+			out.writeInt(scores.slowAnswers);
+			out.writeInt(scores.quickAnswers);
+			out.writeInt(scores.totalQuestions);
+			out.writeLong(scores.oldestQuestionAskedMillis);
+			out.writeLong(scores.averageTimeToAnswer);
+			out.writeLong(scores.averageTimePerCharacter);
+			out.writeDouble(scores.questionSetPercentScore);
+			out.writeDouble(scores.knowledgeIndexScore);
+
+			KnowledgeIndexHistory knowledgeIndexHistory = history.knowledgeIndexHistory;
+			byte[] zoneId = knowledgeIndexHistory.getZone().getId().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(SECTION_KNOWLEDGE_INDEX);
+			out.writeInt(4 + KNOWLEDGE_INDEX_DATA_SIZE*knowledgeIndexHistory.size() + 4 + zoneId.length);
+			out.writeInt(knowledgeIndexHistory.size());
+			for (int i = 0; i < knowledgeIndexHistory.size(); i++)
+			{
+				out.writeLong(knowledgeIndexHistory.getDate(i));
+				out.writeDouble(knowledgeIndexHistory.getValue(i));
+				out.writeLong(knowledgeIndexHistory.getSessionDurationMillis(i));
+			}
+			out.writeInt(zoneId.length);
+			out.write(zoneId);
+
+			out.flush();
+			// the trailer isn't included in the checksum
+			new DataOutputStream(channelStream).writeInt((int)checkedStream.getChecksum().getValue());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the fields of a record, in the order they are read by readRecord().
+	 * @param lastWrongAnswerIndex -1 if there have been no wrong answers.
+	 */
+	private static void writeRecord(DataOutputStream out, QuestionHistory record, int questionTextIndex, int answerTextIndex, int lastWrongAnswerIndex) throws IOException
+	{
+		out.writeInt(questionTextIndex);
+		out.writeInt(answerTextIndex);
+		out.writeInt(lastWrongAnswerIndex);
+		writeRecordFields(out, record);
+	}
+
+	/**
+	 * Writes the numeric fields of a record, in the order they are read by
+	 * readRecordFields(). This is also used by HistoryJournal.
+	 */
+	static void writeRecordFields(DataOutput out, QuestionHistory record) throws IOException
+	{
+		out.writeInt(record.passModeCounter);
+		out.writeByte(record.isPrioritized ? FLAG_PRIORITIZED : 0);
+		out.writeLong(record.averageTimeToAnswer);
+		out.writeLong(record.timeLastAsked);
+		out.writeLong(record.totalTimesAsked);
+		out.writeLong(record.totalWrongAnswers);
+		out.writeLong(record.dueTime);
+		out.writeInt(record.repetitionInterval);
+	}
+
+	/**
+	 * Reads a binary history file.
+	 * @throws IOException If the file can't be read, isn't a binary history
+	 * file, or is corrupt.
+	 */
+	static LoadedHistory read(File file) throws IOException
+	{
+		ByteBuffer buffer;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("The question history file is too large: \""+file+"\"");
+			// read into the heap rather than mapping the file, since a mapped file can't be replaced on Windows until it's garbage collected
+			buffer = ByteBuffer.allocate((int)size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+			buffer.flip();
+		} finally {
+			channel.close();
+		}
+
+		checkHeader(buffer, buffer.remaining(), file);
+
+		CRC32 crc = new CRC32();
+		ByteBuffer contents = buffer.duplicate();
+		contents.limit(buffer.limit()-TRAILER_SIZE);
+		crc.update(contents);
+		if ((int)crc.getValue() != buffer.getInt(buffer.limit()-TRAILER_SIZE))
+			throw new IOException("The question history file \""+file+"\" is corrupt (checksum mismatch)");
+
+		buffer.position(HEADER_SIZE);
+		buffer.limit(buffer.limit()-TRAILER_SIZE);
+		LoadedHistory history = new LoadedHistory();
+		String[] strings = null;
+		try {
+			while (buffer.hasRemaining())
+			{
+				int sectionId = buffer.getInt();
+				int length = buffer.getInt();
+				int end = buffer.position()+length;
+				if (length < 0 || end > buffer.limit())
+					throw new IOException("The question history file \""+file+"\" is corrupt (invalid section length)");
+				switch (sectionId)
+				{
+				case SECTION_STRINGS:
+					strings = readStrings(buffer);
+					break;
+				case SECTION_RECORDS:
+					if (strings == null)
+						throw new IOException("The question history file \""+file+"\" is corrupt (records before strings)");
+					readRecords(buffer, strings, history);
+					break;
+				case SECTION_SCORES:
+					history.previousQuestionSetScores = readScores(buffer);
+					break;
+				case SECTION_KNOWLEDGE_INDEX:
+					history.knowledgeIndexHistory = readKnowledgeIndexHistory(buffer, end);
+					break;
+				case SECTION_ANSWER_LOGS:
+					readAnswerLogs(buffer, history);
+					break;
+				}
+				// skip any unknown sections, or any contents added to known sections by a later version
+				buffer.position(end);
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+		{
+			throw new IOException("The question history file \""+file+"\" is corrupt: "+e, e);
+		}
+		return history;
+	}
+
+	/**
+	 * Reads just the scores and knowledge index history from a binary history 
+	 * file, for summarising it without loading the history of every question; 
+	 * the records of the result are empty. The other sections, which are 
+	 * almost all of the file, are skipped without being read, so the checksum 
+	 * isn't checked. 
+	 * @throws IOException If the file can't be read, isn't a binary history
+	 * file, or is corrupt.
+	 */
+	static LoadedHistory readSummary(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (size >= HEADER_SIZE)
+				readFully(channel, header, 0);
+			checkHeader(header, size, file);
+
+			LoadedHistory history = new LoadedHistory();
+			ByteBuffer sectionHeader = ByteBuffer.allocate(8);
+			long position = HEADER_SIZE;
+			long end = size-TRAILER_SIZE;
+			while (position < end)
+			{
+				sectionHeader.clear();
+				readFully(channel, sectionHeader, position);
+				int sectionId = sectionHeader.getInt(0);
+				int length = sectionHeader.getInt(4);
+				position += 8;
+				if (length < 0 || position+length > end)
+					throw new IOException("The question history file \""+file+"\" is corrupt (invalid section length)");
+				if (sectionId == SECTION_SCORES || sectionId == SECTION_KNOWLEDGE_INDEX)
+				{
+					ByteBuffer contents = ByteBuffer.allocate(length);
+					readFully(channel, contents, position);
+					contents.flip();
+					if (sectionId == SECTION_SCORES)
+						history.previousQuestionSetScores = readScores(contents);
+					else
+						history.knowledgeIndexHistory = readKnowledgeIndexHistory(contents, length);
+				}
+				position += length;
+			}
+			return history;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+		{
+			throw new IOException("The question history file \""+file+"\" is corrupt: "+e, e);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Checks the header at the start of the specified buffer.
+	 * @param size The size of the file.
+	 * @throws IOException If it isn't a binary history file, or is a version
+	 * that can't be read.
+	 */
+	private static void checkHeader(ByteBuffer buffer, long size, File file) throws IOException
+	{
+		if (size < HEADER_SIZE+TRAILER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a binary question history file: \""+file+"\"");
+		int version = buffer.getShort(4);
+		if (version > VERSION)
+			throw new IOException("The question history file \""+file+"\" was saved by a newer version of FlashTeacher (binary format version "+version+")");
+	}
+
+	/**
+	 * Fills the specified buffer with the contents of the file at the
+	 * specified position.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		int start = buffer.position();
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position+buffer.position()-start) < 0)
+				throw new EOFException("Unexpected end of question history file");
+	}
+
+	private static String[] readStrings(ByteBuffer buffer)
+	{
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++)
+		{
+			int length = buffer.getInt();
+			strings[i] = new String(buffer.array(), buffer.arrayOffset()+buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position()+length);
+		}
+		return strings;
+	}
+
+	private static void readRecords(ByteBuffer buffer, String[] strings, LoadedHistory history)
+	{
+		int count = buffer.getInt();
+		int recordSize = buffer.getInt();
+		if (recordSize < RECORD_SIZE)
+			throw new IllegalArgumentException("record size "+recordSize+" is too small");
+		for (int i = 0; i < count; i++)
+		{
+			int start = buffer.position();
+			String questionText = strings[buffer.getInt()];
+			String answerText = strings[buffer.getInt()];
+			int lastWrongAnswerIndex = buffer.getInt();
+
+			QuestionHistory record = new QuestionHistory(null);
+			readRecordFields(buffer, record);
+			record.lastWrongAnswer = (lastWrongAnswerIndex < 0) ? "" : strings[lastWrongAnswerIndex];
+			history.addRecord(questionText, answerText, record);
+
+			buffer.position(start+recordSize);
+		}
+	}
+
+	/**
+	 * Reads the answer logs into records that have already been read.
+	 */
+	private static void readAnswerLogs(ByteBuffer buffer, LoadedHistory history)
+	{
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++)
+		{
+			QuestionHistory record = history.records.get(buffer.getInt());
+			byte[] answerLog = new byte[buffer.getInt()];
+			buffer.get(answerLog);
+			record.answerLog = AnswerEventLog.validate(answerLog);
+		}
+	}
+
+	/**
+	 * Reads the fields written by writeRecordFields() into the specified record.
+	 */
+	static void readRecordFields(ByteBuffer buffer, QuestionHistory record)
+	{
+		record.passModeCounter = buffer.getInt();
+		record.isPrioritized = (buffer.get() & FLAG_PRIORITIZED) != 0;
+		record.averageTimeToAnswer = buffer.getLong();
+		record.timeLastAsked = buffer.getLong();
+		record.totalTimesAsked = buffer.getLong();
+		record.totalWrongAnswers = buffer.getLong();
+		record.dueTime = buffer.getLong();
+		record.repetitionInterval = buffer.getInt();
+	}
+
+	private static QuestionSetScores readScores(ByteBuffer buffer)
+	{
+		QuestionSetScores scores = new QuestionSetScores();
+		scores.unknownAnswers = buffer.getInt();
+		scores.wrongAnswers = buffer.getInt();
+		scores.slowAnswers = buffer.getInt();
+		scores.quickAnswers = buffer.getInt();
+		scores.totalQuestions = buffer.getInt();
+		scores.oldestQuestionAskedMillis = buffer.getLong();
+		scores.averageTimeToAnswer = buffer.getLong();
+		scores.averageTimePerCharacter = buffer.getLong();
+		scores.questionSetPercentScore = buffer.getDouble();
+		scores.knowledgeIndexScore = buffer.getDouble();
+		return scores;
+	}
+
+	/**
+	 * @param end The end of the section. 
+	 */
+	private static KnowledgeIndexHistory readKnowledgeIndexHistory(ByteBuffer buffer, int end)
+	{
+		int count = buffer.getInt();
+		// the time zone follows the data points, but is needed before they're added
+		String zoneId = null;
+		int zonePosition = buffer.position() + KNOWLEDGE_INDEX_DATA_SIZE*count;
+		if (count >= 0 && zonePosition+4 <= end)
+		{
+			byte[] bytes = new byte[buffer.getInt(zonePosition)];
+			ByteBuffer zone = buffer.duplicate();
+			zone.position(zonePosition+4);
+			zone.get(bytes);
+			zoneId = new String(bytes, StandardCharsets.UTF_8);
+		}
+		KnowledgeIndexHistory knowledgeIndexHistory = new KnowledgeIndexHistory(KnowledgeIndexHistory.getZone(zoneId));
+		for (int i = 0; i < count; i++)
+		{
+			long date = buffer.getLong();
+			double value = buffer.getDouble();
+			long sessionDurationMillis = buffer.getLong();
+			if (date <= 0) continue; // as for the XML
+			knowledgeIndexHistory.add(date, value, sessionDurationMillis);
+		}
+		return knowledgeIndexHistory;
+	}
+}
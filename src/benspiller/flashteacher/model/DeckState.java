@@ -0,0 +1,341 @@
+package benspiller.flashteacher.model;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The questions from a question file matched up with their history, which
+ * is what a QuestionManager starts a session from.
+ *
+ * ModelHolder keeps the state as it was last loaded from or saved to disk,
+ * so that when the user starts another session it doesn't need to read
+ * the files again if they haven't changed; and if only the question file
+ * has changed, the new questions can be matched up with the history that's
+ * already in memory using rematch(), rather than reading the history file.
+ *
+ * Not thread-safe, but never modified once created: a QuestionManager
+ * works on a copy().
+ *
+ * @author Ben
+ */
+final class DeckState
+{
+	private static final Logger logger = Logger.getLogger(DeckState.class.getName());
+
+	/** The history of each question in the question file. */
+	final QuestionHistoryStore store;
+
+	/**
+	 * The history of questions that are no longer in the question file,
+	 * which is retained in case they are re-added later.
+	 */
+	final List<QuestionHistory> removedQuestions;
+
+	final QuestionSetScores previousQuestionSetScores;
+	final KnowledgeIndexHistory knowledgeIndexHistory;
+
+	DeckState(QuestionHistoryStore store, List<QuestionHistory> removedQuestions, QuestionSetScores previousQuestionSetScores, KnowledgeIndexHistory knowledgeIndexHistory)
+	{
+		this.store = store;
+		this.removedQuestions = removedQuestions;
+		this.previousQuestionSetScores = previousQuestionSetScores;
+		this.knowledgeIndexHistory = knowledgeIndexHistory;
+	}
+
+	/**
+	 * Matches up the questions from a question file with the history loaded
+	 * from a history file.
+	 * @throws IOException If a question appears more than once.
+	 */
+	static DeckState match(List<Question> questions, LoadedHistory history, Options options) throws IOException
+	{
+		QuestionHistoryStore store = new QuestionHistoryStore(questions.size());
+		List<QuestionHistory> removedQuestions = new ArrayList<>();
+		Map<String, Question> loadedQuestions = indexByText(questions);
+
+		// Then, add the questions from the history file to the store
+		for (int i = 0; i < history.size(); i++)
+		{
+			String questionText = history.questionTexts.get(i);
+			String answerText = history.answerTexts.get(i);
+
+			Question existingQuestion = loadedQuestions.get(questionText);
+
+			// ignore history if the question or answer has changed - the
+			// question list is the only authoritative source of data
+
+			if (existingQuestion == null)
+			{
+				// but don't delete them from the on-disk file, might want to come back to them later
+				removedQuestions.add(new QuestionHistory( new Question(questionText, answerText, options.isCaseSensitive), history.records.get(i)));
+				logger.log(java.util.logging.Level.INFO, "Ignoring question which is no longer in the question file: \""+questionText+"\"");
+				continue;
+			}
+			if (!existingQuestion.isAnswerCorrect(answerText))
+			{
+				logger.log(java.util.logging.Level.INFO, "Answer has changed, so ignoring history for question: \""+existingQuestion+"\"");
+				continue;
+			}
+
+			// add the question with the history from this file, so it
+			// isn't added again as a new question below
+			loadedQuestions.remove(questionText);
+			store.add(existingQuestion, history.records.get(i));
+		}
+
+		addNewQuestions(store, loadedQuestions);
+		return new DeckState(store, removedQuestions, history.previousQuestionSetScores, history.knowledgeIndexHistory);
+	}
+
+	/**
+	 * Matches up the questions from a question file that has changed with
+	 * this history, in the same way as match() would if this history had
+	 * been saved and loaded again, but without creating a record for every
+	 * question. The history of questions that are in both is kept; questions
+	 * that have been removed from the file are moved to removedQuestions;
+	 * new questions (including any that were removed previously) are added;
+	 * and the history of questions whose answer has changed is discarded.
+	 *
+	 * This state isn't changed.
+	 * @param questions The questions from the question file. The options
+	 * they were created with must be the same as this history's.
+	 * @throws IOException If a question appears more than once.
+	 */
+	DeckState rematch(List<Question> questions) throws IOException
+	{
+		return apply(matchChanges(questions));
+	}
+
+	/**
+	 * How to change the questions of a DeckState to those of a question file
+	 * that has changed, as worked out by matchChanges(). The changes refer
+	 * to questions by their id, so can be applied to any state with the same
+	 * questions, e.g. a copy of it whose history has changed since.
+	 */
+	static final class Changes
+	{
+		/** Used in sources for a question that has no history yet. */
+		static final int NEW_QUESTION = Integer.MIN_VALUE;
+
+		/** The question for each id in the new state. */
+		final Question[] questions;
+		/**
+		 * For each id in the new state, the id in the old state that its
+		 * history comes from; or, for questions that were restored from
+		 * the old removedQuestions, -1 minus the index in that list; or
+		 * NEW_QUESTION.
+		 */
+		final int[] sources;
+		/** The ids in the old state of questions that are no longer in the file. */
+		final int[] removedIds;
+		/** The indexes in the old removedQuestions of questions that still aren't in the file. */
+		final int[] stillRemoved;
+
+		Changes(Question[] questions, int[] sources, int[] removedIds, int[] stillRemoved)
+		{
+			this.questions = questions;
+			this.sources = sources;
+			this.removedIds = removedIds;
+			this.stillRemoved = stillRemoved;
+		}
+
+		/**
+		 * @return The id in the new state of the question with the specified
+		 * id in the old state, or -1 if it has been removed or its history
+		 * discarded.
+		 */
+		int getNewId(int oldId)
+		{
+			for (int id = 0; id < sources.length; id++)
+				if (sources[id] == oldId)
+					return id;
+			return -1;
+		}
+	}
+
+	/**
+	 * Works out how the questions of this state differ from those of a
+	 * question file that has changed, as described for rematch(), without
+	 * changing anything.
+	 * @throws IOException If a question appears more than once.
+	 */
+	Changes matchChanges(List<Question> questions) throws IOException
+	{
+		Question[] newQuestions = new Question[questions.size()];
+		int[] sources = new int[questions.size()];
+		int size = 0;
+		int[] removedIds = new int[store.size()];
+		int removed = 0, changed = 0, restored = 0;
+		int[] stillRemoved = new int[removedQuestions.size()];
+		int stillRemovedSize = 0;
+		Map<String, Question> loadedQuestions = indexByText(questions);
+
+		for (int id = 0; id < store.size(); id++)
+		{
+			Question oldQuestion = store.getQuestion(id);
+			Question newQuestion = loadedQuestions.get(oldQuestion.getQuestion());
+			if (newQuestion == null)
+				removedIds[removed++] = id;
+			else if (isSameAnswer(newQuestion, oldQuestion.getAnswer()))
+			{
+				loadedQuestions.remove(oldQuestion.getQuestion());
+				newQuestions[size] = newQuestion;
+				sources[size++] = id;
+			}
+			else
+			{
+				// left in loadedQuestions, so it's added as a new question below
+				logger.log(java.util.logging.Level.INFO, "Answer has changed, so ignoring history for question: \""+newQuestion+"\"");
+				changed++;
+			}
+		}
+		for (int i = 0; i < removedQuestions.size(); i++)
+		{
+			QuestionHistory history = removedQuestions.get(i);
+			Question newQuestion = loadedQuestions.get(history.question.getQuestion());
+			if (newQuestion == null)
+				stillRemoved[stillRemovedSize++] = i;
+			else if (isSameAnswer(newQuestion, history.question.getAnswer()))
+			{
+				loadedQuestions.remove(newQuestion.getQuestion());
+				newQuestions[size] = newQuestion;
+				sources[size++] = -1-i;
+				restored++;
+			}
+		}
+		int added = loadedQuestions.size()-changed;
+
+		for (Question q: loadedQuestions.values()) {
+			if (logger.isLoggable(Level.INFO))
+				logger.log(java.util.logging.Level.INFO, "Adding new question: "+q);
+			newQuestions[size] = q;
+			sources[size++] = Changes.NEW_QUESTION;
+		}
+		logger.log(java.util.logging.Level.INFO, "Question file has changed: "+added+" questions added, "+removed+" removed, "+changed+" with a different answer, "+restored+" restored from the history of removed questions");
+		return new Changes(newQuestions, sources, Arrays.copyOf(removedIds, removed), Arrays.copyOf(stillRemoved, stillRemovedSize));
+	}
+
+	/**
+	 * @return A new state with the specified changes applied to this one,
+	 * which must have the same questions as the state they were worked out
+	 * from. This state isn't changed.
+	 */
+	DeckState apply(Changes changes)
+	{
+		QuestionHistoryStore newStore = new QuestionHistoryStore(changes.questions.length);
+		for (int id = 0; id < changes.questions.length; id++)
+		{
+			int source = changes.sources[id];
+			if (source >= 0)
+				newStore.add(changes.questions[id], store, source);
+			else if (source == Changes.NEW_QUESTION)
+				newStore.add(new QuestionHistory(changes.questions[id]));
+			else
+				newStore.add(changes.questions[id], removedQuestions.get(-1-source));
+		}
+
+		List<QuestionHistory> newRemovedQuestions = new ArrayList<>(changes.removedIds.length+changes.stillRemoved.length);
+		for (int id: changes.removedIds)
+			newRemovedQuestions.add(store.getRecord(id));
+		for (int i: changes.stillRemoved)
+			newRemovedQuestions.add(removedQuestions.get(i));
+		return new DeckState(newStore, newRemovedQuestions, previousQuestionSetScores, knowledgeIndexHistory);
+	}
+
+	/**
+	 * @return True if the specified answer is correct for the question,
+	 * without the cost of a full comparison if it's identical.
+	 */
+	private static boolean isSameAnswer(Question question, String answerText)
+	{
+		// (plugins may override isAnswerCorrect, so only take the shortcut for plain questions)
+		if (question.getClass() == Question.class && question.getAnswer().equals(answerText))
+			return true;
+		return question.isAnswerCorrect(answerText);
+	}
+
+	/**
+	 * @return The questions keyed by their question text.
+	 * @throws IOException If a question appears more than once.
+	 */
+	private static Map<String, Question> indexByText(List<Question> questions) throws IOException
+	{
+		Map<String, Question> result = new HashMap<>();
+		for (Question q: questions)
+		{
+			Question duplicateQuestion = result.put(q.getQuestion(), q);
+			if (duplicateQuestion != null)
+				throw new IOException("Invalid question file - question appears more than once: \""+duplicateQuestion+"\"");
+		}
+		return result;
+	}
+
+	/** Adds new questions that aren't in the history yet. */
+	private static void addNewQuestions(QuestionHistoryStore store, Map<String, Question> newQuestions)
+	{
+		for (Question q: newQuestions.values()) {
+			if (logger.isLoggable(Level.INFO))
+				logger.log(java.util.logging.Level.INFO, "Adding new question: "+q);
+			store.add(new QuestionHistory(q));
+		}
+	}
+
+	/**
+	 * @return A copy of this state, for a QuestionManager to change.
+	 */
+	DeckState copy()
+	{
+		return new DeckState(store.copy(), new ArrayList<>(removedQuestions), previousQuestionSetScores, new KnowledgeIndexHistory(knowledgeIndexHistory));
+	}
+
+	/**
+	 * @return This history in the form needed to save it, with the previous
+	 * scores as the scores to save. The records are sorted and created when
+	 * they're first read.
+	 */
+	HistorySnapshot toSnapshot()
+	{
+		// a view rather than a copy, to avoid creating an object per question up front
+		List<QuestionHistory> records = new AbstractList<QuestionHistory>() {
+			int[] ids;
+
+			@Override
+			public QuestionHistory get(int index)
+			{
+				if (ids == null) ids = getQuestionIdsInSaveOrder(store);
+				return (index < ids.length) ? store.getRecord(ids[index]) : removedQuestions.get(index-ids.length);
+			}
+
+			@Override
+			public int size()
+			{
+				return store.size()+removedQuestions.size();
+			}
+		};
+		return new HistorySnapshot(records, store.size(), previousQuestionSetScores, knowledgeIndexHistory);
+	}
+
+	/**
+	 * @return The ids of all the questions, sorted by time to answer with the
+	 * longest first, so we can look inside the file manually and see which are worse.
+	 */
+	private static int[] getQuestionIdsInSaveOrder(QuestionHistoryStore allQuestions)
+	{
+		// (sort (averageTimeToAnswer, id) pairs packed into longs, to avoid creating an object per question)
+		long[] sortedQuestions = new long[allQuestions.size()];
+		for (int id = 0; id < sortedQuestions.length; id++)
+			sortedQuestions[id] = (Math.max(0, Math.min(allQuestions.getAverageTimeToAnswer(id), Integer.MAX_VALUE)) << 32) | id;
+		Arrays.sort(sortedQuestions);
+		int[] result = new int[sortedQuestions.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = (int)sortedQuestions[sortedQuestions.length-1-i];
+		return result;
+	}
+}
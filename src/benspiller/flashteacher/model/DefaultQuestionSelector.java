@@ -0,0 +1,372 @@
+package benspiller.flashteacher.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import benspiller.flashteacher.utils.IndexedIntSet;
+import benspiller.flashteacher.utils.LinkedIntQueue;
+import benspiller.flashteacher.utils.OrderStatisticTree;
+
+/**
+ * The original question selection strategy, which picks randomly from one
+ * of three buckets: a small number of prioritized passed/new questions, the
+ * questions with the worst times, and the least-recently-asked questions.
+ *
+ * @author Ben
+ */
+class DefaultQuestionSelector implements QuestionSelector
+{
+	final Logger logger = Logger.getLogger(getClass().getName());
+
+	/*
+	 *
+	 * Parameters governing question selection
+	 *
+	 */
+
+	/** Probability of selecting a question from the prioritized list (unless there are none) */
+	static final float QUESTION_SELECTION_PROBABILITY_PRIORITIZED = 0.5f;
+
+	/** If we've decided not to select a question from the prioritized list, gives the probability we will
+	 * select from the "bad" list (rather than the "old" list). */
+	static final float QUESTION_SELECTION_PROBABILITY_BAD_TIME = 0.75f;
+
+	/**
+	 * Equal to x, when a question is selected randomly from the least-recently-
+	 * asked x% of the question corpus.
+	 */
+	static final int QUESTION_SELECTION_LEAST_RECENTLY_ASKED_BUCKET_PERCENTAGE = 10; // 10%
+
+	/**
+	 * Equal to x, when a question is selected randomly from the worst x
+	 * question-answer times in the corpus.
+	 */
+	static final int QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE = 20;
+
+	/**
+	 * The default maximum number of questions to keep in the 'very bad' bucket at
+	 * any one time - to allow the user to properly get one lot of questions
+	 * right before tackling the rest! Can be overridden for each question file
+	 * using the prioritizedQuestionsBucketSize option.
+	 */
+	static final int DEFAULT_PRIORITIZED_QUESTIONS_BUCKET_SIZE = 10;
+
+	/*
+	 *
+	 * Data structures
+	 *
+	 */
+
+	final QuestionHistoryStore allQuestions;
+
+	final SplittableRandom random;
+
+	/**
+	 * An index of all questions ordered by timeLastAsked (with never-asked
+	 * questions first), which is updated every time a question is asked.
+	 */
+	final OrderStatisticTree leastRecentlyAskedQuestions;
+
+	/**
+	 * An index of questions that have been asked at least once and were in recently-passed
+	 * mode (i.e. that have a time associated with them), ordered by averageTimeToAnswer.
+	 * Updated whenever the answer time or pass mode of a question changes.
+	 */
+	final OrderStatisticTree nonPassedQuestions;
+
+	/**
+	 * A set of questions that were passed/not-yet-asked and are also marked as prioritized
+	 * questions (based on the principal that we should concentrate on learning
+	 * a small number of questions at a time).
+	 */
+	final IndexedIntSet prioritizedQuestions;
+
+	/**
+	 * The maximum number of questions allowed in prioritizedQuestions, from the options.
+	 */
+	final int maximumPrioritizedQuestions;
+
+	/**
+	 * Questions that have been asked and passed (so passModeCounter > 0) but are not
+	 * yet prioritized, in the order they became candidates for prioritization.
+	 */
+	final LinkedIntQueue passedPrioritizationCandidates;
+
+	/**
+	 * Questions that are newly added (never asked) and not yet prioritized, in
+	 * the order they became candidates for prioritization.
+	 */
+	final LinkedIntQueue neverAskedPrioritizationCandidates;
+
+	// (note nonPassedQuestions + prioritizedQuestions + passedPrioritizationCandidates + neverAskedPrioritizationCandidates = allQuestions)
+
+	float getUnknownQuestionsFraction() { return 1 - (nonPassedQuestions.size() / allQuestions.size()); }
+
+	private enum QuestionTypeSelectionMethod
+	{
+		UNKNOWN("<unknown question selection method>"),
+		PRIORITIZED_LIST_PASSED("Question is from the prioritised 'passed' question list"),
+		PRIORITIZED_LIST_NEVER_ASKED("Question is from the prioritised 'never asked' question list"),
+		BAD_TIMES_LIST("Question is from the bad times question list"),
+		LEAST_RECENTLY_ASKED_LIST("Question had not been asked for a long time"),
+		RANDOM("Question selected randomly");
+		private final String displayText;
+		QuestionTypeSelectionMethod(String displayText) { this.displayText = displayText; }
+		@Override public String toString() { return displayText; }
+	}
+
+	private QuestionTypeSelectionMethod questionTypeSelectionMethod = QuestionTypeSelectionMethod.UNKNOWN;
+
+	DefaultQuestionSelector(QuestionHistoryStore allQuestions, SplittableRandom random, int maximumPrioritizedQuestions)
+	{
+		this.allQuestions = allQuestions;
+		this.random = random;
+		this.maximumPrioritizedQuestions = maximumPrioritizedQuestions;
+
+		prioritizedQuestions = new IndexedIntSet(maximumPrioritizedQuestions);
+		leastRecentlyAskedQuestions = new OrderStatisticTree(allQuestions.size());
+		nonPassedQuestions = new OrderStatisticTree(allQuestions.size());
+		for (int id = 0; id < allQuestions.size(); id++)
+		{
+			leastRecentlyAskedQuestions.add(id, allQuestions.getTimeLastAsked(id));
+			if (allQuestions.getPassModeCounter(id) == 0)
+				nonPassedQuestions.add(id, allQuestions.getAverageTimeToAnswer(id));
+			else if (allQuestions.isPrioritized(id))
+			{
+				if (prioritizedQuestions.size() < maximumPrioritizedQuestions)
+					prioritizedQuestions.add(id);
+				else
+					allQuestions.setPrioritized(id, false);
+			}
+		}
+
+		// populate the candidate queues with the least recently asked first
+		passedPrioritizationCandidates = new LinkedIntQueue(allQuestions.size());
+		neverAskedPrioritizationCandidates = new LinkedIntQueue(allQuestions.size());
+		for (int rank = 0; rank < leastRecentlyAskedQuestions.size(); rank++)
+			updatePrioritizationCandidates(leastRecentlyAskedQuestions.get(rank));
+	}
+
+	public String getSelectionMethod()
+	{
+		return questionTypeSelectionMethod.toString();
+	}
+
+	public int selectNextQuestion(int currentQuestion)
+	{
+		// the indexes are kept up to date as questions change, so no sorting is needed here
+		checkPrioritizations();
+
+		if (logger.isLoggable(Level.FINEST))
+		{
+			logger.log(Level.FINEST, "leastRecentlyAskedQuestions = \n"+getIndexedQuestions(leastRecentlyAskedQuestions)+"\n");
+			logger.log(Level.FINEST, "nonPassedQuestions = \n"+getIndexedQuestions(nonPassedQuestions)+"\n");
+			List<String> prioritized = new ArrayList<String>();
+			List<String> otherQs = new ArrayList<String>();
+			for (int id = 0; id < allQuestions.size(); id++)
+			{
+				if (prioritizedQuestions.contains(id))
+					prioritized.add(allQuestions.toString(id));
+				else if (!nonPassedQuestions.contains(id))
+					otherQs.add(allQuestions.toString(id));
+			}
+			logger.log(Level.FINEST, "prioritizedQuestions = \n"+prioritized+"\n");
+			logger.log(Level.FINEST, "other questions = \n"+otherQs+"\n");
+		}
+
+		int nextQuestion = -1;
+
+		// list of prioritized, list of non-prioritized ordered by timeToAnswer, and by timeLastAsked
+
+		// as a special case, when there are lots (>15%) of unknown questions, just focus on them before worrying about
+		// improving/refreshing performance on the questions you do know
+		if (random.nextDouble() < QUESTION_SELECTION_PROBABILITY_PRIORITIZED || getUnknownQuestionsFraction() > 0.15)
+		{
+			if (logger.isLoggable(Level.FINE))
+				logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: selecting from Qs in prioritized list; unknownQuestionsFraction="+getUnknownQuestionsFraction());
+
+			// select randomly from the prioritized list
+			if (prioritizedQuestions.size() > 0)
+			{
+				nextQuestion = prioritizedQuestions.get(random.nextInt(prioritizedQuestions.size()));
+				questionTypeSelectionMethod = allQuestions.hasBeenAsked(nextQuestion)? QuestionTypeSelectionMethod.PRIORITIZED_LIST_PASSED : QuestionTypeSelectionMethod.PRIORITIZED_LIST_NEVER_ASKED;
+			}
+			else
+				logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: prioritized list is empty, trying another strategy");
+
+		}
+		if (nextQuestion == currentQuestion) nextQuestion = -1; // is quite likely when selecting from prioritized list
+
+		if (nextQuestion == -1 && random.nextDouble() < QUESTION_SELECTION_PROBABILITY_BAD_TIME)
+		{
+			// select randomly from the worst 20 times - excluding prioritized Qs (as long as there are at least that many - otherwise it doesn't make sense to do this)
+			logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: selecting from list of Qs with bad times");
+
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.BAD_TIMES_LIST;
+
+			if (nonPassedQuestions.size() >= QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE)
+				nextQuestion = nonPassedQuestions.get(nonPassedQuestions.size()-QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE+random.nextInt(QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE));
+			else
+				logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: nonPassedQuestions list is not big enough, trying another strategy");
+
+		}
+
+		if (nextQuestion == -1)
+		{
+			logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: selecting a random Q which has not been asked for ages");
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.LEAST_RECENTLY_ASKED_LIST;
+
+			int maxIndex = (int)Math.floor(QUESTION_SELECTION_LEAST_RECENTLY_ASKED_BUCKET_PERCENTAGE * allQuestions.size() / 100d);
+
+			// only use this method if maxIndex>4, otherwise there's no element of randomness and we'd just keep getting
+			// questions in the same order as last time, which we want to avoid
+			if (maxIndex > 4 && maxIndex <= allQuestions.size())
+			{
+				int rnd = random.nextInt(maxIndex);
+				nextQuestion = leastRecentlyAskedQuestions.get(rnd);
+			}
+			else
+				if (logger.isLoggable(Level.FINE))
+					logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: not enough questions (maxIndex="+maxIndex+"), trying another strategy");
+		}
+
+		while (nextQuestion == -1 || nextQuestion == currentQuestion)
+		{
+			if (logger.isLoggable(Level.FINE))
+				logger.log(java.util.logging.Level.FINE, "DefaultQuestionSelector.selectNextQuestion: fallback after "+questionTypeSelectionMethod+" failed - selecting a random question from the entire list");
+			// select randomly
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.RANDOM;
+
+			nextQuestion = random.nextInt(allQuestions.size());
+
+		}
+		return nextQuestion;
+	}
+
+	public void questionAsked(int id)
+	{
+		leastRecentlyAskedQuestions.update(id, allQuestions.getTimeLastAsked(id));
+		updatePrioritizationCandidates(id); // it's no longer a never-asked question
+	}
+
+	public void questionAnswered(int id, boolean isCorrect)
+	{
+		updateIndexes(id);
+	}
+
+	public void questionPassed(int id)
+	{
+		updateIndexes(id);
+	}
+
+	/**
+	 * Updates the indexes that depend on the pass mode and average time of
+	 * the specified question. Once a question is no longer in pass mode it is
+	 * no longer prioritized.
+	 */
+	private void updateIndexes(int id)
+	{
+		if (allQuestions.getPassModeCounter(id) == 0)
+		{
+			if (allQuestions.isPrioritized(id))
+			{
+				allQuestions.setPrioritized(id, false);
+				prioritizedQuestions.remove(id);
+			}
+			if (nonPassedQuestions.contains(id))
+				nonPassedQuestions.update(id, allQuestions.getAverageTimeToAnswer(id));
+			else
+				nonPassedQuestions.add(id, allQuestions.getAverageTimeToAnswer(id));
+		}
+		else
+			nonPassedQuestions.remove(id);
+		updatePrioritizationCandidates(id);
+	}
+
+	/**
+	 * Checks that the number of questions marked as prioritized is the minimum
+	 * of the number of passed/new questions and the maximum allowed prioritized Qs -
+	 * and prioritizes more questions if it is not.
+	 *
+	 */
+	protected void checkPrioritizations()
+	{
+		if (prioritizedQuestions.size() < maximumPrioritizedQuestions)
+		{
+			logger.log(java.util.logging.Level.FINE, "checkPrioritization: trying to find question(s) to prioritize");
+
+			try {
+
+				// Before including new/never-asked questions, first try to fill the prioritized bucket
+				// with already-asked questions that were passed, since
+				// otherwise the newly added questions (perhaps hundreds at a time) would starve
+				// our ability to focus on fixing question the user "passes" - getting
+				// those fixed is more improtant than introducing new material
+
+				while (prioritizedQuestions.size() < maximumPrioritizedQuestions && !passedPrioritizationCandidates.isEmpty())
+				{
+					int id = passedPrioritizationCandidates.pollFirst();
+					if (logger.isLoggable(Level.FINEST))
+						logger.log(Level.FINEST, "checkPrioritization: prioritizing passed question "+allQuestions.getQuestion(id));
+					allQuestions.setPrioritized(id, true);
+					prioritizedQuestions.add(id);
+				}
+
+				while (prioritizedQuestions.size() < maximumPrioritizedQuestions && !neverAskedPrioritizationCandidates.isEmpty())
+				{
+					int id = neverAskedPrioritizationCandidates.pollFirst();
+					if (logger.isLoggable(Level.FINEST))
+						logger.log(Level.FINEST, "checkPrioritization: prioritizing new/never-asked "+allQuestions.getQuestion(id));
+					allQuestions.setPrioritized(id, true);
+					prioritizedQuestions.add(id);
+				}
+			}
+			finally
+			{
+				if (logger.isLoggable(Level.FINE))
+					logger.log(java.util.logging.Level.FINE, "checkPrioritization: total prioritized questions = "+prioritizedQuestions.size());
+			}
+
+		}
+	}
+
+	/**
+	 * Adds or removes the specified question from the queues of candidates for
+	 * prioritization, based on its current state. Must be called whenever
+	 * passModeCounter, isPrioritized or timeLastAsked change.
+	 */
+	private void updatePrioritizationCandidates(int id)
+	{
+		boolean isCandidate = allQuestions.getPassModeCounter(id) > 0 && !allQuestions.isPrioritized(id);
+		if (isCandidate && allQuestions.hasBeenAsked(id))
+		{
+			neverAskedPrioritizationCandidates.remove(id);
+			passedPrioritizationCandidates.addLast(id);
+		}
+		else if (isCandidate)
+		{
+			passedPrioritizationCandidates.remove(id);
+			neverAskedPrioritizationCandidates.addLast(id);
+		}
+		else
+		{
+			passedPrioritizationCandidates.remove(id);
+			neverAskedPrioritizationCandidates.remove(id);
+		}
+	}
+
+	/**
+	 * @return The questions in the specified index, in index order. Only
+	 * intended for debug logging since this is O(n log n).
+	 */
+	private List<String> getIndexedQuestions(OrderStatisticTree index)
+	{
+		List<String> result = new ArrayList<String>(index.size());
+		for (int rank = 0; rank < index.size(); rank++)
+			result.add(allQuestions.toString(index.get(rank)));
+		return result;
+	}
+}
@@ -0,0 +1,64 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A command line tool that converts a question history file between the XML
+ * and binary formats, for example to export a binary history back to XML so
+ * it can be inspected or edited by hand, or used with an older version of
+ * FlashTeacher. The format of the input file is detected automatically, and
+ * the output is written in the binary format if its name ends with
+ * <code>.bin</code> (as ModelHolder names binary history files), or as XML
+ * otherwise.
+ *
+ * The records for questions that were no longer in the question file are
+ * converted along with all the others, but without the comment that
+ * separates them in the XML.
+ *
+ * @author Ben
+ */
+public class HistoryConverter
+{
+	static void printUsage()
+	{
+		System.out.println("Usage: "+HistoryConverter.class.getName()+" INPUT_HISTORY_FILE OUTPUT_HISTORY_FILE");
+		System.out.println("  Converts a question history file between the XML and binary formats.");
+		System.out.println("  The output is binary if its name ends with \""+ModelHolder.BINARY_HISTORY_FILE_SUFFIX+"\", and XML otherwise.");
+	}
+
+	/**
+	 * Converts the input file, which may be in either format.
+	 * @return The number of history records converted.
+	 */
+	static int convert(File input, File output) throws IOException
+	{
+		LoadedHistory history = BinaryHistoryFile.isBinaryHistoryFile(input) ? BinaryHistoryFile.read(input) : HistoryFileReader.read(input);
+		if (output.getName().endsWith(ModelHolder.BINARY_HISTORY_FILE_SUFFIX))
+			BinaryHistoryFile.write(history.toSnapshot(), output);
+		else
+			HistoryFileWriter.write(history.toSnapshot(), output);
+		return history.size();
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length != 2 || args[0].equals("--help"))
+		{
+			printUsage();
+			System.exit(args.length == 1 && args[0].equals("--help") ? 0 : 1);
+		}
+		File input = new File(args[0]);
+		File output = new File(args[1]);
+		try {
+			if (input.getCanonicalFile().equals(output.getCanonicalFile()))
+				throw new IOException("The output file must be different from the input file");
+			int records = convert(input, output);
+			System.out.println("Converted "+records+" question history records from \""+input+"\" to \""+output+"\"");
+		} catch (IOException | NumberFormatException e)
+		{
+			System.err.println("Failed to convert question history: "+e.getMessage());
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import org.jdom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import benspiller.flashteacher.utils.XMLUtils;
+
+/**
+ * Reads a question history file with a streaming parser, turning each
+ * question element directly into a QuestionHistory record without building
+ * a JDOM tree of the whole file. The small score and knowledge index
+ * sections are still converted to Elements, so they are read by exactly the
+ * same code as before.
+ *
+ * @author Ben
+ */
+class HistoryFileReader extends DefaultHandler
+{
+	private static final Logger logger = Logger.getLogger(HistoryFileReader.class.getName());
+
+	/** The end tag of the list of question elements, which the score and knowledge index sections follow. */
+	private static final byte[] QUESTION_LIST_END_TAG = "</questionHistoryList>".getBytes(StandardCharsets.UTF_8);
+	private static final int BUFFER_SIZE = 16*1024;
+
+	private final LoadedHistory history = new LoadedHistory();
+	private Element knowledgeIndexHistoryElement;
+	/** True if the question elements are ignored, so only the scores and knowledge index history are read. */
+	private final boolean summaryOnly;
+	private boolean scoresRead = false;
+
+	private HistoryFileReader(boolean summaryOnly)
+	{
+		this.summaryOnly = summaryOnly;
+	}
+
+	/**
+	 * Reads the specified history file.
+	 * @throws IOException If the file is invalid.
+	 * @throws NumberFormatException If the file contains an invalid number.
+	 */
+	static LoadedHistory read(File historyFile) throws IOException, NumberFormatException
+	{
+		HistoryFileReader reader = new HistoryFileReader(false);
+		XMLUtils.parseXML(historyFile, reader);
+		return reader.history;
+	}
+
+	/**
+	 * Reads just the scores and knowledge index history from the specified 
+	 * history file, for summarising it without loading the history of every 
+	 * question; the records of the result are empty. 
+	 * 
+	 * Since those sections are saved after the list of questions, which is 
+	 * almost all of the file, the end of the list is found by searching 
+	 * backwards from the end of the file, and only the rest of the file is 
+	 * parsed (without validation, since the file isn't going to be used for 
+	 * asking questions). If that doesn't work, e.g. because the file has been 
+	 * edited by hand to add a comment containing the tag, the whole file is 
+	 * parsed, ignoring the questions. 
+	 * @throws IOException If the file is invalid.
+	 * @throws NumberFormatException If the file contains an invalid number.
+	 */
+	static LoadedHistory readSummary(File historyFile) throws IOException, NumberFormatException
+	{
+		long questionListEnd = findQuestionListEnd(historyFile);
+		if (questionListEnd >= 0)
+		{
+			HistoryFileReader reader = new HistoryFileReader(true);
+			try {
+				XMLUtils.parseXML(historyFile, questionListEnd, "<questionHistory>", reader);
+				// the scores always follow the list, so if they weren't found, the tag wasn't really the end of the list
+				if (reader.scoresRead)
+					return reader.history;
+				logger.log(java.util.logging.Level.FINE, "Failed to find the scores at the end of question history file \""+historyFile+"\", so reading the whole file");
+			} catch (IOException | NumberFormatException e)
+			{
+				logger.log(java.util.logging.Level.FINE, "Failed to read the end of question history file \""+historyFile+"\" on its own, so reading the whole file: "+e);
+			}
+		}
+		HistoryFileReader reader = new HistoryFileReader(true);
+		XMLUtils.parseXML(historyFile, reader);
+		return reader.history;
+	}
+
+	/**
+	 * @return The position just after the last end tag of the question list 
+	 * in the specified file, or -1 if there isn't one. 
+	 */
+	private static long findQuestionListEnd(File historyFile) throws IOException
+	{
+		FileChannel channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			byte[] bytes = buffer.array();
+			long end = channel.size();
+			while (end > 0)
+			{
+				long start = Math.max(0, end-BUFFER_SIZE);
+				buffer.clear();
+				buffer.limit((int)(end-start));
+				while (buffer.hasRemaining() && channel.read(buffer, start+buffer.position()) >= 0) { }
+				
+				for (int i = buffer.position()-QUESTION_LIST_END_TAG.length; i >= 0; i--)
+				{
+					int j = 0;
+					while (j < QUESTION_LIST_END_TAG.length && bytes[i+j] == QUESTION_LIST_END_TAG[j])
+						j++;
+					if (j == QUESTION_LIST_END_TAG.length)
+						return start+i+j;
+				}
+				if (start == 0)
+					break;
+				// overlap the blocks, in case the tag is split between them
+				end = start+QUESTION_LIST_END_TAG.length-1;
+			}
+			return -1;
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String name, Attributes attributes)
+	{
+		switch (name)
+		{
+		case QuestionHistory.ELEMENT_NAME:
+			if (summaryOnly)
+				break;
+			history.addRecord(attributes.getValue("questionText"), attributes.getValue("answerText"),
+					new QuestionHistory(null, attributes::getValue));
+			break;
+		case QuestionSetScores.ELEMENT_NAME:
+			history.previousQuestionSetScores = new QuestionSetScores(toElement(name, attributes));
+			scoresRead = true;
+			break;
+		case KnowledgeIndexHistory.ELEMENT_NAME:
+			knowledgeIndexHistoryElement = toElement(name, attributes);
+			break;
+		case "knowledgeIndexData":
+			knowledgeIndexHistoryElement.addContent(toElement(name, attributes));
+			break;
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String name)
+	{
+		if (KnowledgeIndexHistory.ELEMENT_NAME.equals(name))
+		{
+			history.knowledgeIndexHistory = new KnowledgeIndexHistory(knowledgeIndexHistoryElement);
+			knowledgeIndexHistoryElement = null;
+		}
+	}
+
+	private static Element toElement(String name, Attributes attributes)
+	{
+		Element result = new Element(name);
+		for (int i = 0; i < attributes.getLength(); i++)
+			result.setAttribute(attributes.getQName(i), attributes.getValue(i));
+		return result;
+	}
+}
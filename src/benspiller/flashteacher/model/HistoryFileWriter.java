@@ -0,0 +1,116 @@
+package benspiller.flashteacher.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a question history file with a streaming writer, straight from the
+ * QuestionManager's history store, without building a JDOM tree of the whole
+ * file. The output is laid out in the same way as XMLUtils.saveXML(), and is
+ * read back by HistoryFileReader.
+ *
+ * @author Ben
+ */
+class HistoryFileWriter
+{
+	static final String ENCODING = "UTF-8";
+	/** The line separator used by JDOM's pretty format, so the files are identical to those written by XMLUtils.saveXML(). */
+	static final String LINE_SEPARATOR = "\r\n";
+	private static final String INDENT = "\t";
+	private static final int BUFFER_SIZE = 64*1024;
+
+	static final String SORTED_HISTORY_COMMENT = "Question history is sorted with longest time-to-answer (including penalties from wrong answers) at the top: ";
+	static final String REMOVED_HISTORY_COMMENT = "The following item are no longer in the current question file, but the history is retained in case they are re-added later: ";
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	/**
+	 * Saves the history of the specified QuestionManager to a file. As for
+	 * QuestionManager.save(), this records the score for the session, so
+	 * should only be called once per QuestionManager.
+	 * @throws IOException If the file cannot be written.
+	 */
+	static void write(QuestionManager qm, File historyFile) throws IOException
+	{
+		write(qm.prepareSave(), historyFile);
+	}
+
+	/**
+	 * Saves the specified history to a file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	static void write(HistorySnapshot history, File historyFile) throws IOException
+	{
+		FileChannel channel = FileChannel.open(historyFile.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			Writer out = new BufferedWriter(Channels.newWriter(channel, ENCODING), BUFFER_SIZE);
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out);
+			writer.writeStartDocument(ENCODING, "1.0");
+			writer.writeCharacters(LINE_SEPARATOR);
+			writer.writeDTD("<!DOCTYPE questionHistory SYSTEM \"questionHistory.dtd\">");
+			writer.writeCharacters(LINE_SEPARATOR+LINE_SEPARATOR);
+			writeHistory(writer, history);
+			writer.writeCharacters(LINE_SEPARATOR+LINE_SEPARATOR);
+			writer.writeEndDocument();
+			writer.close(); // doesn't close the underlying stream
+			out.flush();
+		} catch (XMLStreamException e)
+		{
+			throw new IOException("Failed to write question history: "+e.getMessage(), e);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the questionHistory element, in the same form as
+	 * QuestionManager.save().
+	 */
+	private static void writeHistory(XMLStreamWriter writer, HistorySnapshot history) throws XMLStreamException
+	{
+		writer.writeStartElement("questionHistory");
+		newLine(writer, 1);
+		writer.writeStartElement("questionHistoryList");
+		newLine(writer, 2);
+		writer.writeComment(SORTED_HISTORY_COMMENT);
+		for (int i = 0; i < history.records.size(); i++)
+		{
+			if (i == history.removedRecordsStart)
+			{
+				newLine(writer, 2);
+				writer.writeComment(REMOVED_HISTORY_COMMENT);
+			}
+			newLine(writer, 2);
+			history.records.get(i).writeXML(writer);
+		}
+		newLine(writer, 1);
+		writer.writeEndElement();
+
+		newLine(writer, 1);
+		history.questionSetScores.writeXML(writer);
+		newLine(writer, 1);
+		history.knowledgeIndexHistory.writeXML(writer, 1);
+		newLine(writer, 0);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Starts a new line at the specified level of indentation.
+	 */
+	static void newLine(XMLStreamWriter writer, int indent) throws XMLStreamException
+	{
+		writer.writeCharacters(LINE_SEPARATOR);
+		for (int i = 0; i < indent; i++)
+			writer.writeCharacters(INDENT);
+	}
+}
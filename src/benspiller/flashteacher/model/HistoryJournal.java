@@ -0,0 +1,312 @@
+package benspiller.flashteacher.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of changes to the question history, written as
+ * each question is answered or passed, so that a session's answers aren't
+ * lost if the application exits without saving the history. The journal is
+ * replayed on top of the history file the next time it's loaded, and
+ * deleted once its changes have been written to the history file.
+ *
+ * The journal is split into numbered generations, stored in files next to
+ * the history file named <code>HISTORYFILE.journal.N</code>. Changes are
+ * always appended to the newest generation, so the older generations can
+ * be compacted into the history file in the background while a session is
+ * running, without any risk of deleting changes that haven't been saved.
+ *
+ * Each file consists of a header (int MAGIC, short VERSION, short 0)
+ * followed by entries, each holding the complete state of one question's
+ * history after a change:
+ * <pre>
+ * int length of the contents in bytes
+ * contents: int length + UTF-8 bytes of the question text, the answer text
+ *     and the last wrong answer, followed by BinaryHistoryFile.writeRecordFields(),
+ *     and the int length (0 if none) + bytes of the answer log
+ * int CRC32 of the contents
+ * </pre>
+ * Since each entry replaces the whole record, replaying an entry more than
+ * once has no effect. An incomplete or corrupt entry at the end of a file
+ * (e.g. if the application was killed while writing it) is ignored.
+ *
+ * Thread-safety: this class is thread-safe.
+ *
+ * @author Ben
+ */
+final class HistoryJournal
+{
+	static final int MAGIC = 0x4654484A; // "FTHJ"
+	static final short VERSION = 1;
+
+	static final String FILE_NAME_INFIX = ".journal.";
+
+	private static final int HEADER_SIZE = 8;
+
+	private final Logger logger = Logger.getLogger(getClass().getName());
+
+	private final File directory;
+	private final String fileNamePrefix;
+
+	/** The generation that changes are appended to. */
+	private int generation = 1;
+	/** The file for the current generation, or null if it hasn't been opened yet. */
+	private FileChannel channel;
+
+	/**
+	 * @param historyFile The XML history file the journal belongs to (even
+	 * if the history is saved in the binary format).
+	 */
+	HistoryJournal(File historyFile)
+	{
+		this.directory = historyFile.getAbsoluteFile().getParentFile();
+		this.fileNamePrefix = historyFile.getName()+FILE_NAME_INFIX;
+	}
+
+	/**
+	 * @return The existing journal files, keyed and sorted by their
+	 * generation.
+	 */
+	private TreeMap<Integer, File> getFiles()
+	{
+		TreeMap<Integer, File> result = new TreeMap<>();
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(fileNamePrefix));
+		if (files != null)
+			for (File f: files)
+				try {
+					result.put(Integer.valueOf(f.getName().substring(fileNamePrefix.length())), f);
+				} catch (NumberFormatException e)
+				{
+					// not one of ours
+				}
+		return result;
+	}
+
+	/**
+	 * @return True if there are any journal files, e.g. changes that haven't 
+	 * been saved yet. 
+	 */
+	boolean hasFiles()
+	{
+		return !getFiles().isEmpty();
+	}
+
+	/**
+	 * Applies the changes in all existing journal files to the specified
+	 * history, oldest first, and starts a new generation for subsequent
+	 * changes.
+	 * @return The number of entries replayed.
+	 * @throws IOException If a journal file cannot be read.
+	 */
+	synchronized int replay(LoadedHistory history) throws IOException
+	{
+		close();
+		TreeMap<Integer, File> files = getFiles();
+		generation = files.isEmpty() ? 1 : files.lastKey()+1;
+		if (files.isEmpty())
+			return 0;
+
+		// only build the index if there are changes to replay, as it's not needed otherwise
+		Map<String, Integer> recordIndexes = new HashMap<>(history.size()*4/3+1);
+		for (int i = 0; i < history.size(); i++)
+			recordIndexes.put(history.questionTexts.get(i), i);
+
+		int entries = 0;
+		for (File f: files.values())
+			entries += replay(f, history, recordIndexes);
+		return entries;
+	}
+
+	private int replay(File file, LoadedHistory history, Map<String, Integer> recordIndexes) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Ignoring question history journal file that is not in the expected format: \""+file+"\"");
+			return 0;
+		}
+		int version = buffer.getShort();
+		if (version > VERSION)
+			throw new IOException("The question history journal \""+file+"\" was written by a newer version of FlashTeacher (journal format version "+version+")");
+		buffer.getShort();
+
+		int entries = 0;
+		CRC32 crc = new CRC32();
+		try {
+			while (buffer.hasRemaining())
+			{
+				int length = buffer.getInt();
+				if (length < 0 || length+4 > buffer.remaining())
+					throw new BufferUnderflowException();
+				ByteBuffer contents = buffer.slice();
+				contents.limit(length);
+				crc.reset();
+				crc.update(contents.duplicate());
+				buffer.position(buffer.position()+length);
+				if ((int)crc.getValue() != buffer.getInt())
+					throw new IllegalArgumentException("checksum mismatch");
+
+				String questionText = getString(contents);
+				String answerText = getString(contents);
+				QuestionHistory record = new QuestionHistory(null);
+				record.lastWrongAnswer = getString(contents);
+				BinaryHistoryFile.readRecordFields(contents, record);
+				// not present in entries written before answer logs were added
+				if (contents.hasRemaining())
+				{
+					byte[] answerLog = new byte[contents.getInt()];
+					contents.get(answerLog);
+					if (answerLog.length > 0)
+						record.answerLog = AnswerEventLog.validate(answerLog);
+				}
+
+				Integer index = recordIndexes.get(questionText);
+				if (index == null)
+				{
+					recordIndexes.put(questionText, history.size());
+					history.addRecord(questionText, answerText, record);
+				}
+				else
+				{
+					history.answerTexts.set(index, answerText);
+					history.records.set(index, record);
+				}
+				entries++;
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e)
+		{
+			// expected if the application was killed while writing the last entry
+			logger.log(java.util.logging.Level.WARNING, "Ignoring incomplete entry at the end of question history journal \""+file+"\" after "+entries+" entries: "+e);
+		}
+		logger.log(java.util.logging.Level.INFO, "Replayed "+entries+" entries from question history journal \""+file+"\"");
+		return entries;
+	}
+
+	private static String getString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends the current state of a question's history to the journal,
+	 * and forces it to disk.
+	 * @throws IOException If the journal cannot be written.
+	 */
+	synchronized void append(QuestionHistory record) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); // length, filled in below
+		putString(out, record.question.getQuestion());
+		putString(out, record.question.getAnswer());
+		putString(out, record.lastWrongAnswer);
+		BinaryHistoryFile.writeRecordFields(out, record);
+		// older versions ignore anything after the record fields, so this doesn't need a new format version
+		if (record.answerLog == null)
+			out.writeInt(0);
+		else
+		{
+			out.writeInt(record.answerLog.length);
+			out.write(record.answerLog);
+		}
+		out.writeInt(0); // checksum, filled in below
+
+		ByteBuffer entry = ByteBuffer.wrap(bytes.toByteArray());
+		int length = entry.limit()-8;
+		entry.putInt(0, length);
+		CRC32 crc = new CRC32();
+		crc.update(entry.array(), 4, length);
+		entry.putInt(4+length, (int)crc.getValue());
+
+		if (channel == null)
+		{
+			File file = new File(directory, fileNamePrefix+generation);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			if (channel.size() == 0)
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putShort(VERSION).putShort((short)0).flip();
+				while (header.hasRemaining()) channel.write(header);
+			}
+		}
+		while (entry.hasRemaining()) channel.write(entry);
+		channel.force(false);
+	}
+
+	private static void putString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Starts a new generation for any subsequent changes, e.g. when the 
+	 * history is about to be saved, so that the changes made so far can be 
+	 * deleted once it has been saved without deleting any made in the 
+	 * meantime. 
+	 * @return The newest generation that contains the changes made so far 
+	 * (or 0 if there are none), to pass to deleteUpTo() once they're saved. 
+	 */
+	synchronized int rotate()
+	{
+		if (channel == null)
+			return generation-1;
+		close();
+		return generation++;
+	}
+
+	/**
+	 * Deletes the journal files up to and including the specified generation,
+	 * once their changes have been saved to the history file. Any later
+	 * changes are appended to a new generation.
+	 */
+	synchronized void deleteUpTo(int lastGeneration)
+	{
+		if (generation <= lastGeneration)
+		{
+			close();
+			generation = lastGeneration+1;
+		}
+		List<File> failed = new ArrayList<>();
+		for (File f: getFiles().headMap(lastGeneration, true).values())
+			if (!f.delete())
+				failed.add(f);
+		if (!failed.isEmpty())
+			logger.log(java.util.logging.Level.WARNING, "Failed to delete question history journal files "+failed+", so they will be replayed again when the history is next loaded");
+	}
+
+	/**
+	 * Closes the current journal file, if it's open. Changes can still be
+	 * appended afterwards, which reopens it.
+	 */
+	synchronized void close()
+	{
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Failed to close question history journal: "+e);
+		}
+		channel = null;
+	}
+}
@@ -0,0 +1,34 @@
+package benspiller.flashteacher.model;
+
+import java.util.List;
+
+/**
+ * The contents of a question history file that is about to be saved, in
+ * the order they are saved in. This is what the history file writers work
+ * from, whichever format they write.
+ *
+ * @author Ben
+ */
+class HistorySnapshot
+{
+	/**
+	 * The history records, sorted with the longest time-to-answer first,
+	 * followed by the records for questions that are no longer in the
+	 * question file. This may be a view that creates each record on demand,
+	 * so it should be iterated rather than held on to.
+	 */
+	final List<QuestionHistory> records;
+	/** The index in records of the first question that is no longer in the question file. */
+	final int removedRecordsStart;
+
+	final QuestionSetScores questionSetScores;
+	final KnowledgeIndexHistory knowledgeIndexHistory;
+
+	HistorySnapshot(List<QuestionHistory> records, int removedRecordsStart, QuestionSetScores questionSetScores, KnowledgeIndexHistory knowledgeIndexHistory)
+	{
+		this.records = records;
+		this.removedRecordsStart = removedRecordsStart;
+		this.questionSetScores = questionSetScores;
+		this.knowledgeIndexHistory = knowledgeIndexHistory;
+	}
+}
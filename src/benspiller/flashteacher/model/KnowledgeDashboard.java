@@ -0,0 +1,282 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import benspiller.flashteacher.utils.IndexedIntMinHeap;
+
+/**
+ * A summary of the progress made with all the question files ("decks") in a
+ * directory, combining the scores and knowledge index history saved in the
+ * history file of each one.
+ *
+ * Only those sections of each history file are read, not the history of
+ * each question, which is almost all of the file, and the files are read in
+ * parallel, so even a directory of dozens of large decks can be summarised
+ * in a fraction of a second. Answers that have been journaled but not yet
+ * saved don't affect the summary, since the knowledge index history is only
+ * updated when the history is saved.
+ *
+ * @author Ben
+ */
+public final class KnowledgeDashboard
+{
+	private static final Logger logger = Logger.getLogger(KnowledgeDashboard.class.getName());
+
+	/**
+	 * The summary of a single deck.
+	 */
+	public static final class Deck
+	{
+		private final String name;
+		private final File historyFile;
+		private final QuestionSetScores scores;
+		private final KnowledgeIndexHistory knowledgeIndexHistory;
+
+		Deck(String name, File historyFile, LoadedHistory history)
+		{
+			this.name = name;
+			this.historyFile = historyFile;
+			this.scores = history.previousQuestionSetScores;
+			this.knowledgeIndexHistory = history.knowledgeIndexHistory;
+		}
+
+		/** @return The name of the question file, without its extension. */
+		public String getName()
+		{
+			return name;
+		}
+
+		/** @return The history file that the summary was read from. */
+		public File getHistoryFile()
+		{
+			return historyFile;
+		}
+
+		/** @return The scores when the history was last saved. */
+		public QuestionSetScores getScores()
+		{
+			return scores;
+		}
+
+		public KnowledgeIndexHistory getKnowledgeIndexHistory()
+		{
+			return knowledgeIndexHistory;
+		}
+	}
+
+	private final List<Deck> decks;
+	private final List<IOException> errors;
+	private final QuestionSetScores combinedScores;
+	private final KnowledgeIndexHistory combinedKnowledgeIndexHistory;
+
+	private KnowledgeDashboard(List<Deck> decks, List<IOException> errors)
+	{
+		this.decks = Collections.unmodifiableList(decks);
+		this.errors = Collections.unmodifiableList(errors);
+		List<QuestionSetScores> scores = new ArrayList<>();
+		List<KnowledgeIndexHistory> histories = new ArrayList<>();
+		for (Deck deck: decks)
+		{
+			scores.add(deck.scores);
+			histories.add(deck.knowledgeIndexHistory);
+		}
+		combinedScores = combineScores(scores);
+		combinedKnowledgeIndexHistory = mergeKnowledgeIndexHistories(histories);
+	}
+
+	/**
+	 * Reads the history files of all the question files in the specified
+	 * directory, in parallel. Files that can't be read are left out, and
+	 * returned by getErrors().
+	 * @throws IOException If the directory can't be read.
+	 */
+	public static KnowledgeDashboard load(File directory) throws IOException
+	{
+		long time1 = System.currentTimeMillis();
+		String historySuffix = "."+ModelHolder.EXTENSION_HISTORY_FILES;
+		File[] files = directory.listFiles((dir, name) ->
+				name.endsWith(historySuffix) || name.endsWith(historySuffix+ModelHolder.BINARY_HISTORY_FILE_SUFFIX));
+		if (files == null)
+			throw new IOException("Cannot read the directory \""+directory+"\"");
+
+		// each deck may have an XML and a binary history file, of which the newer is read, as for ModelHolder
+		Map<String, File> historyFiles = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (File f: files)
+		{
+			String name = f.getName();
+			if (name.endsWith(ModelHolder.BINARY_HISTORY_FILE_SUFFIX))
+				name = name.substring(0, name.length()-ModelHolder.BINARY_HISTORY_FILE_SUFFIX.length());
+			historyFiles.put(name.substring(0, name.length()-historySuffix.length()), new File(directory, name));
+		}
+
+		List<Deck> decks = new ArrayList<>();
+		List<IOException> errors = new ArrayList<>();
+		if (!historyFiles.isEmpty())
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(historyFiles.size(), Runtime.getRuntime().availableProcessors()), r -> {
+				Thread t = new Thread(r, "FlashTeacher-loadDashboard");
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				List<Future<Deck>> futures = new ArrayList<>();
+				for (Map.Entry<String, File> entry: historyFiles.entrySet())
+					futures.add(executor.submit(() -> readDeck(entry.getKey(), entry.getValue())));
+				for (Future<Deck> future: futures)
+				{
+					try {
+						decks.add(future.get());
+					} catch (ExecutionException ex)
+					{
+						Throwable cause = ex.getCause();
+						logger.log(java.util.logging.Level.WARNING, "Leaving question history file out of the dashboard: "+cause);
+						errors.add((cause instanceof IOException) ? (IOException)cause : new IOException(cause.getMessage(), cause));
+					} catch (InterruptedException ex)
+					{
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while loading question history files", ex);
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		KnowledgeDashboard result = new KnowledgeDashboard(decks, errors);
+		logger.log(java.util.logging.Level.INFO, "Loaded dashboard of "+decks.size()+" question history files in "+(System.currentTimeMillis()-time1)+" ms.");
+		return result;
+	}
+
+	/**
+	 * Reads the summary of a single deck.
+	 * @param historyFile The XML history file, which may not exist if the
+	 * history is saved in the binary format.
+	 */
+	private static Deck readDeck(String name, File historyFile) throws IOException
+	{
+		File binaryHistoryFile = new File(historyFile.getPath()+ModelHolder.BINARY_HISTORY_FILE_SUFFIX);
+		try {
+			if (ModelHolder.isBinaryHistoryNewer(historyFile, binaryHistoryFile))
+				return new Deck(name, binaryHistoryFile, BinaryHistoryFile.readSummary(binaryHistoryFile));
+			return new Deck(name, historyFile, HistoryFileReader.readSummary(historyFile));
+		} catch (NumberFormatException e)
+		{
+			throw new IOException("Invalid data encountered in question history file \""+historyFile+"\": "+e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return The decks whose history files were read, in order of name.
+	 */
+	public List<Deck> getDecks()
+	{
+		return decks;
+	}
+
+	/**
+	 * @return The errors from the history files that couldn't be read.
+	 */
+	public List<IOException> getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * @return The scores of all the decks combined, as if they were one deck.
+	 */
+	public QuestionSetScores getCombinedScores()
+	{
+		return combinedScores;
+	}
+
+	/**
+	 * @return The knowledge index history of all the decks combined, with a
+	 * data point for each session of any deck, whose value is the sum of the
+	 * knowledge index of each deck at that time.
+	 */
+	public KnowledgeIndexHistory getCombinedKnowledgeIndexHistory()
+	{
+		return combinedKnowledgeIndexHistory;
+	}
+
+	/**
+	 * Combines the scores of several decks. The counts and knowledge index
+	 * are added up, and the percentages and averages are weighted by the
+	 * number of questions in each deck.
+	 */
+	static QuestionSetScores combineScores(List<QuestionSetScores> scores)
+	{
+		QuestionSetScores result = new QuestionSetScores();
+		double totalTimeToAnswer = 0, totalTimePerCharacter = 0, totalPercentScore = 0;
+		for (QuestionSetScores s: scores)
+		{
+			result.unknownAnswers += s.unknownAnswers;
+			result.wrongAnswers += s.wrongAnswers;
+			result.slowAnswers += s.slowAnswers;
+			result.quickAnswers += s.quickAnswers;
+			result.totalQuestions += s.totalQuestions;
+			result.knowledgeIndexScore += s.knowledgeIndexScore;
+			if (s.oldestQuestionAskedMillis != 0 && (result.oldestQuestionAskedMillis == 0 || s.oldestQuestionAskedMillis < result.oldestQuestionAskedMillis))
+				result.oldestQuestionAskedMillis = s.oldestQuestionAskedMillis;
+			totalTimeToAnswer += (double)s.averageTimeToAnswer*s.totalQuestions;
+			totalTimePerCharacter += (double)s.averageTimePerCharacter*s.totalQuestions;
+			totalPercentScore += s.questionSetPercentScore*s.totalQuestions;
+		}
+		if (result.totalQuestions > 0)
+		{
+			result.unknownAnswersPercent = 100d*result.unknownAnswers/result.totalQuestions;
+			result.wrongAnswersPercent = 100d*result.wrongAnswers/result.totalQuestions;
+			result.slowAnswersPercent = 100d*result.slowAnswers/result.totalQuestions;
+			result.quickAnswersPercent = 100d*result.quickAnswers/result.totalQuestions;
+			result.averageTimeToAnswer = Math.round(totalTimeToAnswer/result.totalQuestions);
+			result.averageTimePerCharacter = Math.round(totalTimePerCharacter/result.totalQuestions);
+			result.questionSetPercentScore = totalPercentScore/result.totalQuestions;
+		}
+		return result;
+	}
+
+	/**
+	 * Merges the knowledge index histories of several decks, which are
+	 * already sorted by date, in O(n log d) for n data points from d decks.
+	 * Each data point of each deck becomes a data point of the result, with
+	 * the same date and session duration, so the time spent on each day is
+	 * the total for all the decks.
+	 */
+	static KnowledgeIndexHistory mergeKnowledgeIndexHistories(List<KnowledgeIndexHistory> histories)
+	{
+		KnowledgeIndexHistory result = new KnowledgeIndexHistory();
+		// the decks, keyed by the date of the next data point of each one
+		IndexedIntMinHeap nextDates = new IndexedIntMinHeap(histories.size());
+		int[] positions = new int[histories.size()];
+		double[] latestValues = new double[histories.size()];
+		double total = 0;
+		for (int i = 0; i < histories.size(); i++)
+			if (histories.get(i).size() > 0)
+				nextDates.put(i, histories.get(i).getDate(0));
+		while (!nextDates.isEmpty())
+		{
+			int deck = nextDates.peek();
+			KnowledgeIndexHistory history = histories.get(deck);
+			int position = positions[deck]++;
+			total += history.getValue(position)-latestValues[deck];
+			latestValues[deck] = history.getValue(position);
+			result.add(history.getDate(position), total, history.getSessionDurationMillis(position));
+			if (positions[deck] < history.size())
+				nextDates.put(deck, history.getDate(positions[deck]));
+			else
+				nextDates.poll();
+		}
+		return result;
+	}
+}
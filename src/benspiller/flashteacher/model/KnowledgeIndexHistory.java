@@ -1,32 +1,113 @@
 package benspiller.flashteacher.model;
 
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.jdom.Element;
 
+import benspiller.flashteacher.utils.SparseTable;
+
 /**
  * Holds a list of (Date, knowledgeIndex) tuples. Also provides the mechanism 
  * to serialize these to/from XML.   
+ * 
+ * The data points are held in primitive arrays in date order, so they can be 
+ * read through the views returned by getDates() etc without copying them, 
+ * and the points in a range of dates can be found by binary search with 
+ * indexOf(). The smallest and largest values in a range of data points 
+ * are found in constant time using an index that is built when first needed. 
+ * 
+ * The total time spent on each day is also kept up to date as data points 
+ * are added, so the daily, weekly and lifetime totals don't need to go 
+ * through all the data points. Days are worked out in the history's time 
+ * zone, which is saved with it, so that a session stays on the same day 
+ * even if the history is later loaded in a different time zone. 
+ * 
+ * So that the history doesn't grow forever, compact() rolls older data 
+ * points up into one per day, and the oldest into one per week, when the 
+ * history is saved. 
  * @author Ben
  */
 public class KnowledgeIndexHistory implements Iterable<KnowledgeIndexHistory.DataPoint>
 {
 	public static final String ELEMENT_NAME = "knowledgeIndexHistory";
 	
-	private final List<Long> dates = new ArrayList<Long>(); 
-	private final List<Double> values = new ArrayList<Double>();
-	private final List<Long> sessionDurationMillis = new ArrayList<Long>();
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long MILLIS_PER_DAY = 1000L*60*60*24;
+	
+	/** Data points from this many days ago or more recently are kept as they are. */
+	static final int RAW_DATA_DAYS = 92;
+	/** Older data points from this many days ago or more recently are rolled up into one per day, and any older ones into one per week. */
+	static final int DAILY_DATA_DAYS = 2*365;
+	
+	private int size = 0;
+	/** Epoch millis, in ascending order. */
+	private long[] dates; 
+	private double[] values;
+	private long[] sessionDurationMillis;
+	
+	/** The time zone used to work out which day each data point is on. */
+	private final ZoneId zone;
+	private int dayCount = 0;
+	/** The days that have any data points, as epoch days, in ascending order. */
+	private long[] days;
+	/** The total session duration on each day. */
+	private long[] dayMillis;
+	private long totalTimeSpentMillis = 0;
 	
+	/** Built on demand by getValueIndex(), and discarded whenever the data points change. */
+	private SparseTable valueIndex;
+	
+	/**
+	 * Creates an empty history that uses the system's default time zone.
+	 */
 	public KnowledgeIndexHistory()
 	{
-		
+		this(ZoneId.systemDefault());
+	}
+	
+	/**
+	 * Creates an empty history that uses the specified time zone, e.g. the 
+	 * one saved in a history file. 
+	 */
+	KnowledgeIndexHistory(ZoneId zone)
+	{
+		this.zone = zone;
+		dates = new long[INITIAL_CAPACITY];
+		values = new double[INITIAL_CAPACITY];
+		sessionDurationMillis = new long[INITIAL_CAPACITY];
+		days = new long[INITIAL_CAPACITY];
+		dayMillis = new long[INITIAL_CAPACITY];
+	}
+	
+	/**
+	 * Creates a copy of the specified history, which is not affected by any 
+	 * data points added to it later. 
+	 */
+	KnowledgeIndexHistory(KnowledgeIndexHistory other)
+	{
+		size = other.size;
+		dates = Arrays.copyOf(other.dates, Math.max(size, INITIAL_CAPACITY));
+		values = Arrays.copyOf(other.values, dates.length);
+		sessionDurationMillis = Arrays.copyOf(other.sessionDurationMillis, dates.length);
+		zone = other.zone;
+		dayCount = other.dayCount;
+		days = Arrays.copyOf(other.days, Math.max(dayCount, INITIAL_CAPACITY));
+		dayMillis = Arrays.copyOf(other.dayMillis, days.length);
+		totalTimeSpentMillis = other.totalTimeSpentMillis;
+		valueIndex = other.valueIndex; // immutable
 	}
 	
 	/**
@@ -36,42 +117,296 @@ public class KnowledgeIndexHistory implements Iterable<KnowledgeIndexHistory.Dat
 	@SuppressWarnings("unchecked")
 	public KnowledgeIndexHistory(Element knowledgeIndexHistory)
 	{
+		this(getZone((knowledgeIndexHistory == null) ? null : knowledgeIndexHistory.getAttributeValue("timeZone")));
 		if (knowledgeIndexHistory == null) return;
 		for (Element dataElement: (List<Element>)knowledgeIndexHistory.getChildren())
 		{
 			long date = Long.valueOf(dataElement.getAttributeValue("date", "0"));
 			if (date <= 0) continue;
-			add(new Date(date), 
+			add(date, 
 					Double.valueOf(dataElement.getAttributeValue("value", "0")), 
 					Long.valueOf(dataElement.getAttributeValue("sessionDurationMillis", "0")));
 		}
 	}
 	
+	/**
+	 * @param zoneId A time zone id as saved in a history file, or null. 
+	 * @return The time zone, or the system's default time zone if it's null 
+	 * or isn't a valid zone id (e.g. one from a newer version of the time 
+	 * zone database). 
+	 */
+	static ZoneId getZone(String zoneId)
+	{
+		if (zoneId != null)
+			try {
+				return ZoneId.of(zoneId);
+			} catch (DateTimeException e)
+			{
+				// fall through
+			}
+		return ZoneId.systemDefault();
+	}
+	
 	public Element saveToXMLElement()
 	{
 		Element result = new Element(ELEMENT_NAME);
-		for (int i = 0; i < dates.size(); i++)
+		result.setAttribute("timeZone", zone.getId());
+		for (int i = 0; i < size; i++)
 		{
 			Element knowledgeHistoryElement = new Element("knowledgeIndexData");
-			knowledgeHistoryElement.setAttribute("date", String.valueOf(dates.get(i)));
-			knowledgeHistoryElement.setAttribute("value", String.valueOf(values.get(i)));
-			knowledgeHistoryElement.setAttribute("sessionDurationMillis", String.valueOf(sessionDurationMillis.get(i)));
+			knowledgeHistoryElement.setAttribute("date", String.valueOf(dates[i]));
+			knowledgeHistoryElement.setAttribute("value", String.valueOf(values[i]));
+			knowledgeHistoryElement.setAttribute("sessionDurationMillis", String.valueOf(sessionDurationMillis[i]));
 			result.addContent(knowledgeHistoryElement);
 		}
 		return result;
 	}
 	
 	/**
-	 * Must be added in date order. 
+	 * Writes this history in the same form as saveToXMLElement(), with each 
+	 * data point on a new line. 
+	 * @param indent The indentation level of the knowledgeIndexHistory element. 
+	 */
+	void writeXML(XMLStreamWriter writer, int indent) throws XMLStreamException
+	{
+		if (size == 0)
+		{
+			writer.writeEmptyElement(ELEMENT_NAME);
+			writer.writeAttribute("timeZone", zone.getId());
+			return;
+		}
+		writer.writeStartElement(ELEMENT_NAME);
+		writer.writeAttribute("timeZone", zone.getId());
+		for (int i = 0; i < size; i++)
+		{
+			HistoryFileWriter.newLine(writer, indent+1);
+			writer.writeEmptyElement("knowledgeIndexData");
+			writer.writeAttribute("date", String.valueOf(dates[i]));
+			writer.writeAttribute("value", String.valueOf(values[i]));
+			writer.writeAttribute("sessionDurationMillis", String.valueOf(sessionDurationMillis[i]));
+		}
+		HistoryFileWriter.newLine(writer, indent);
+		writer.writeEndElement();
+	}
+	
+	/**
+	 * Should be added in date order; a data point that isn't is inserted 
+	 * after any others with the same or an earlier date. 
 	 * @param date
 	 * @param knowledgeIndex
 	 */
 	public void add(Date date, double knowledgeIndex, long sessionDurationMillis)
 	{
 		if (date == null) throw new IllegalArgumentException("Cannot add knowledge index with null date");
-		dates.add(date.getTime());
-		values.add(knowledgeIndex);
-		this.sessionDurationMillis.add(sessionDurationMillis);
+		add(date.getTime(), knowledgeIndex, sessionDurationMillis);
+	}
+	
+	/**
+	 * As for add(Date, ...), without creating a Date, e.g. when loading a 
+	 * history file. 
+	 * @param date In epoch millis. 
+	 */
+	void add(long date, double knowledgeIndex, long sessionDurationMillis)
+	{
+		if (size == dates.length)
+		{
+			int capacity = dates.length*2;
+			dates = Arrays.copyOf(dates, capacity);
+			values = Arrays.copyOf(values, capacity);
+			this.sessionDurationMillis = Arrays.copyOf(this.sessionDurationMillis, capacity);
+		}
+		int index = size;
+		if (size > 0 && date < dates[size-1])
+		{
+			index = indexOf(date+1);
+			System.arraycopy(dates, index, dates, index+1, size-index);
+			System.arraycopy(values, index, values, index+1, size-index);
+			System.arraycopy(this.sessionDurationMillis, index, this.sessionDurationMillis, index+1, size-index);
+		}
+		dates[index] = date;
+		values[index] = knowledgeIndex;
+		this.sessionDurationMillis[index] = sessionDurationMillis;
+		size++;
+		valueIndex = null;
+		
+		addToDay(toEpochDay(date), sessionDurationMillis);
+		totalTimeSpentMillis += sessionDurationMillis;
+	}
+	
+	private void addToDay(long day, long millis)
+	{
+		int index = indexOfDay(day);
+		if (index == dayCount || days[index] != day)
+		{
+			if (dayCount == days.length)
+			{
+				days = Arrays.copyOf(days, dayCount*2);
+				dayMillis = Arrays.copyOf(dayMillis, dayCount*2);
+			}
+			System.arraycopy(days, index, days, index+1, dayCount-index);
+			System.arraycopy(dayMillis, index, dayMillis, index+1, dayCount-index);
+			days[index] = day;
+			dayMillis[index] = 0;
+			dayCount++;
+		}
+		dayMillis[index] += millis;
+	}
+	
+	/**
+	 * @return The index in days of the first day on or after the specified 
+	 * epoch day, or dayCount if there is none. 
+	 */
+	private int indexOfDay(long day)
+	{
+		int index = Arrays.binarySearch(days, 0, dayCount, day);
+		return (index >= 0) ? index : -index-1;
+	}
+	
+	/**
+	 * Rolls up the data points older than RAW_DATA_DAYS into one per day, 
+	 * and those older than DAILY_DATA_DAYS into one per week (starting on 
+	 * Monday). Each rolled-up point has the date and value of the last 
+	 * session in its day or week, since the knowledge index measures what 
+	 * was known at the time, and the total duration of all the sessions. 
+	 * Compacting a history again has no effect until more time has passed. 
+	 * @param nowMillis The current time, which the age of each data point 
+	 * is measured from. 
+	 * @return The number of data points removed. 
+	 */
+	int compact(long nowMillis)
+	{
+		long today = toEpochDay(nowMillis);
+		int newSize = 0;
+		long previousPeriod = -1;
+		for (int i = 0; i < size; i++)
+		{
+			long period = getRollupPeriod(toEpochDay(dates[i]), today);
+			if (newSize > 0 && period != -1 && period == previousPeriod)
+			{
+				// the points are in date order, so this one is later than the one it's merged into
+				dates[newSize-1] = dates[i];
+				values[newSize-1] = values[i];
+				sessionDurationMillis[newSize-1] += sessionDurationMillis[i];
+				continue;
+			}
+			dates[newSize] = dates[i];
+			values[newSize] = values[i];
+			sessionDurationMillis[newSize] = sessionDurationMillis[i];
+			newSize++;
+			previousPeriod = period;
+		}
+		int removed = size-newSize;
+		size = newSize;
+		valueIndex = null;
+		
+		if (removed > 0)
+		{
+			// weekly roll-ups move their sessions' time onto a different day
+			dayCount = 0;
+			for (int i = 0; i < size; i++)
+				addToDay(toEpochDay(dates[i]), sessionDurationMillis[i]);
+		}
+		return removed;
+	}
+	
+	/**
+	 * @return An id for the day or week that a data point on the specified 
+	 * epoch day is rolled up into, which is different for every day and 
+	 * week, or -1 if it's kept as it is. 
+	 */
+	private static long getRollupPeriod(long day, long today)
+	{
+		long age = today-day;
+		if (age <= RAW_DATA_DAYS)
+			return -1;
+		if (age <= DAILY_DATA_DAYS)
+			return 2*day;
+		// epoch day 0 was a Thursday, so this counts weeks starting on Monday
+		return 2*Math.floorDiv(day+3, 7) + 1;
+	}
+	
+	/** @return The epoch day of the specified time in this history's time zone. */
+	private long toEpochDay(long millis)
+	{
+		long offsetMillis = zone.getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds()*1000L;
+		return Math.floorDiv(millis+offsetMillis, MILLIS_PER_DAY);
+	}
+	
+	/** @return The time zone used to work out which day each data point is on. */
+	public ZoneId getZone()
+	{
+		return zone;
+	}
+	
+	/**
+	 * @param from The first day to include. 
+	 * @param to The day after the last day to include. 
+	 * @return The total session duration on the specified days, in millis. 
+	 */
+	public long getTimeSpentMillis(LocalDate from, LocalDate to)
+	{
+		long result = 0;
+		for (int i = indexOfDay(from.toEpochDay()); i < dayCount && days[i] < to.toEpochDay(); i++)
+			result += dayMillis[i];
+		return result;
+	}
+	
+	/** @return The number of data points. */
+	public int size() { return size; }
+	/** @return The date of the specified data point, in epoch millis. */
+	public long getDate(int index) { checkIndex(index); return dates[index]; }
+	public double getValue(int index) { checkIndex(index); return values[index]; }
+	public long getSessionDurationMillis(int index) { checkIndex(index); return sessionDurationMillis[index]; }
+	
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+	}
+	
+	/**
+	 * Finds the data points in a range of dates. For example the points from 
+	 * <code>from</code> (inclusive) to <code>to</code> (exclusive) are those 
+	 * with indexes from <code>indexOf(from)</code> to 
+	 * <code>indexOf(to)-1</code>. 
+	 * @param date In epoch millis. 
+	 * @return The index of the first data point at or after the specified 
+	 * date, or size() if there is none. 
+	 */
+	public int indexOf(long date)
+	{
+		int low = 0, high = size;
+		while (low < high)
+		{
+			int middle = (low+high) >>> 1;
+			if (dates[middle] < date)
+				low = middle+1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+	
+	/**
+	 * The view returned by this and the similar methods below reads this 
+	 * history's own storage, so it is not affected by data points added after 
+	 * it was created, unless they were added out of date order. 
+	 * @return A read-only view of the date of each data point, in epoch millis. 
+	 */
+	public LongBuffer getDates()
+	{
+		return LongBuffer.wrap(dates, 0, size).slice().asReadOnlyBuffer();
+	}
+	
+	/** @return A read-only view of the value of each data point. */
+	public DoubleBuffer getValues()
+	{
+		return DoubleBuffer.wrap(values, 0, size).slice().asReadOnlyBuffer();
+	}
+	
+	/** @return A read-only view of the session duration of each data point, in millis. */
+	public LongBuffer getSessionDurationMillis()
+	{
+		return LongBuffer.wrap(sessionDurationMillis, 0, size).slice().asReadOnlyBuffer();
 	}
 	
 	/**
@@ -81,15 +416,53 @@ public class KnowledgeIndexHistory implements Iterable<KnowledgeIndexHistory.Dat
 	 */
 	public double[][] getKnowledgeIndexArray()
 	{
-		double[][] data = new double[2][dates.size()];
-		for (int i = 0; i < dates.size(); i++)
-		{
-			data[0][i] = dates.get(i);
-			data[1][i] = values.get(i);
-			//data[2][i] = timePerSessionSecs.get(i);
-		}
+		return getKnowledgeIndexArray(0, size);
+	}
+	
+	/**
+	 * As for getKnowledgeIndexArray(), for a range of data points, e.g. 
+	 * those found with indexOf(). 
+	 * @param from Inclusive. 
+	 * @param to Exclusive. 
+	 */
+	public double[][] getKnowledgeIndexArray(int from, int to)
+	{
+		if (from < 0 || to > size || from > to)
+			throw new IndexOutOfBoundsException("Invalid range "+from+" to "+to+" of "+size+" data points");
+		double[][] data = new double[2][];
+		data[0] = new double[to-from];
+		for (int i = from; i < to; i++)
+			data[0][i-from] = dates[i];
+		data[1] = Arrays.copyOfRange(values, from, to);
 		return data;
 	}
+	
+	/**
+	 * @param from Inclusive. 
+	 * @param to Exclusive; must be greater than from. 
+	 * @return The smallest value of the data points in the specified range. 
+	 */
+	public double getMinValue(int from, int to)
+	{
+		return getValueIndex().min(from, to);
+	}
+	
+	/**
+	 * @param from Inclusive. 
+	 * @param to Exclusive; must be greater than from. 
+	 * @return The largest value of the data points in the specified range. 
+	 */
+	public double getMaxValue(int from, int to)
+	{
+		return getValueIndex().max(from, to);
+	}
+	
+	private SparseTable getValueIndex()
+	{
+		if (valueIndex == null)
+			valueIndex = new SparseTable(values, size);
+		return valueIndex;
+	}
 
 	/**
 	 * @return An array containing a copy of this data as a two-dimensional 
@@ -98,61 +471,38 @@ public class KnowledgeIndexHistory implements Iterable<KnowledgeIndexHistory.Dat
 	 */
 	public double[][] getTimeSpentArray()
 	{
-		Map<Long,Long> byday = new HashMap<>();
-		for (int i = 0; i < dates.size(); i++)
-		{
-			long day = removeTimeFromDateTime(dates.get(i));
-			byday.put(day, sessionDurationMillis.get(i)/1000/60 + byday.getOrDefault(day, 0L));
-		}
-		double[][] data = new double[2][byday.size()];
-		List<Long> days = new ArrayList<>(byday.keySet());
-		Collections.sort(days);
-		for (int i = 0; i < days.size(); i++)
+		double[][] data = new double[2][dayCount];
+		for (int i = 0; i < dayCount; i++)
 		{
-			data[0][i] = days.get(i) + 1000*60*60*12;
-			data[1][i] = byday.get(days.get(i));
+			// the middle of the day
+			data[0][i] = LocalDate.ofEpochDay(days[i]).atStartOfDay(zone).toInstant().toEpochMilli() + 1000*60*60*12;
+			data[1][i] = dayMillis[i]/1000/60;
 		}
 		
 		return data;
 	}
 
+	/**
+	 * @return The start of the day containing the specified time, in the 
+	 * system's default time zone. 
+	 */
 	public static long removeTimeFromDateTime(long millis)
 	{
-		// suspect there's a better way to do this using java.time.* but it's not obvious
-		
-		Calendar cal = Calendar.getInstance(); // this is very non-thread-safe
-		cal.setTimeInMillis(millis);
-		cal.set(Calendar.AM_PM, Calendar.AM);
-		cal.set(Calendar.HOUR, 0); // middle of the day
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-		return cal.getTimeInMillis(); // without time
+		ZoneId zone = ZoneId.systemDefault();
+		return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().atStartOfDay(zone).toInstant().toEpochMilli();
 	}
 	
 	public double getAverageMinutesPerDayThisWeek()
 	{
 		int days = 7;
-		long endOfToday = removeTimeFromDateTime(System.currentTimeMillis())+1000*60*60*24;
-		long aWeekAgo = endOfToday-1000*60*60*24*days;
-		
-		long totalMillisSpent = 0;
-		for (int i = 0; i < dates.size(); i++)
-		{
-			if (dates.get(i) > aWeekAgo)
-				totalMillisSpent += sessionDurationMillis.get(i);
-		}
+		LocalDate today = LocalDate.now(zone);
+		long totalMillisSpent = getTimeSpentMillis(today.minusDays(days-1), today.plusDays(1));
 		return (totalMillisSpent/1000.0/60)/days;
 	}
 
 	public long totalTimeSpentMillis()
 	{
-		long totalMillisSpent = 0;
-		for (int i = 0; i < dates.size(); i++)
-		{
-			totalMillisSpent += sessionDurationMillis.get(i);
-		}
-		return totalMillisSpent;
+		return totalTimeSpentMillis;
 	}
 
 	/** Returns an iterator over the data points in this object, returned in 
@@ -171,14 +521,15 @@ public class KnowledgeIndexHistory implements Iterable<KnowledgeIndexHistory.Dat
 		
 			public DataPoint next()
 			{
-				DataPoint result = new DataPoint(dates.get(i),values.get(i));
+				if (i >= size) throw new NoSuchElementException();
+				DataPoint result = new DataPoint(dates[i], values[i]);
 				i = i+1;
 				return result;
 			}
 		
 			public boolean hasNext()
 			{
-				return i < dates.size();
+				return i < size;
 			}
 		
 		};
@@ -0,0 +1,90 @@
+package benspiller.flashteacher.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom.Element;
+
+/**
+ * The contents of a question history file, as loaded by HistoryFileReader
+ * (or converted from a JDOM tree), before the question history records have
+ * been matched up with the questions from the question file.
+ *
+ * @author Ben
+ */
+class LoadedHistory
+{
+	/** The questionText of each history record. */
+	final List<String> questionTexts = new ArrayList<>();
+	/** The answerText of each history record. */
+	final List<String> answerTexts = new ArrayList<>();
+	/**
+	 * The history records, in file order. The question of each record is
+	 * null, since it isn't known until they are matched up with the question
+	 * file; use questionTexts and answerTexts instead.
+	 */
+	final List<QuestionHistory> records = new ArrayList<>();
+
+	QuestionSetScores previousQuestionSetScores = new QuestionSetScores();
+	KnowledgeIndexHistory knowledgeIndexHistory = new KnowledgeIndexHistory();
+
+	void addRecord(String questionText, String answerText, QuestionHistory record)
+	{
+		questionTexts.add(questionText);
+		answerTexts.add(answerText);
+		records.add(record);
+	}
+
+	int size()
+	{
+		return records.size();
+	}
+
+	/**
+	 * @return This history in the form needed to save it, for converting it 
+	 * to another format. All the records are saved as if their questions 
+	 * were in the question file. 
+	 */
+	HistorySnapshot toSnapshot()
+	{
+		List<QuestionHistory> recordsToSave = new AbstractList<QuestionHistory>() {
+			@Override
+			public QuestionHistory get(int index)
+			{
+				return new QuestionHistory(new Question(questionTexts.get(index), answerTexts.get(index), true), records.get(index));
+			}
+
+			@Override
+			public int size()
+			{
+				return records.size();
+			}
+		};
+		return new HistorySnapshot(recordsToSave, records.size(), previousQuestionSetScores, knowledgeIndexHistory);
+	}
+
+	/**
+	 * Converts a history document that has already been loaded into a JDOM
+	 * tree.
+	 * @param questionHistoryElement May be <code>null</code>, in which case
+	 * the history is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	static LoadedHistory fromElement(Element questionHistoryElement)
+	{
+		LoadedHistory result = new LoadedHistory();
+		if (questionHistoryElement == null)
+			return result;
+
+		Element historyListElement = questionHistoryElement.getChild("questionHistoryList");
+		if (historyListElement != null)
+			for (Element historyElement: (List<Element>)historyListElement.getChildren())
+				result.addRecord(historyElement.getAttributeValue("questionText"), historyElement.getAttributeValue("answerText"),
+						new QuestionHistory(null, historyElement));
+
+		result.previousQuestionSetScores = new QuestionSetScores(questionHistoryElement.getChild(QuestionSetScores.ELEMENT_NAME)); // we handle null element here correctly
+		result.knowledgeIndexHistory = new KnowledgeIndexHistory(questionHistoryElement.getChild(KnowledgeIndexHistory.ELEMENT_NAME));
+		return result;
+	}
+}
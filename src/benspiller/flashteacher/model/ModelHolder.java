@@ -2,25 +2,31 @@ package benspiller.flashteacher.model;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JPanel;
 
 import java.util.logging.Logger;
-import org.jdom.Attribute;
-import org.jdom.Content;
-import org.jdom.DocType;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.Text;
-
-import benspiller.flashteacher.utils.XMLUtils;
 
 /**
  * Handles all file loading and saving for the model - options, questions and 
@@ -32,12 +38,61 @@ public class ModelHolder
 	public static final String DEFAULT_QUESTION_FILE_DIRECTORY = "question_files";
 	public static final String EXTENSION_QUESTION_FILES = "questions.xml";
 	public static final String EXTENSION_HISTORY_FILES = System.getProperty("user.name", "user").toLowerCase()+".questionHistory";
+	/** Appended to the name of the history file when it's saved in the binary format. */
+	public static final String BINARY_HISTORY_FILE_SUFFIX = ".bin";
+	
+	/** 
+	 * Set this system property to <code>true</code> to save question history in the compact binary format 
+	 * instead of XML; existing XML history is migrated automatically the first time it is saved. 
+	 */
+	public static final String BINARY_HISTORY_PROPERTY = "flashteacher.binaryHistory";
 
 	final Logger logger = Logger.getLogger(getClass().getName());
 	
 	File questionFile;
 	File optionsFile;
 	File historyFile;
+	File binaryHistoryFile;
+	
+	/** True if the history is saved in the binary format rather than XML. */
+	boolean binaryHistory = Boolean.getBoolean(BINARY_HISTORY_PROPERTY);
+	
+	/** False if this question file is being loaded as one of several decks in a MultiDeckSession. */
+	boolean pluginsAllowed = true;
+	
+	/** Records each answer as it's given, so it isn't lost if we exit without saving. */
+	HistoryJournal journal;
+	
+	/** The most recent save or journal compaction submitted to the historyWriter, or null if there hasn't been one. */
+	private volatile Future<?> lastHistoryWrite;
+	
+	/** A save that is waiting for the historyWriter, which later saves are coalesced into. */
+	private final AtomicReference<PendingSave> pendingSave = new AtomicReference<>();
+	
+	/** 
+	 * The questions and history as they were last loaded or saved, which the next session 
+	 * is started from if the files haven't changed since, or null if they must be loaded. 
+	 */
+	private volatile DeckState deckState;
+	/** The modification stamp of the question file when deckState was loaded from it. */
+	private volatile String questionFileStamp;
+	/** True if the question file that deckState was loaded from uses a plugin. */
+	private volatile boolean questionFileUsesPlugins;
+	/** The modification stamp of the history files when deckState was loaded from or saved to them. */
+	private volatile String historyFileStamp;
+	
+	/** Watches the question file for changes during a session, or null if it isn't being watched. */
+	private QuestionFileWatcher questionFileWatcher;
+	/** Changes to the question file that have been loaded in the background, to be applied at the next question. */
+	private final AtomicReference<QuestionFileChange> pendingQuestionFileChange = new AtomicReference<>();
+	
+	/**
+	 * For subclasses that aren't associated with a single question file. 
+	 */
+	ModelHolder()
+	{
+	}
+	
 	public ModelHolder(File questionFile)
 	{
 		try {
@@ -47,6 +102,8 @@ public class ModelHolder
 		this.questionFile = questionFile;
 		this.optionsFile = new File(questionFile.getParentFile(), questionFile.getName().replace("."+EXTENSION_QUESTION_FILES, "")+".options");
 		this.historyFile = new File(questionFile.getParentFile(), questionFile.getName().replace("."+EXTENSION_QUESTION_FILES, "")+"."+EXTENSION_HISTORY_FILES);
+		this.binaryHistoryFile = new File(historyFile.getPath()+BINARY_HISTORY_FILE_SUFFIX);
+		this.journal = new HistoryJournal(historyFile);
 	}
 	
 	private Date lastLoaded = null;
@@ -62,157 +119,232 @@ public class ModelHolder
 	}
 	
 	/**
-	 * Force everything to be loaded. Throws an exception on error. If no 
-	 * exception is thrown here, the other get* methods may be called safely 
-	 * without fear of exceptions. 
+	 * Force everything to be loaded, and start a new session with a new 
+	 * QuestionManager. Throws an exception on error. If no exception is 
+	 * thrown here, the other get* methods may be called safely without fear 
+	 * of exceptions. 
+	 * 
+	 * Files that haven't changed since they were last loaded (or the history 
+	 * was last saved) aren't loaded again: if neither has changed, the new 
+	 * session is started from the state in memory, and if only the question 
+	 * file has changed, its questions are matched up with the history that's 
+	 * already in memory. Question files that use a plugin are always loaded 
+	 * again, since plugins set up each session in loadQuestions(), and expect 
+	 * new Question objects. 
 	 * @param questionFieldPanel The UI for the question field in case a plugin 
 	 * wants to customize it. 
 	 * @throws IOException
 	 */
-	@SuppressWarnings("unchecked")
 	public void load(JPanel questionFieldPanel) throws IOException
 	{
 		logger.log(java.util.logging.Level.INFO, getClass().getSimpleName()+ ".load()");
 		long time1 = System.currentTimeMillis();
-		// always reload - otherwise state of QM may be wrong (need to reset it otherwise)
-		/*// If already loaded and modification date hasn't changed, don't bother to reload
-		if (lastLoaded != null && lastLoaded.after(new Date(questionFile.lastModified())))
-		{
-			logger.log(java.util.logging.Level.INFO, "ModelHolder is not reloading question file because it hasn't changed since last load");
-			return;
-		}*/
 		
 		lastLoaded = null;
 		
-		Document document = XMLUtils.loadXML(questionFile);
-		Element questionListElement = document.getRootElement();
-
-		options = new Options(questionListElement); // this will probably be v quick so no point reporting the time
-
-		Element historyListElement = null;
-
-		if (historyFile.exists())
+		// the history file may be about to be replaced
+		awaitHistoryWrites();
+		
+		// any changes to the question file that haven't been applied yet are loaded below
+		pendingQuestionFileChange.set(null);
+		
+		DeckState state = deckState;
+		String newQuestionFileStamp = getModificationStamp(questionFile);
+		boolean historyUnchanged = state != null && isHistoryUnchanged();
+		if (historyUnchanged && newQuestionFileStamp.equals(questionFileStamp) && !questionFileUsesPlugins)
 		{
-			historyListElement = XMLUtils.loadXML(historyFile).getRootElement();
+			// the QuestionManager's state must be reset for the new session, but there's no need 
+			// to parse the files again; plugins set themselves up for each session when they 
+			// generate their questions, so question files that use them are always reloaded below 
+			logger.log(java.util.logging.Level.INFO, "Not reloading question or history file because neither has changed since they were last loaded");
 		}
 		else
-			logger.log(java.util.logging.Level.INFO, "Not loading history file because none exists (\""+historyFile+"\"");
+		{
+			deckState = null;
+			state = loadDeckState(questionFieldPanel, historyUnchanged ? state : null);
+			deckState = state;
+			questionFileStamp = newQuestionFileStamp;
+		}
 
 		long time2 = System.currentTimeMillis();
-		logger.log(java.util.logging.Level.INFO, "Loaded XML data in "+(time2-time1)+" ms.");
+		qm = new QuestionManager(state.copy(), options, new SplittableRandom(), Clock.systemUTC());
+		qm.journal = journal;
+		
+		long time3 = System.currentTimeMillis();
+		logger.log(java.util.logging.Level.INFO, "Loaded QuestionManager in "+(time3-time2)+" ms.");
+		logger.log(java.util.logging.Level.INFO, "Loaded entire model in "+(time3-time1)+" ms.");
+		
+		lastLoaded = new Date();
+		logger.log(java.util.logging.Level.FINE, getClass().getSimpleName()+".load() done");
+	}
+	
+	/**
+	 * Loads the question file, and matches its questions up with their 
+	 * history. 
+	 * @param previousState The state that was loaded previously, if the 
+	 * history hasn't changed on disk since, to avoid loading it again; or null 
+	 * if it must be loaded. 
+	 */
+	private DeckState loadDeckState(JPanel questionFieldPanel, DeckState previousState) throws IOException
+	{
+		long time1 = System.currentTimeMillis();
+		Options previousOptions = options;
+		
+		// Both files are streamed straight into Question/QuestionHistory objects 
+		// rather than being loaded into JDOM trees, which would use several times 
+		// as much memory as the files themselves for large question sets
+		QuestionFileReader questionFileReader = QuestionFileReader.read(questionFile);
+		options = questionFileReader.options;
+		questionFileUsesPlugins = !questionFileReader.plugins.isEmpty();
+		List<Question> allQuestions = questionFileReader.questions;
+		
+		long time2 = System.currentTimeMillis();
+		logger.log(java.util.logging.Level.INFO, "Loaded "+allQuestions.size()+" questions in "+(time2-time1)+" ms.");
 
 		// Stash the plugin class names we had before, as to keep things simple we 
 		// don't support changing the plugin class names each time the question file is loaded
 		Set<String> pluginClasses = new HashSet<>(plugins.keySet());
 		
-		int question = 0; // for error messages
-		List<Question> allQuestions = new ArrayList<>();
-		for (Element questionElement: (List<Element>)questionListElement.getChildren())
+		for (Map<String, String> props: questionFileReader.plugins)
 		{
-			if ("plugin".equals(questionElement.getName()))
-			{
-				Map<String, String> props = new HashMap<>();
-				if (questionElement.getTextNormalize().trim().length() != 0)
-					props.put("xmlText", questionElement.getTextNormalize().trim());
-				for (Object a: questionElement.getAttributes())
-					props.put( ((Attribute)a).getName(), ((Attribute)a).getValue());
-				for (Element prop: (List<Element>)questionElement.getChildren())
-					if ("property".equals(prop.getName()))
-						props.put(prop.getAttributeValue("name"), prop.getAttributeValue("value"));
-					else
-						throw new IOException("Unexpected element under plugin: '"+prop.getName()+"'");
-				
-				logger.log(java.util.logging.Level.INFO, "Loading plugin with properties: "+props);
-				
-				String className = props.remove("class");
-				Plugin p = plugins.get(className);
-				if (p == null)
-					try
-					{
-						logger.log(java.util.logging.Level.INFO, "Creating plugin class: "+className);
-						Class<?> c = Class.forName(className);
-						p = (Plugin)c.newInstance();
-						plugins.put(className, p); // add it here in case there are exceptions later
-					} catch (Exception ex)
-					{
-						throw new IOException("Cannot instantiate <plugin> class: "+ex, ex);
-					}
-				try {
-					for (Question q: p.loadQuestions(questionFile, props, questionFieldPanel))
-						allQuestions.add( q);
+			if (!pluginsAllowed)
+				throw new IOException("Question files that use a plugin cannot be opened together with other question files: \""+questionFile.getName()+"\"");
+			
+			logger.log(java.util.logging.Level.INFO, "Loading plugin with properties: "+props);
+			
+			String className = props.remove("class");
+			Plugin p = plugins.get(className);
+			if (p == null)
+				try
+				{
+					logger.log(java.util.logging.Level.INFO, "Creating plugin class: "+className);
+					Class<?> c = Class.forName(className);
+					p = (Plugin)c.newInstance();
+					// add it here in case there are exceptions later; if another thread got there first, use its instance
+					Plugin existing = plugins.putIfAbsent(className, p);
+					if (existing != null) p = existing;
 				} catch (Exception ex)
 				{
-					throw new IOException("Plugin failed to load questions: "+ex, ex);
+					throw new IOException("Cannot instantiate <plugin> class: "+ex, ex);
 				}
-				logger.log(java.util.logging.Level.INFO, "Loaded "+allQuestions.size()+" questions using plugin");
-				
-			} else if (!"question".equals(questionElement.getName()))
+			try {
+				for (Question q: p.loadQuestions(questionFile, props, questionFieldPanel))
+					allQuestions.add( q);
+			} catch (Exception ex)
 			{
-				throw new IOException("Unknown element: "+questionElement.getName());
-			} else { // <question> element
-				
-				question++;
-				String questionText = questionElement.getChildTextNormalize("questionText");
-				
-				StringBuilder answerText = new StringBuilder();
-				Element answerTextElement = questionElement.getChild("answerText");
-				if (answerTextElement != null)
-					for (Content c: (List<Content>)answerTextElement.getContent())
-					{
-						String contentText = null;
-						if (c instanceof Text)
-							contentText = ((Text)c).getTextNormalize();
-						else if (c instanceof Element)
-							contentText = ((Element)c).getTextNormalize();
-						// otherwise ignore
-						
-						if (contentText != null)
-						{
-							//if (isAnswerRightToLeft)
-							//	answerText.insert(0, contentText);
-							//else
-								answerText.append(contentText);
-						}
-					}
-				
-				if (questionText == null || answerText.length() == 0) // probably never happens due to DTD validation
-					throw new IOException("Invalid question file - question or answer value #"+question+" is null");
-				
-				allQuestions.add(new Question(questionText, answerText.toString(), options.isCaseSensitive));
+				throw new IOException("Plugin failed to load questions: "+ex, ex);
 			}
+			logger.log(java.util.logging.Level.INFO, "Loaded "+allQuestions.size()+" questions using plugin in "+(System.currentTimeMillis()-time2)+" ms.");
 		}
 
-
 		if (!pluginClasses.isEmpty() && !plugins.keySet().equals(pluginClasses))
 			throw new RuntimeException("The question file was changed to have different plugin classes; please restart the application after making such changes");
 		
-		logger.log(java.util.logging.Level.INFO, "Loaded questions in "+(System.currentTimeMillis()-time2)+" ms.");
-
+		// the questions in the history were created with the previous options, so can only be reused if they're compatible
+		if (previousState != null && previousOptions.isCaseSensitive == options.isCaseSensitive)
+		{
+			time2 = System.currentTimeMillis();
+			DeckState result = previousState.rematch(allQuestions);
+			logger.log(java.util.logging.Level.INFO, "Matched changed question file with history that was already loaded in "+(System.currentTimeMillis()-time2)+" ms.");
+			return result;
+		}
+		
 		try
 		{
 			time2 = System.currentTimeMillis();
-			qm = new QuestionManager(allQuestions, historyListElement, options, questionFieldPanel);
+			String newHistoryFileStamp = getModificationStamp(historyFile, binaryHistoryFile);
+			LoadedHistory history;
+			if (isBinaryHistoryNewer())
+			{
+				history = BinaryHistoryFile.read(binaryHistoryFile);
+				logger.log(java.util.logging.Level.INFO, "Loaded "+history.size()+" history records from binary history file in "+(System.currentTimeMillis()-time2)+" ms.");
+			}
+			else if (historyFile.exists())
+			{
+				history = HistoryFileReader.read(historyFile);
+				logger.log(java.util.logging.Level.INFO, "Loaded "+history.size()+" history records in "+(System.currentTimeMillis()-time2)+" ms.");
+			}
+			else
+			{
+				logger.log(java.util.logging.Level.INFO, "Not loading history file because none exists (\""+historyFile+"\"");
+				history = new LoadedHistory();
+			}
 			
-			long time3 = System.currentTimeMillis();
-			logger.log(java.util.logging.Level.INFO, "Loaded QuestionManager in "+(time3-time2)+" ms.");
-			logger.log(java.util.logging.Level.INFO, "Loaded entire model in "+(time3-time1)+" ms.");
+			historyFileStamp = newHistoryFileStamp;
+			
+			// apply any answers that were journaled but never saved, e.g. because we crashed
+			time2 = System.currentTimeMillis();
+			int replayed = journal.replay(history);
+			if (replayed > 0)
+			{
+				logger.log(java.util.logging.Level.INFO, "Replayed "+replayed+" question history journal entries in "+(System.currentTimeMillis()-time2)+" ms.");
+				compactJournal(history);
+			}
+
+			time2 = System.currentTimeMillis();
+			DeckState result = DeckState.match(allQuestions, history, options);
+			logger.log(java.util.logging.Level.INFO, "Matched questions with history in "+(System.currentTimeMillis()-time2)+" ms.");
+			return result;
 		} catch (NumberFormatException e)
 		{
 			logger.log(java.util.logging.Level.SEVERE, "Failed to load data from files: "+e.getMessage());
 			logger.log(java.util.logging.Level.INFO, "Stack trace is: ", e);
 			throw new IOException("Invalid data encountered in XML file(s): "+e.getMessage(), e);
 		}
-		
-		lastLoaded = new Date();
-		logger.log(java.util.logging.Level.FINE, getClass().getSimpleName()+".load() done");
+	}
+	
+	/**
+	 * @return True if the history files haven't been changed by anyone else 
+	 * since deckState was loaded from or saved to them, and there are no 
+	 * journal files that need to be replayed. 
+	 */
+	private boolean isHistoryUnchanged()
+	{
+		return getModificationStamp(historyFile, binaryHistoryFile).equals(historyFileStamp) && !journal.hasFiles();
+	}
+	
+	/**
+	 * @return A string that changes whenever any of the specified files is 
+	 * modified, created or deleted (almost always - it's based on the size 
+	 * and modification time). 
+	 */
+	static String getModificationStamp(File... files)
+	{
+		StringBuilder result = new StringBuilder();
+		for (File f: files)
+			result.append(f.length()).append('@').append(f.lastModified()).append(';');
+		return result.toString();
 	}
 	
 	/** This ensures we have a singleton of each plugin class (typically just one), 
-	 * and also allows us to provide a shutdown mechanism, in case they have background threads or shared static state to dispose of. */
-	private static final Map<String, Plugin> plugins = new HashMap<>();
+	 * and also allows us to provide a shutdown mechanism, in case they have background threads or shared static state to dispose of. 
+	 * Concurrent since question files may be loaded on several threads at once. */
+	private static final Map<String, Plugin> plugins = new ConcurrentHashMap<>();
+	
+	/** A single background thread used to let plugins prepare the next question while the user answers the current one. */
+	private static final ExecutorService prepareQuestionExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "FlashTeacher-prepareQuestion");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	/** 
+	 * A single background thread used to save question history files and compact 
+	 * journals into them, in the order they were requested. It isn't a daemon 
+	 * thread, so that a save that's in progress when the last window is closed 
+	 * still completes; it exits when it has been idle for a second. 
+	 */
+	private static final ExecutorService historyWriter = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, 
+			new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, "FlashTeacher-saveHistory"));
 	
 	public static void shutdownPlugins()
 	{
+		prepareQuestionExecutor.shutdownNow();
+		try {
+			prepareQuestionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) { 
+			Thread.currentThread().interrupt();
+		}
 		for (Plugin p: plugins.values())
 			p.close();
 	}
@@ -228,7 +360,161 @@ public class ModelHolder
 		for (Plugin p: plugins.values())
 			p.onQuestionChanged(getQuestionManager().getCurrentQuestion());
 	}
+	
+	/**
+	 * Selects the question that will be asked after the current one, and asks 
+	 * the plugins to prepare it on a background thread while the user is 
+	 * answering the current question. 
+	 */
+	public void prefetchNextQuestion()
+	{
+		final Question nextQuestion = getQuestionManager().prefetchNextQuestion();
+		for (final Plugin p: plugins.values())
+			prepareQuestionExecutor.execute(() -> {
+				try {
+					p.prepareQuestion(nextQuestion);
+				} catch (RuntimeException ex)
+				{
+					// not fatal, since the plugin will just have to do it in onQuestionChanged instead
+					logger.log(java.util.logging.Level.WARNING, "Plugin failed to prepare question \""+nextQuestion+"\": ", ex);
+				}
+			});
+	}
 
+	/**
+	 * Called by the UI before it displays the current question, in case the 
+	 * model needs to do anything once the previous question has been answered. 
+	 * QuestionManager moves to the next question itself as soon as a 
+	 * question is answered correctly, so this just applies any changes to the 
+	 * question file (unless there are several question files). 
+	 */
+	public void selectNextQuestion()
+	{
+		applyQuestionFileChange();
+	}
+	
+	/**
+	 * Starts watching the question file, so that if it's changed during the 
+	 * session (e.g. in the editor) the changes are loaded in the background 
+	 * and take effect from the next question, rather than the next session. 
+	 * Question files that use a plugin aren't reloaded until the next session. 
+	 */
+	public void startWatchingQuestionFile()
+	{
+		if (questionFileWatcher != null)
+			return;
+		try {
+			questionFileWatcher = new QuestionFileWatcher(questionFile, this::questionFileChanged);
+		} catch (IOException e)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Cannot watch question file for changes, so any changes will take effect in the next session: "+e);
+		}
+	}
+	
+	/**
+	 * Stops watching the question file, at the end of the session. 
+	 */
+	public void stopWatchingQuestionFile()
+	{
+		if (questionFileWatcher == null)
+			return;
+		questionFileWatcher.close();
+		questionFileWatcher = null;
+	}
+	
+	/** Changes to the question file, and the state they apply to. */
+	private static final class QuestionFileChange
+	{
+		/** The state the changes were worked out from, which the QuestionManager's questions must still match. */
+		final DeckState baseState;
+		final DeckState.Changes changes;
+		/** The changes applied to baseState. */
+		final DeckState newState;
+		final Options options;
+		final String questionFileStamp;
+		
+		QuestionFileChange(DeckState baseState, DeckState.Changes changes, Options options, String questionFileStamp)
+		{
+			this.baseState = baseState;
+			this.changes = changes;
+			this.newState = baseState.apply(changes);
+			this.options = options;
+			this.questionFileStamp = questionFileStamp;
+		}
+	}
+	
+	/**
+	 * Loads the question file after it has changed during a session, and works 
+	 * out how its questions differ from those being asked. Called on the 
+	 * QuestionFileWatcher's thread, so that the UI isn't held up. 
+	 */
+	private void questionFileChanged()
+	{
+		DeckState state = deckState;
+		String newQuestionFileStamp = getModificationStamp(questionFile);
+		if (state == null || newQuestionFileStamp.equals(questionFileStamp))
+			return;
+		
+		long time = System.currentTimeMillis();
+		try {
+			QuestionFileReader questionFileReader = QuestionFileReader.read(questionFile);
+			if (!questionFileReader.plugins.isEmpty())
+			{
+				// plugins may need to do their own reinitialization, and expect to be on the event thread
+				logger.log(java.util.logging.Level.INFO, "Question file has changed, but uses a plugin so will be reloaded when the next session starts");
+				return;
+			}
+			if (questionFileReader.options.isCaseSensitive != options.isCaseSensitive)
+			{
+				logger.log(java.util.logging.Level.INFO, "Question file has changed case sensitivity, so will be reloaded when the next session starts");
+				return;
+			}
+			if (questionFileReader.questions.size() < 2)
+				throw new IOException("Invalid question file - the file contains less than two questions!");
+			
+			pendingQuestionFileChange.set(new QuestionFileChange(state, state.matchChanges(questionFileReader.questions), 
+					questionFileReader.options, newQuestionFileStamp));
+			logger.log(java.util.logging.Level.INFO, "Loaded changed question file in "+(System.currentTimeMillis()-time)+" ms; the changes will take effect from the next question");
+		} catch (IOException e)
+		{
+			// probably because it's part way through being edited
+			logger.log(java.util.logging.Level.WARNING, "Cannot load changed question file, so ignoring the change: "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Applies any changes to the question file that have been loaded in the 
+	 * background since the last question. Must be called between questions. 
+	 */
+	void applyQuestionFileChange()
+	{
+		QuestionFileChange change = pendingQuestionFileChange.getAndSet(null);
+		if (change == null || qm == null)
+			return;
+		if (change.baseState != deckState)
+		{
+			// the questions have been loaded again since (or the history was saved), so these changes are out of date
+			logger.log(java.util.logging.Level.FINE, "Ignoring out-of-date changes to question file");
+			return;
+		}
+		long time = System.currentTimeMillis();
+		qm.changeQuestions(change.changes);
+		// the session continues with its own options, but the next one uses the new options
+		options = change.options;
+		deckState = change.newState;
+		questionFileStamp = change.questionFileStamp;
+		logger.log(java.util.logging.Level.INFO, "Applied changes to question file to the current session in "+(System.currentTimeMillis()-time)+" ms.");
+	}
+	
+	/**
+	 * @return A summary of the current session for display in the title bar, 
+	 * or an empty string if no questions have been answered yet. 
+	 */
+	public String getSessionStatus()
+	{
+		return getQuestionManager().getSessionStatus();
+	}
+	
 	/** Checks if a answer just entered by the user is correct, using a plugin if there is one. 
 	 * This also gives the plugin a chance to play extra sound etc in response to their answer. */
 	public boolean checkAnswer(Question question, String answer)
@@ -239,17 +525,188 @@ public class ModelHolder
 	}
 
 	
+	/**
+	 * Saves the history, waiting until it has been written. 
+	 * @throws IOException If the history could not be saved. 
+	 */
 	public void saveHistory() throws IOException
 	{
-		logger.log(java.util.logging.Level.INFO, getClass().getSimpleName()+".saveHistory()");
+		try {
+			saveHistoryInBackground().get();
+		} catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("Failed to save question history: "+e.getCause(), e.getCause());
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the question history to be saved");
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of the history and saves it on a background thread, 
+	 * so that saving a large history doesn't hold up the caller (typically 
+	 * the Swing event thread). If an earlier save is still waiting to start, 
+	 * the two are coalesced into a single write of this newer snapshot. 
+	 * 
+	 * @return A future that completes (on the background thread) once the 
+	 * history has been written, or completes exceptionally with the 
+	 * IOException if it could not be. 
+	 */
+	public CompletableFuture<Void> saveHistoryInBackground()
+	{
+		logger.log(java.util.logging.Level.INFO, getClass().getSimpleName()+".saveHistoryInBackground()");
 		
-		Element rootElement = qm.save();
-		Document doc = new Document(rootElement);
-		doc.setDocType(new DocType(rootElement.getName(), "questionHistory.dtd"));
-
-		XMLUtils.saveXML(doc, historyFile);
+		PendingSave save = new PendingSave(qm.prepareSaveState(), journal.rotate());
+		PendingSave replaced = pendingSave.getAndSet(save);
+		if (replaced == null)
+			lastHistoryWrite = historyWriter.submit(this::writePendingSave);
+		else
+		{
+			// the write that was submitted for the replaced save will write this one instead
+			logger.log(java.util.logging.Level.FINE, "Coalescing question history save with one that hasn't started yet");
+			save.done.whenComplete((result, ex) -> {
+				if (ex == null) 
+					replaced.done.complete(null);
+				else
+					replaced.done.completeExceptionally(ex);
+			});
+		}
+		return save.done;
+	}
+	
+	/** A snapshot of the history that is waiting to be saved. */
+	private static final class PendingSave
+	{
+		final DeckState history;
+		/** The newest journal generation whose changes are included in the snapshot. */
+		final int journalGeneration;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
 		
-		logger.log(java.util.logging.Level.FINE, getClass().getSimpleName()+".saveHistory() done");
+		PendingSave(DeckState history, int journalGeneration)
+		{
+			this.history = history;
+			this.journalGeneration = journalGeneration;
+		}
+	}
+	
+	/**
+	 * Writes the most recent pending save, if it hasn't already been written 
+	 * by an earlier call. Called on the historyWriter thread. 
+	 */
+	private void writePendingSave()
+	{
+		PendingSave save = pendingSave.getAndSet(null);
+		if (save == null) return;
+		try {
+			long time = System.currentTimeMillis();
+			if (binaryHistory && historyFile.exists() && !binaryHistoryFile.exists())
+				logger.log(java.util.logging.Level.INFO, "Migrating question history to the binary format; the XML history file is left as a backup: \""+historyFile+"\"");
+			writeHistoryFile(save.history.toSnapshot());
+			
+			// everything in the journal up to this point is now in the history file
+			journal.deleteUpTo(save.journalGeneration);
+			// and the next session can start from what we saved
+			deckState = save.history;
+			
+			logger.log(java.util.logging.Level.INFO, "Saved question history to \""+historyFile.getName()+"\" in "+(System.currentTimeMillis()-time)+" ms.");
+			save.done.complete(null);
+		} catch (IOException | RuntimeException e)
+		{
+			logger.log(java.util.logging.Level.SEVERE, "Failed to save question history: ", e);
+			// the history must be loaded from the files (and journal) next time, as we don't know what state they're in
+			deckState = null;
+			save.done.completeExceptionally(e);
+		}
+	}
+	
+	/**
+	 * Writes the history file in the current format. The file is written 
+	 * to a temporary file and then moved into place, so that the existing 
+	 * history (and any journal we're about to delete) isn't lost if we're 
+	 * killed part way through. 
+	 */
+	void writeHistoryFile(HistorySnapshot history) throws IOException
+	{
+		File file = binaryHistory ? binaryHistoryFile : historyFile;
+		File tempFile = new File(file.getPath()+".tmp");
+		if (binaryHistory)
+			BinaryHistoryFile.write(history, tempFile);
+		else
+			// written straight from the model, since a JDOM tree of a large history is several times bigger than the file
+			HistoryFileWriter.write(history, tempFile);
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		historyFileStamp = getModificationStamp(historyFile, binaryHistoryFile);
+	}
+	
+	/**
+	 * Writes a history that has just had the journal replayed onto it to the 
+	 * history file in the background, and then deletes the replayed journal 
+	 * files. The journal carries on recording the new session's answers 
+	 * in a new generation while this happens. 
+	 */
+	private void compactJournal(LoadedHistory history)
+	{
+		final int journalGeneration = journal.rotate();
+		final HistorySnapshot snapshot = history.toSnapshot();
+		lastHistoryWrite = historyWriter.submit(() -> {
+			long time = System.currentTimeMillis();
+			try {
+				writeHistoryFile(snapshot);
+			} catch (IOException e)
+			{
+				// the journal is left in place to be replayed again next time
+				logger.log(java.util.logging.Level.WARNING, "Failed to compact question history journal: "+e, e);
+				return;
+			}
+			journal.deleteUpTo(journalGeneration);
+			logger.log(java.util.logging.Level.INFO, "Compacted question history journal into \""+historyFile.getName()+"\" in "+(System.currentTimeMillis()-time)+" ms.");
+		});
+	}
+	
+	/**
+	 * Waits for any background saves or journal compaction to finish, so that 
+	 * we don't read the history file while it's being replaced. 
+	 * @throws InterruptedIOException If interrupted while waiting. 
+	 */
+	private void awaitHistoryWrites() throws InterruptedIOException
+	{
+		Future<?> write = lastHistoryWrite;
+		if (write == null)
+			return;
+		try {
+			// since there's a single writer thread, all earlier writes have finished too
+			write.get();
+		} catch (ExecutionException e)
+		{
+			// already reported by the write itself
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the question history to be saved");
+		}
+	}
+	
+	/**
+	 * @return True if the history should be loaded from the binary file 
+	 * rather than the XML file. Whichever was saved most recently is used, 
+	 * so that switching between the formats doesn't lose any history. 
+	 */
+	boolean isBinaryHistoryNewer()
+	{
+		return isBinaryHistoryNewer(historyFile, binaryHistoryFile);
+	}
+	
+	static boolean isBinaryHistoryNewer(File historyFile, File binaryHistoryFile)
+	{
+		return binaryHistoryFile.exists() && (!historyFile.exists() || binaryHistoryFile.lastModified() >= historyFile.lastModified());
 	}
 	
 	private QuestionManager qm = null;
@@ -260,7 +717,7 @@ public class ModelHolder
 		return qm;
 	}
 	
-	private Options options = null;
+	private volatile Options options = null;
 	public Options getOptions() 
 	{
 		if (options == null)
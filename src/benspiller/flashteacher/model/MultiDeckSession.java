@@ -0,0 +1,262 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.JPanel;
+
+import benspiller.flashteacher.utils.IndexedIntMinHeap;
+
+/**
+ * A ModelHolder for studying several question files ("decks") in one
+ * session. Each deck is loaded by its own ModelHolder, with its own
+ * QuestionManager and history file, and the decks are loaded in parallel.
+ *
+ * Each deck's QuestionManager selects questions from that deck as usual,
+ * and this class merges those streams by choosing which deck the next
+ * question comes from, in proportion to the deck weights (using stride
+ * scheduling, so the interleaving is smooth and deterministic). The
+ * QuestionManager of the deck that the current question came from is
+ * returned by getQuestionManager(), so the rest of the UI works as usual;
+ * for example the Performance Status window shows the current deck.
+ *
+ * Question files that use a plugin can't be combined with other files,
+ * since plugins are shared between all question files.
+ *
+ * @author Ben
+ */
+public class MultiDeckSession extends ModelHolder
+{
+	/** The stride of a deck with a weight of 1; larger values give more precise interleaving of weights. */
+	static final long STRIDE_SCALE = 1L << 20;
+
+	final List<ModelHolder> decks = new ArrayList<>();
+
+	/** The decks that are loaded, keyed by the "pass" value of each deck; the deck with the smallest pass asks the next question. */
+	private final IndexedIntMinHeap deckSchedule;
+	private long[] strides;
+
+	/** The index of the deck that the current question is from, or -1 if not loaded. */
+	private int currentDeck = -1;
+	/** The current deck's QuestionManager.questionsAsked when it was selected, to detect when it has moved on to another question. */
+	private int currentDeckQuestionsAsked;
+
+	private long startTimeMillis;
+	/** The time spent on the questions of each deck this session, not including the current deck since currentDeckStartMillis. */
+	private long[] deckTimeMillis;
+	/** When the current deck was selected. */
+	private long currentDeckStartMillis;
+	private boolean loaded = false;
+
+	public MultiDeckSession(List<File> questionFiles)
+	{
+		if (questionFiles.size() < 2)
+			throw new IllegalArgumentException("A MultiDeckSession requires at least two question files");
+		for (File f: questionFiles)
+		{
+			ModelHolder deck = new ModelHolder(f);
+			deck.pluginsAllowed = false;
+			decks.add(deck);
+		}
+		deckSchedule = new IndexedIntMinHeap(decks.size());
+	}
+
+	@Override
+	public boolean isLoaded()
+	{
+		return loaded;
+	}
+
+	/**
+	 * Loads all the question files in parallel. If any of them can't be
+	 * loaded, an exception is thrown identifying which file it was.
+	 */
+	@Override
+	public void load(final JPanel questionFieldPanel) throws IOException
+	{
+		logger.log(java.util.logging.Level.INFO, getClass().getSimpleName()+ ".load() of "+decks.size()+" question files");
+		long time1 = System.currentTimeMillis();
+		loaded = false;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(decks.size(), Runtime.getRuntime().availableProcessors()), r -> {
+			Thread t = new Thread(r, "FlashTeacher-loadDeck");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (final ModelHolder deck: decks)
+				futures.add(executor.submit(() -> {
+					deck.load(questionFieldPanel);
+					return null;
+				}));
+			for (int i = 0; i < decks.size(); i++)
+			{
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException ex)
+				{
+					Throwable cause = ex.getCause();
+					throw new IOException("Failed to load \""+decks.get(i).questionFile.getName()+"\": "+cause.getMessage(), cause);
+				} catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while loading question files", ex);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		strides = new long[decks.size()];
+		deckSchedule.clear();
+		for (int i = 0; i < decks.size(); i++)
+		{
+			ModelHolder deck = decks.get(i);
+			double weight = deck.getOptions().getDeckWeight();
+			if (weight == 0)
+				weight = deck.getQuestionManager().allQuestions.size();
+			strides[i] = Math.max(1, Math.round(STRIDE_SCALE / weight));
+			// start each deck half a stride in, so the heaviest deck goes first
+			deckSchedule.put(i, strides[i]/2);
+			logger.log(java.util.logging.Level.INFO, "Deck \""+deck.questionFile.getName()+"\" has weight "+weight);
+		}
+
+		startTimeMillis = System.currentTimeMillis();
+		deckTimeMillis = new long[decks.size()];
+		currentDeck = -1;
+		selectNextDeck();
+		loaded = true;
+		logger.log(java.util.logging.Level.INFO, "Loaded "+decks.size()+" question files in "+(System.currentTimeMillis()-time1)+" ms.");
+	}
+
+	private void selectNextDeck()
+	{
+		updateDeckTime();
+		currentDeck = deckSchedule.peek();
+		deckSchedule.put(currentDeck, deckSchedule.getKey(currentDeck) + strides[currentDeck]);
+		currentDeckQuestionsAsked = decks.get(currentDeck).getQuestionManager().questionsAsked;
+		logger.log(java.util.logging.Level.FINE, "Selected deck \""+decks.get(currentDeck).questionFile.getName()+"\"");
+	}
+
+	/**
+	 * Adds the time since the current deck was selected (or since this was 
+	 * last called) to the time spent on that deck. 
+	 */
+	private void updateDeckTime()
+	{
+		long now = System.currentTimeMillis();
+		if (currentDeck >= 0)
+			deckTimeMillis[currentDeck] += now-currentDeckStartMillis;
+		currentDeckStartMillis = now;
+	}
+
+	/**
+	 * Moves to the next deck once the current deck's QuestionManager has
+	 * moved on from the question it was asking, which a change to its
+	 * question file only causes if that question was removed or its answer
+	 * changed.
+	 */
+	@Override
+	public void selectNextQuestion()
+	{
+		for (ModelHolder deck: decks)
+			deck.applyQuestionFileChange();
+		if (currentDeck >= 0 && decks.get(currentDeck).getQuestionManager().questionsAsked != currentDeckQuestionsAsked)
+			selectNextDeck();
+	}
+
+	@Override
+	public void startWatchingQuestionFile()
+	{
+		for (ModelHolder deck: decks)
+			deck.startWatchingQuestionFile();
+	}
+
+	@Override
+	public void stopWatchingQuestionFile()
+	{
+		for (ModelHolder deck: decks)
+			deck.stopWatchingQuestionFile();
+	}
+
+	/**
+	 * Does nothing, since prefetching is only useful for plugins, and the
+	 * next deck isn't chosen until the current question has been answered.
+	 */
+	@Override
+	public void prefetchNextQuestion()
+	{
+	}
+
+	/**
+	 * Saves the history of each deck that questions were answered from. The 
+	 * time recorded for the session in each deck's knowledge index history is 
+	 * just the time spent on that deck's questions, so that the time spent 
+	 * on all the decks adds up to the length of the session. 
+	 * @return A future that completes once all of them have been saved.
+	 */
+	@Override
+	public CompletableFuture<Void> saveHistoryInBackground()
+	{
+		updateDeckTime();
+		List<CompletableFuture<Void>> saves = new ArrayList<>();
+		for (int i = 0; i < decks.size(); i++)
+		{
+			ModelHolder deck = decks.get(i);
+			if (deck.isLoaded() && deck.getQuestionManager().questionsAnswered > 0)
+			{
+				deck.getQuestionManager().sessionDurationMillis = deckTimeMillis[i];
+				saves.add(deck.saveHistoryInBackground());
+			}
+		}
+		return CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[saves.size()]));
+	}
+
+	@Override
+	public QuestionManager getQuestionManager()
+	{
+		if (currentDeck < 0)
+			throw new IllegalStateException("Internal error - QuestionManager has not been successfully loaded yet");
+		return decks.get(currentDeck).getQuestionManager();
+	}
+
+	/**
+	 * @return The options of the first question file, which are used for the
+	 * display; options that affect question selection are taken from each file.
+	 */
+	@Override
+	public Options getOptions()
+	{
+		return decks.get(0).getOptions();
+	}
+
+	/**
+	 * @return The status of the session across all decks, with the score
+	 * weighted by the number of questions in each deck.
+	 */
+	@Override
+	public String getSessionStatus()
+	{
+		int questionsAnswered = 0;
+		double totalScore = 0;
+		int totalQuestions = 0;
+		for (ModelHolder deck: decks)
+		{
+			QuestionManager qm = deck.getQuestionManager();
+			questionsAnswered += qm.questionsAnswered;
+			totalScore += qm.getCurrentQuestionSetScores().questionSetPercentScore * qm.allQuestions.size();
+			totalQuestions += qm.allQuestions.size();
+		}
+		if (questionsAnswered == 0) return "";
+		return " - answered "+questionsAnswered+" from "+decks.size()+" files in "+((System.currentTimeMillis()-startTimeMillis)/1000/60)+" mins"
+			+", score "+Math.round(totalScore/totalQuestions)+"%";
+	}
+}
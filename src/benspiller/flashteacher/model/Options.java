@@ -19,6 +19,15 @@ public class Options
 	protected int questionFontSize;
 	boolean isAnswerRightToLeft;
 	boolean isCaseSensitive;
+	int prioritizedQuestionsBucketSize;
+	String questionSelector;
+	double deckWeight;
+	int answerHistoryLength;
+	
+	/** The questionSelector option value for the original bucket-based question selection */
+	public static final String QUESTION_SELECTOR_DEFAULT = "default";
+	/** The questionSelector option value for spaced repetition question selection */
+	public static final String QUESTION_SELECTOR_SPACED_REPETITION = "spacedRepetition";
 
 	public Options(Element optionsElement)
 	{
@@ -28,6 +37,23 @@ public class Options
 		questionFontSize = Integer.parseInt(optionsElement.getAttributeValue("questionFontSize"));
 		isAnswerRightToLeft = Boolean.valueOf(optionsElement.getAttributeValue("isAnswerRightToLeft"));
 		isCaseSensitive = Boolean.valueOf(optionsElement.getAttributeValue("isCaseSensitive"));
+		prioritizedQuestionsBucketSize = Integer.parseInt(optionsElement.getAttributeValue("prioritizedQuestionsBucketSize", 
+				String.valueOf(DefaultQuestionSelector.DEFAULT_PRIORITIZED_QUESTIONS_BUCKET_SIZE)));
+		if (prioritizedQuestionsBucketSize < 1)
+			throw new IllegalArgumentException("prioritizedQuestionsBucketSize must be at least 1");
+		questionSelector = optionsElement.getAttributeValue("questionSelector", QUESTION_SELECTOR_DEFAULT);
+		if (!questionSelector.equals(QUESTION_SELECTOR_DEFAULT) && !questionSelector.equals(QUESTION_SELECTOR_SPACED_REPETITION))
+			throw new IllegalArgumentException("Unknown questionSelector: \""+questionSelector+"\"");
+		String deckWeightValue = optionsElement.getAttributeValue("deckWeight");
+		if (deckWeightValue != null)
+		{
+			deckWeight = Double.parseDouble(deckWeightValue);
+			if (!(deckWeight > 0))
+				throw new IllegalArgumentException("deckWeight must be greater than 0");
+		}
+		answerHistoryLength = Integer.parseInt(optionsElement.getAttributeValue("answerHistoryLength", "0"));
+		if (answerHistoryLength < 0)
+			throw new IllegalArgumentException("answerHistoryLength must not be negative");
 	}
 	
 	public String getQuestionFontFamily()
@@ -59,5 +85,43 @@ public class Options
 	{
 		return isCaseSensitive;
 	}
+
+	/**
+	 * @return The maximum number of passed/new questions that are prioritized 
+	 * at any one time. 
+	 */
+	public int getPrioritizedQuestionsBucketSize()
+	{
+		return prioritizedQuestionsBucketSize;
+	}
+	
+	/**
+	 * @return The strategy used to select the next question; one of the 
+	 * QUESTION_SELECTOR_* constants. 
+	 */
+	public String getQuestionSelector()
+	{
+		return questionSelector;
+	}
+	
+	/**
+	 * @return How often questions from this file are asked relative to other 
+	 * files when several are studied together, or 0 if not specified, in 
+	 * which case each file is weighted by its number of questions. 
+	 */
+	public double getDeckWeight()
+	{
+		return deckWeight;
+	}
+	
+	/**
+	 * @return The number of recent answers to each question that are kept 
+	 * in the history, with the time each was given and how long it took, 
+	 * or 0 if they aren't recorded. 
+	 */
+	public int getAnswerHistoryLength()
+	{
+		return answerHistoryLength;
+	}
 	
 }
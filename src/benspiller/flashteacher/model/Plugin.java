@@ -53,6 +53,22 @@ public interface Plugin
 	 */
 	default void onQuestionChanged(Question question) {}
 	
+	/** 
+	 * Called on a background thread with the question that will probably be 
+	 * displayed next, while the user is still answering the current one. 
+	 * This allows plugins to do any time-consuming preparation of the 
+	 * question's presentation in advance, so that it can be used by 
+	 * {@link #onQuestionChanged(Question)} if that is called with the same 
+	 * question - reducing the delay before the next question is presented. 
+	 * 
+	 * There is no guarantee that the prepared question will be displayed 
+	 * next (or at all), and it may be called concurrently with the other 
+	 * methods of the plugin. 
+	 * 
+	 * @param question
+	 */
+	default void prepareQuestion(Question question) {}
+	
 	/** Called when the user stops the current session (but does not close the 
 	 * application). */
 	default void stop() {}
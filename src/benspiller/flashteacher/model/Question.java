@@ -11,6 +11,9 @@ import java.util.logging.Logger;
  * 
  * Can be subclassed by plugins, however the question and answer strings must still be valid. 
  * 
+ * Immutable (unless a plugin subclass adds mutable state), so a Question may be 
+ * shared between QuestionManagers on different threads. 
+ * 
  * @author Ben
  */
 public class Question 
@@ -61,9 +64,11 @@ public class Question
 			answer = answer.toLowerCase();
 		}
 		
-		return collator.equals(correctAnswer, answer);
+		return collator.get().equals(correctAnswer, answer);
 	}
-	static final Collator collator = Collator.getInstance();
+	
+	/** Collators aren't thread-safe (and the JDK's synchronizes every comparison), so each thread has its own. */
+	static final ThreadLocal<Collator> collator = ThreadLocal.withInitial(Collator::getInstance);
 	
 	public String getQuestion() {
 		return question;
@@ -80,7 +85,7 @@ public class Question
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof Question)
-			return collator.equals( ((Question)obj).question, this.question);
+			return collator.get().equals( ((Question)obj).question, this.question);
 		return false;
 	}
 	
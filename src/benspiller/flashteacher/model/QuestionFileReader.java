@@ -0,0 +1,162 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import benspiller.flashteacher.utils.XMLUtils;
+
+/**
+ * Reads a question file with a streaming parser, turning each question
+ * element directly into a Question without building a JDOM tree of the
+ * whole file.
+ *
+ * The text of questions and answers is handled in the same way as when the
+ * file was loaded with JDOM: question text is the normalized text directly
+ * inside the questionText element, and answer text is the concatenation of
+ * the normalized text of each part of the answerText element (including any
+ * em elements).
+ *
+ * @author Ben
+ */
+class QuestionFileReader extends DefaultHandler
+{
+	Options options;
+	final List<Question> questions = new ArrayList<>();
+	/** The properties of each plugin element, including its "class" attribute. */
+	final List<Map<String, String>> plugins = new ArrayList<>();
+
+	private final StringBuilder text = new StringBuilder();
+	private String questionText;
+	private StringBuilder answerText;
+	private boolean inQuestionText;
+	private boolean inEm;
+	private boolean inProperty;
+	private Map<String, String> pluginProperties;
+	private int questionNumber = 0; // for error messages
+
+	/**
+	 * Reads the specified question file.
+	 * @throws IOException If the file is invalid.
+	 */
+	static QuestionFileReader read(File questionFile) throws IOException
+	{
+		QuestionFileReader reader = new QuestionFileReader();
+		XMLUtils.parseXML(questionFile, reader);
+		return reader;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException
+	{
+		switch (name)
+		{
+		case "questionList":
+			Element optionsElement = new Element(name);
+			for (int i = 0; i < attributes.getLength(); i++)
+				optionsElement.setAttribute(attributes.getQName(i), attributes.getValue(i));
+			try {
+				options = new Options(optionsElement);
+			} catch (IllegalArgumentException e)
+			{
+				throw new SAXException("Invalid options in question file: "+e.getMessage(), e);
+			}
+			break;
+		case "question":
+			questionNumber++;
+			questionText = null;
+			answerText = null;
+			break;
+		case "questionText":
+			inQuestionText = true;
+			text.setLength(0);
+			break;
+		case "answerText":
+			answerText = new StringBuilder();
+			text.setLength(0);
+			break;
+		case "em":
+			if (!inQuestionText)
+				endAnswerTextPart();
+			inEm = true;
+			break;
+		case "plugin":
+			pluginProperties = new HashMap<>();
+			for (int i = 0; i < attributes.getLength(); i++)
+				pluginProperties.put(attributes.getQName(i), attributes.getValue(i));
+			text.setLength(0);
+			break;
+		case "property":
+			if (pluginProperties == null)
+				throw new SAXException("Unexpected element: "+name);
+			pluginProperties.put(attributes.getValue("name"), attributes.getValue("value"));
+			inProperty = true;
+			break;
+		default:
+			throw new SAXException("Unknown element: "+name);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length)
+	{
+		// as for JDOM's getText(), only the text directly inside questionText and plugin elements is used
+		if (!(inQuestionText && inEm) && !inProperty)
+			text.append(ch, start, length);
+	}
+
+	/**
+	 * Adds the text since the start of the answerText or the last em element
+	 * boundary to the answer.
+	 */
+	private void endAnswerTextPart()
+	{
+		if (answerText != null)
+			answerText.append(XMLUtils.normalizeText(text));
+		text.setLength(0);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String name) throws SAXException
+	{
+		switch (name)
+		{
+		case "questionText":
+			questionText = XMLUtils.normalizeText(text);
+			inQuestionText = false;
+			break;
+		case "em":
+			if (!inQuestionText)
+				endAnswerTextPart();
+			inEm = false;
+			break;
+		case "answerText":
+			endAnswerTextPart();
+			break;
+		case "question":
+			if (questionText == null || answerText == null || answerText.length() == 0) // probably never happens due to DTD validation
+				throw new SAXException("Invalid question file - question or answer value #"+questionNumber+" is null");
+			questions.add(new Question(questionText, answerText.toString(), options.isCaseSensitive));
+			answerText = null;
+			break;
+		case "property":
+			inProperty = false;
+			break;
+		case "plugin":
+			String pluginText = XMLUtils.normalizeText(text);
+			if (pluginText.length() != 0)
+				pluginProperties.put("xmlText", pluginText);
+			plugins.add(pluginProperties);
+			pluginProperties = null;
+			break;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package benspiller.flashteacher.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches a question file for changes, using a WatchService on the directory
+ * that contains it, and calls a listener on a background thread once the file
+ * has stopped changing for DEBOUNCE_MILLIS. This means a file that's written
+ * in several steps, or saved several times in quick succession (as editors
+ * often do), is only handled once, and not while it's half-written.
+ *
+ * Thread-safety: this class is thread-safe. The listener is always called on
+ * the watcher's own thread, one call at a time.
+ *
+ * @author Ben
+ */
+final class QuestionFileWatcher
+{
+	/** How long the file must be left unchanged before the listener is called. */
+	static final long DEBOUNCE_MILLIS = 500;
+
+	private final Logger logger = Logger.getLogger(getClass().getName());
+
+	private final Path fileName;
+	private final Runnable listener;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	/**
+	 * Starts watching the specified file.
+	 * @param listener Called on the watcher thread after the file has changed.
+	 * @throws IOException If the file system doesn't support watching the
+	 * file's directory.
+	 */
+	QuestionFileWatcher(File file, Runnable listener) throws IOException
+	{
+		Path directory = file.getAbsoluteFile().getParentFile().toPath();
+		this.fileName = file.toPath().getFileName();
+		this.listener = listener;
+		watchService = directory.getFileSystem().newWatchService();
+		try {
+			// editors that save to a temporary file and rename it over the original produce a create event
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException | RuntimeException e)
+		{
+			watchService.close();
+			throw e;
+		}
+		thread = new Thread(this::run, "FlashTeacher-watchQuestionFile");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void run()
+	{
+		try {
+			while (true)
+			{
+				// wait for the file to change...
+				if (!isFileChanged(watchService.take()))
+					continue;
+				// ...and then to stop changing
+				WatchKey key;
+				while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					isFileChanged(key);
+
+				try {
+					listener.run();
+				} catch (RuntimeException e)
+				{
+					logger.log(java.util.logging.Level.WARNING, "Failed to handle change to question file \""+fileName+"\": ", e);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// closed
+		}
+	}
+
+	/**
+	 * Consumes the events for the specified key, and resets it so that it
+	 * receives more.
+	 * @return True if any of the events were for the question file (or if
+	 * some events were lost, in which case we don't know).
+	 */
+	private boolean isFileChanged(WatchKey key)
+	{
+		boolean result = false;
+		for (WatchEvent<?> event: key.pollEvents())
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+				result = true;
+		key.reset();
+		return result;
+	}
+
+	/**
+	 * Stops watching the file. The listener may still be running when this
+	 * returns, but won't be called again.
+	 */
+	void close()
+	{
+		thread.interrupt();
+		try {
+			watchService.close();
+		} catch (IOException e)
+		{
+			logger.log(java.util.logging.Level.WARNING, "Failed to stop watching question file \""+fileName+"\": "+e);
+		}
+	}
+}
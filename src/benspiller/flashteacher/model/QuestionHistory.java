@@ -1,13 +1,21 @@
 package benspiller.flashteacher.model;
 
-import java.util.Comparator;
-import java.util.Date;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.jdom.Element;
 
 /**
  * Holds the information about previous performance on a question from the 
  * question set. Also knows how to serialize/deserialize itself from XML.  
+ * 
+ * While a QuestionManager is running, the history of its questions is held 
+ * in a QuestionHistoryStore instead; this class is just used as a detached 
+ * record when reading and writing history files, and for questions that are 
+ * no longer in the question file. 
+ * 
  * @author Ben
  */
 class QuestionHistory
@@ -35,13 +43,37 @@ class QuestionHistory
 	 */
 	public boolean isPrioritized;
 	
-	public Date timeLastAsked;
+	/**
+	 * The time this question was last asked in epoch millis, or 0 if it has 
+	 * never been asked. 
+	 */
+	public long timeLastAsked;
+	
+	/**
+	 * The time this question is next due to be asked in epoch millis, or 0 
+	 * if it has not been scheduled. Only used by the spaced repetition 
+	 * question selector. 
+	 */
+	public long dueTime;
+	
+	/**
+	 * The current interval between repetitions of this question in seconds. 
+	 * Only used by the spaced repetition question selector. 
+	 */
+	public int repetitionInterval;
 	
 	// These aren't actually used, just recorded for manual inspection and possible future use
 	public long totalTimesAsked;
 	public long totalWrongAnswers;
 	public String lastWrongAnswer;
 	
+	/**
+	 * The most recent answers to this question, encoded by AnswerEventLog, 
+	 * or null if none have been recorded (which is the case unless the 
+	 * answerHistoryLength option is set). 
+	 */
+	byte[] answerLog;
+	
 	public final Question question;
 	
 	/**
@@ -52,7 +84,7 @@ class QuestionHistory
 		this.passModeCounter = 1;
 		this.averageTimeToAnswer = 0;
 		this.isPrioritized = false;
-		this.timeLastAsked = null;
+		this.timeLastAsked = 0;
 		this.question = question;
 		this.totalTimesAsked = 0;
 	}
@@ -64,23 +96,59 @@ class QuestionHistory
 	 */
 	public QuestionHistory(Question question, Element questionHistoryElement)
 	{
-		this.passModeCounter = Integer.valueOf(questionHistoryElement.getAttributeValue("passModeCounter", "1"));
-		this.averageTimeToAnswer = Long.valueOf(questionHistoryElement.getAttributeValue("averageTimeToAnswer", "0"));
-		this.isPrioritized = Boolean.valueOf(questionHistoryElement.getAttributeValue("isPrioritized", "false"));
-		this.totalTimesAsked = Long.valueOf(questionHistoryElement.getAttributeValue("totalTimesAsked", "0"));
-		long timeLastAsked = Long.valueOf(questionHistoryElement.getAttributeValue("timeLastAsked", "0"));
-		if (timeLastAsked > 0)
-			this.timeLastAsked = new Date(timeLastAsked);
-		else
-			this.timeLastAsked = null;
+		this(question, questionHistoryElement::getAttributeValue);
+	}
+	
+	/**
+	 * Creates a QuestionHistory for a pre-existing question, using the 
+	 * attribute values of a history XML element, e.g. from a streaming parser. 
+	 * @param attributes Returns the value of the named attribute, or null if 
+	 * it is not present. 
+	 */
+	QuestionHistory(Question question, Function<String, String> attributes)
+	{
+		this.passModeCounter = Integer.valueOf(getAttribute(attributes, "passModeCounter", "1"));
+		this.averageTimeToAnswer = Long.valueOf(getAttribute(attributes, "averageTimeToAnswer", "0"));
+		this.isPrioritized = Boolean.valueOf(getAttribute(attributes, "isPrioritized", "false"));
+		this.totalTimesAsked = Long.valueOf(getAttribute(attributes, "totalTimesAsked", "0"));
+		this.timeLastAsked = Math.max(0, Long.valueOf(getAttribute(attributes, "timeLastAsked", "0")));
+		this.dueTime = Math.max(0, Long.valueOf(getAttribute(attributes, "dueTime", "0")));
+		this.repetitionInterval = Math.max(0, Integer.valueOf(getAttribute(attributes, "repetitionInterval", "0")));
 
-		totalWrongAnswers = Long.valueOf(questionHistoryElement.getAttributeValue("totalWrongAnswers", "0"));
-		lastWrongAnswer = questionHistoryElement.getAttributeValue("lastWrongAnswer", "");
+		totalWrongAnswers = Long.valueOf(getAttribute(attributes, "totalWrongAnswers", "0"));
+		lastWrongAnswer = getAttribute(attributes, "lastWrongAnswer", "");
+		String answerLogValue = attributes.apply("answerLog");
+		if (answerLogValue != null)
+			answerLog = AnswerEventLog.fromString(answerLogValue);
 
 		this.question = question;
 		
 	}
 	
+	/**
+	 * Creates a copy of a history record for the specified question. 
+	 */
+	QuestionHistory(Question question, QuestionHistory history)
+	{
+		this.passModeCounter = history.passModeCounter;
+		this.averageTimeToAnswer = history.averageTimeToAnswer;
+		this.isPrioritized = history.isPrioritized;
+		this.totalTimesAsked = history.totalTimesAsked;
+		this.timeLastAsked = history.timeLastAsked;
+		this.dueTime = history.dueTime;
+		this.repetitionInterval = history.repetitionInterval;
+		this.totalWrongAnswers = history.totalWrongAnswers;
+		this.lastWrongAnswer = history.lastWrongAnswer;
+		this.answerLog = history.answerLog;
+		this.question = question;
+	}
+	
+	private static String getAttribute(Function<String, String> attributes, String name, String defaultValue)
+	{
+		String value = attributes.apply(name);
+		return (value == null) ? defaultValue : value;
+	}
+	
 	public Element saveToXMLElement()
 	{
 		Element result = new Element(ELEMENT_NAME);
@@ -97,14 +165,48 @@ class QuestionHistory
 			result.setAttribute("totalWrongAnswers", String.valueOf(totalWrongAnswers));
 		}
 		result.setAttribute("totalTimesAsked", String.valueOf(totalTimesAsked));
-		if (timeLastAsked == null)
-			result.setAttribute("timeLastAsked", String.valueOf(0));
-		else
-			result.setAttribute("timeLastAsked", String.valueOf(timeLastAsked.getTime()));
+		result.setAttribute("timeLastAsked", String.valueOf(timeLastAsked));
+		if (dueTime != 0)
+		{
+			result.setAttribute("dueTime", String.valueOf(dueTime));
+			result.setAttribute("repetitionInterval", String.valueOf(repetitionInterval));
+		}
+		if (answerLog != null)
+			result.setAttribute("answerLog", AnswerEventLog.toString(answerLog));
 
 		return result;
 	}
 	
+	/**
+	 * Writes this record as an empty element with the same attributes as 
+	 * saveToXMLElement(). 
+	 */
+	void writeXML(XMLStreamWriter writer) throws XMLStreamException
+	{
+		writer.writeEmptyElement(ELEMENT_NAME);
+		writer.writeAttribute("passModeCounter", String.valueOf(passModeCounter));
+		writer.writeAttribute("averageTimeToAnswer", String.valueOf(averageTimeToAnswer));
+		if (isPrioritized)
+			writer.writeAttribute("isPrioritized", String.valueOf(isPrioritized));
+		
+		writer.writeAttribute("questionText", question.getQuestion());
+		writer.writeAttribute("answerText", question.getAnswer());
+		if (totalWrongAnswers > 0)
+		{
+			writer.writeAttribute("lastWrongAnswer", lastWrongAnswer);
+			writer.writeAttribute("totalWrongAnswers", String.valueOf(totalWrongAnswers));
+		}
+		writer.writeAttribute("totalTimesAsked", String.valueOf(totalTimesAsked));
+		writer.writeAttribute("timeLastAsked", String.valueOf(timeLastAsked));
+		if (dueTime != 0)
+		{
+			writer.writeAttribute("dueTime", String.valueOf(dueTime));
+			writer.writeAttribute("repetitionInterval", String.valueOf(repetitionInterval));
+		}
+		if (answerLog != null)
+			writer.writeAttribute("answerLog", AnswerEventLog.toString(answerLog));
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -137,39 +239,4 @@ class QuestionHistory
 	{
 		return question.hashCode();
 	}
-	
-	/**
-	 * A comparator that orders QuestionHistory objects with those asked most 
-	 * recently at the end of the list.  
-	 */
-	public static final Comparator<QuestionHistory> TIME_LAST_ASKED_COMPARATOR = new Comparator<QuestionHistory>(){
-		public int compare(QuestionHistory o1, QuestionHistory o2)
-		{
-			long o1TimeLastAsked = (o1.timeLastAsked == null) ? 0 : o1.timeLastAsked.getTime();
-			long o2TimeLastAsked = (o2.timeLastAsked == null) ? 0 : o2.timeLastAsked.getTime();
-			
-			if (o1TimeLastAsked < o2TimeLastAsked)
-				return -1; // o1 comes before o2 if o1 has an earlier (lower) time
-			else if (o1TimeLastAsked > o2TimeLastAsked)
-				return +1;
-			else
-				return 0;
-		}
-	};
-	
-	/**
-	 * A comparator that orders QuestionHistory objects with the worst (longest) 
-	 * average answer times at the end of the list.  
-	 */
-	public static final Comparator<QuestionHistory> AVERAGE_TIME_TO_ANSWER_COMPARATOR = new Comparator<QuestionHistory>(){
-		public int compare(QuestionHistory o1, QuestionHistory o2)
-		{
-			if (o1.averageTimeToAnswer < o2.averageTimeToAnswer)
-				return -1; // o1 comes before o2 if o1 has a better (lower) time
-			else if (o1.averageTimeToAnswer > o2.averageTimeToAnswer)
-				return +1;
-			else
-				return 0;
-		}
-	};	
 }
@@ -0,0 +1,268 @@
+package benspiller.flashteacher.model;
+
+import java.util.Arrays;
+
+/**
+ * Holds the history of every question a QuestionManager is using, as a set
+ * of parallel primitive arrays (one per field) addressed by an int question
+ * id, rather than as one heap object per question. Ids are allocated
+ * sequentially from 0 as questions are added.
+ *
+ * This keeps the per-question overhead to {@link #BYTES_PER_QUESTION} bytes
+ * (plus the Question itself, and any lastWrongAnswer strings) with no
+ * objects for the garbage collector to trace, compared to well over 100
+ * bytes and two objects per question for a QuestionHistory plus its Date.
+ *
+ * Not thread-safe.
+ */
+final class QuestionHistoryStore
+{
+	private static final byte FLAG_PRIORITIZED = 1;
+
+	/**
+	 * The number of bytes of array storage used for each question, assuming
+	 * 4-byte (compressed) object references.
+	 */
+	static final int BYTES_PER_QUESTION =
+			4 // questions
+			+ 8 // averageTimeToAnswer
+			+ 8 // timeLastAsked
+			+ 4 // totalTimesAsked
+			+ 4 // totalWrongAnswers
+			+ 1 // passModeCounter
+			+ 1 // flags
+			+ 4 // lastWrongAnswer
+			+ 8 // dueTime
+			+ 4 // repetitionInterval
+			+ 4; // answerLog
+
+	private int size = 0;
+
+	private Question[] questions;
+	private long[] averageTimeToAnswer;
+	/** Epoch millis, or 0 if never asked. */
+	private long[] timeLastAsked;
+	private int[] totalTimesAsked;
+	private int[] totalWrongAnswers;
+	private byte[] passModeCounter;
+	private byte[] flags;
+	/** Mostly null, since only set after a wrong answer. */
+	private String[] lastWrongAnswer;
+	/** Epoch millis, or 0 if not scheduled; only used by the spaced repetition selector. */
+	private long[] dueTime;
+	/** In seconds; only used by the spaced repetition selector. */
+	private int[] repetitionInterval;
+	/** Encoded by AnswerEventLog; null unless the answerHistoryLength option is set. */
+	private byte[][] answerLog;
+
+	QuestionHistoryStore(int initialCapacity)
+	{
+		initialCapacity = Math.max(initialCapacity, 16);
+		questions = new Question[initialCapacity];
+		averageTimeToAnswer = new long[initialCapacity];
+		timeLastAsked = new long[initialCapacity];
+		totalTimesAsked = new int[initialCapacity];
+		totalWrongAnswers = new int[initialCapacity];
+		passModeCounter = new byte[initialCapacity];
+		flags = new byte[initialCapacity];
+		lastWrongAnswer = new String[initialCapacity];
+		dueTime = new long[initialCapacity];
+		repetitionInterval = new int[initialCapacity];
+		answerLog = new byte[initialCapacity][];
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= questions.length) return;
+		capacity = Math.max(capacity, questions.length*2);
+		questions = Arrays.copyOf(questions, capacity);
+		averageTimeToAnswer = Arrays.copyOf(averageTimeToAnswer, capacity);
+		timeLastAsked = Arrays.copyOf(timeLastAsked, capacity);
+		totalTimesAsked = Arrays.copyOf(totalTimesAsked, capacity);
+		totalWrongAnswers = Arrays.copyOf(totalWrongAnswers, capacity);
+		passModeCounter = Arrays.copyOf(passModeCounter, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		lastWrongAnswer = Arrays.copyOf(lastWrongAnswer, capacity);
+		dueTime = Arrays.copyOf(dueTime, capacity);
+		repetitionInterval = Arrays.copyOf(repetitionInterval, capacity);
+		answerLog = Arrays.copyOf(answerLog, capacity);
+	}
+
+	/**
+	 * @return The number of questions in this store; valid ids are 0 to size()-1.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Adds a question, initializing its state from the specified history record.
+	 * @return The id of the new question.
+	 */
+	int add(QuestionHistory history)
+	{
+		return add(history.question, history);
+	}
+
+	/**
+	 * Adds a question, initializing its state from a history record that 
+	 * may not have its question set yet (e.g. one read from a history file). 
+	 * @return The id of the new question.
+	 */
+	int add(Question question, QuestionHistory history)
+	{
+		ensureCapacity(size+1);
+		int id = size++;
+		questions[id] = question;
+		averageTimeToAnswer[id] = history.averageTimeToAnswer;
+		timeLastAsked[id] = history.timeLastAsked;
+		totalTimesAsked[id] = (int)Math.min(Integer.MAX_VALUE, history.totalTimesAsked);
+		totalWrongAnswers[id] = (int)Math.min(Integer.MAX_VALUE, history.totalWrongAnswers);
+		passModeCounter[id] = (byte)Math.max(0, Math.min(Byte.MAX_VALUE, history.passModeCounter));
+		flags[id] = history.isPrioritized ? FLAG_PRIORITIZED : 0;
+		lastWrongAnswer[id] = (history.totalWrongAnswers > 0) ? history.lastWrongAnswer : null;
+		dueTime[id] = history.dueTime;
+		repetitionInterval[id] = history.repetitionInterval;
+		answerLog[id] = history.answerLog;
+		return id;
+	}
+
+	/**
+	 * Adds a question, initializing its state from a question in another 
+	 * store, e.g. when the question file has changed. 
+	 * @return The id of the new question.
+	 */
+	int add(Question question, QuestionHistoryStore other, int otherId)
+	{
+		ensureCapacity(size+1);
+		int id = size++;
+		questions[id] = question;
+		averageTimeToAnswer[id] = other.averageTimeToAnswer[otherId];
+		timeLastAsked[id] = other.timeLastAsked[otherId];
+		totalTimesAsked[id] = other.totalTimesAsked[otherId];
+		totalWrongAnswers[id] = other.totalWrongAnswers[otherId];
+		passModeCounter[id] = other.passModeCounter[otherId];
+		flags[id] = other.flags[otherId];
+		lastWrongAnswer[id] = other.lastWrongAnswer[otherId];
+		dueTime[id] = other.dueTime[otherId];
+		repetitionInterval[id] = other.repetitionInterval[otherId];
+		answerLog[id] = other.answerLog[otherId];
+		return id;
+	}
+
+	/**
+	 * @return A copy of this store, which is not affected by any later
+	 * changes to this one, e.g. for saving on another thread.
+	 */
+	QuestionHistoryStore copy()
+	{
+		QuestionHistoryStore result = new QuestionHistoryStore(0);
+		result.size = size;
+		result.questions = Arrays.copyOf(questions, size);
+		result.averageTimeToAnswer = Arrays.copyOf(averageTimeToAnswer, size);
+		result.timeLastAsked = Arrays.copyOf(timeLastAsked, size);
+		result.totalTimesAsked = Arrays.copyOf(totalTimesAsked, size);
+		result.totalWrongAnswers = Arrays.copyOf(totalWrongAnswers, size);
+		result.passModeCounter = Arrays.copyOf(passModeCounter, size);
+		result.flags = Arrays.copyOf(flags, size);
+		result.lastWrongAnswer = Arrays.copyOf(lastWrongAnswer, size);
+		result.dueTime = Arrays.copyOf(dueTime, size);
+		result.repetitionInterval = Arrays.copyOf(repetitionInterval, size);
+		// the logs themselves are never changed, so they can be shared
+		result.answerLog = Arrays.copyOf(answerLog, size);
+		return result;
+	}
+
+	/**
+	 * @return A detached QuestionHistory record holding the current state of
+	 * the specified question, for saving.
+	 */
+	QuestionHistory getRecord(int id)
+	{
+		QuestionHistory result = new QuestionHistory(questions[id]);
+		result.averageTimeToAnswer = averageTimeToAnswer[id];
+		result.timeLastAsked = timeLastAsked[id];
+		result.totalTimesAsked = totalTimesAsked[id];
+		result.totalWrongAnswers = totalWrongAnswers[id];
+		result.passModeCounter = passModeCounter[id];
+		result.isPrioritized = isPrioritized(id);
+		result.lastWrongAnswer = (lastWrongAnswer[id] == null) ? "" : lastWrongAnswer[id];
+		result.dueTime = dueTime[id];
+		result.repetitionInterval = repetitionInterval[id];
+		result.answerLog = answerLog[id];
+		return result;
+	}
+
+	Question getQuestion(int id) { return questions[id]; }
+
+	long getAverageTimeToAnswer(int id) { return averageTimeToAnswer[id]; }
+	void setAverageTimeToAnswer(int id, long value) { averageTimeToAnswer[id] = value; }
+
+	/** @return Epoch millis, or 0 if it has never been asked. */
+	long getTimeLastAsked(int id) { return timeLastAsked[id]; }
+	boolean hasBeenAsked(int id) { return timeLastAsked[id] != 0; }
+
+	int getPassModeCounter(int id) { return passModeCounter[id]; }
+	void setPassModeCounter(int id, int value) { passModeCounter[id] = (byte)value; }
+
+	boolean isPrioritized(int id) { return (flags[id] & FLAG_PRIORITIZED) != 0; }
+	void setPrioritized(int id, boolean value)
+	{
+		if (value)
+			flags[id] |= FLAG_PRIORITIZED;
+		else
+			flags[id] &= ~FLAG_PRIORITIZED;
+	}
+
+	/** @return Epoch millis, or 0 if it has not been scheduled. */
+	long getDueTime(int id) { return dueTime[id]; }
+	void setDueTime(int id, long value) { dueTime[id] = value; }
+
+	/** @return The interval until the next repetition in seconds. */
+	int getRepetitionInterval(int id) { return repetitionInterval[id]; }
+	void setRepetitionInterval(int id, int value) { repetitionInterval[id] = value; }
+
+	/**
+	 * Records that the question has just been asked.
+	 */
+	void recordAsked(int id, long timeMillis)
+	{
+		timeLastAsked[id] = timeMillis;
+		if (totalTimesAsked[id] < Integer.MAX_VALUE) totalTimesAsked[id]++;
+	}
+
+	/** @return The log of recent answers, encoded by AnswerEventLog, or null if none have been recorded. */
+	byte[] getAnswerLog(int id) { return answerLog[id]; }
+
+	/**
+	 * Adds an answer to the question's answer log, discarding the oldest 
+	 * answers if there are more than maxEvents. 
+	 */
+	void recordAnswer(int id, long timeMillis, long rawTime, long adjustedTime, boolean isCorrect, int maxEvents)
+	{
+		answerLog[id] = AnswerEventLog.add(answerLog[id], timeMillis, rawTime, adjustedTime, isCorrect, maxEvents);
+	}
+
+	void recordWrongAnswer(int id, String answerGiven)
+	{
+		lastWrongAnswer[id] = answerGiven;
+		if (totalWrongAnswers[id] < Integer.MAX_VALUE) totalWrongAnswers[id]++;
+	}
+
+	/**
+	 * @return A summary of the specified question's state, for logging.
+	 */
+	String toString(int id)
+	{
+		return "QuestionHistory("+
+		"\""+questions[id].getQuestion()+"\", "+
+		"passModeCounter="+passModeCounter[id]+", "+
+		"isPrioritized="+isPrioritized(id)+", "+
+		"averageTimeToAnswer="+averageTimeToAnswer[id]+", "+
+		"totalTimesAsked="+totalTimesAsked[id]+", "+
+		"timeLastAsked="+timeLastAsked[id]+
+		((dueTime[id] != 0) ? ", dueTime="+dueTime[id]+", repetitionInterval="+repetitionInterval[id] : "")+
+		")";
+	}
+}
@@ -1,15 +1,11 @@
 package benspiller.flashteacher.model;
 
 import java.io.IOException;
+import java.time.Clock;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
+import java.util.SplittableRandom;
 
 import javax.swing.JPanel;
 
@@ -26,13 +22,25 @@ import benspiller.flashteacher.utils.Utils;
  * 
  * A new instance is created every time the user clicks the "start" button. 
  * 
+ * Thread-safety: a QuestionManager is not thread-safe, and must be confined to 
+ * one thread at a time (or have all access to it synchronized externally). 
+ * Different instances share no mutable state - each has its own random number 
+ * generator, clock, history store and question selector, and the Question 
+ * objects they may share are immutable - so any number of sessions can run 
+ * concurrently on different threads. 
+ * 
  * @author Ben
  */
 public class QuestionManager 
 {
 	final Logger logger = Logger.getLogger(getClass().getName());
 	
-	final static Random random = new Random();
+	/** The source of randomness for question selection; a separate instance per QuestionManager so that it can be seeded, 
+	 * and so that sessions running on different threads don't contend for (or perturb) each other's random numbers. */
+	final SplittableRandom random;
+	
+	/** The source of the current time; can be replaced to simulate the passing of time. */
+	final Clock clock;
 	
 	/*
 	 * 
@@ -62,32 +70,6 @@ public class QuestionManager
 	 */
 	static final int PASS_COUNTER_VALUE = 3;
 
-	/** Probability of selecting a question from the prioritized list (unless there are none) */
-	static final float QUESTION_SELECTION_PROBABILITY_PRIORITIZED = 0.5f;
-	
-	/** If we've decided not to select a question from the prioritized list, gives the probability we will 
-	 * select from the "bad" list (rather than the "old" list). */
-	static final float QUESTION_SELECTION_PROBABILITY_BAD_TIME = 0.75f;
-	
-	/**
-	 * Equal to x, when a question is selected randomly from the least-recently-
-	 * asked x% of the question corpus. 
-	 */
-	static final int QUESTION_SELECTION_LEAST_RECENTLY_ASKED_BUCKET_PERCENTAGE = 10; // 10%
-	
-	/**
-	 * Equal to x, when a question is selected randomly from the worst x 
-	 * question-answer times in the corpus. 
-	 */
-	static final int QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE = 20;
-
-	/**
-	 * The maximum number of questions to keep in the 'very bad' bucket at 
-	 * any one time - to allow the user to properly get one lot of questions 
-	 * right before tackling the rest! 
-	 */
-	static final int MAXIMUM_PRIORITIZED_QUESTIONS_BUCKET_SIZE = 10;
-	
 	/*
 	 * 
 	 * Data structures
@@ -95,28 +77,24 @@ public class QuestionManager
 	 */
 	
 	/**
-	 * Contains a QuestionHistory object for all questions we are using. Gets  
-	 * re-sorted by timeLastAsked. 
+	 * Holds the history of all questions we are using, in the order they were 
+	 * loaded. Each question is identified by its int id in this store, which 
+	 * is what the indexes below contain. Replaced (along with the indexes) if 
+	 * the question file is changed during the session. 
 	 */
-	final List<QuestionHistory> allQuestions = new ArrayList<QuestionHistory>();
-
+	QuestionHistoryStore allQuestions;
 
 	/**
-	 * A list of questions that have been asked at least once and were in recently-passed 
-	 * mode (i.e. that have a time associated with them). Gets re-sorted by timeToAnswer.
+	 * The strategy used to decide which question to ask next, which maintains 
+	 * its own indexes over allQuestions. 
 	 */
-	final List<QuestionHistory> nonPassedQuestions = new ArrayList<QuestionHistory>();
+	QuestionSelector questionSelector;
 
 	/**
-	 * A set of questions that were passed/not-yet-asked and are also marked as prioritized 
-	 * questions (based on the principal that we should concentrate on learning 
-	 * a small number of questions at a time). 
+	 * Running totals over allQuestions, from which the QuestionSetScores are 
+	 * calculated. Must be updated whenever the history of a question changes. 
 	 */
-	final Set<QuestionHistory> prioritizedQuestions = new HashSet<QuestionHistory>();
-	
-	// (note nonPassedQuestions + prioritizedQuestions + <passed but non-prioritized Qs> = allQuestions) 
-	
-	float getUnknownQuestionsFraction() { return 1 - (nonPassedQuestions.size() / allQuestions.size()); }
+	QuestionSetAggregates aggregates;
 
 	/**
 	 * Contains a list of QuestionHistory objects loaded from the history file that are 
@@ -124,10 +102,19 @@ public class QuestionManager
 	 * be included when we re-save the file to avoid losing any data - though they 
 	 * will remain dormant unless/until re-added. 
 	 */
-	final List<QuestionHistory> removedQuestions = new ArrayList<QuestionHistory>();
+	List<QuestionHistory> removedQuestions;
 
 	
-	QuestionHistory currentQuestion = null;
+	/** The id of the current question, or -1 before the first one is selected. */
+	int currentQuestion = -1;
+	
+	/** 
+	 * The number of times moveToNextQuestion() has been called, which isn't 
+	 * changed when the current question is given a new id by 
+	 * changeQuestions(), so it shows when the current question has really 
+	 * changed. 
+	 */
+	int questionsAsked = 0;
 	
 	/**
 	 * Indicates whether the currentQuestion has just been updated, or whether 
@@ -155,6 +142,19 @@ public class QuestionManager
 	
 	int questionsAnswered = 0;
 	long startTimeMillis;
+	/** 
+	 * The time spent on this question set during the session, if it's one of 
+	 * several being studied in the same session (set by MultiDeckSession); or 
+	 * -1 if all the time since the session started was spent on it. 
+	 */
+	long sessionDurationMillis = -1;
+	
+	/**
+	 * If set, each change to the history of a question is appended to this 
+	 * journal as soon as it's made, so it isn't lost if the application 
+	 * exits before the history is saved. 
+	 */
+	HistoryJournal journal;
 
 	/**
 	 * @param questionListElement The XML element containing the list of 
@@ -163,70 +163,51 @@ public class QuestionManager
 	 * question history.
 	 * @throws IOException If the input file is invalid
 	 */
-	@SuppressWarnings("unchecked")
 	public QuestionManager(List<Question> questions, Element questionHistoryElement, Options options, JPanel questionFieldPanel) throws IOException
 	{
-		startTimeMillis = System.currentTimeMillis();
+		this(questions, questionHistoryElement, options, new SplittableRandom(), Clock.systemUTC());
+	}
+	
+	/**
+	 * Creates a QuestionManager with the specified sources of randomness 
+	 * and time, e.g. for deterministic simulations. 
+	 * @param random Used for question selection. Use SplittableRandom.split() 
+	 * to create independent generators for many sessions from a single seed. 
+	 * @param clock Used for all times recorded in the history. 
+	 * @throws IOException If the input file is invalid
+	 */
+	public QuestionManager(List<Question> questions, Element questionHistoryElement, Options options, SplittableRandom random, Clock clock) throws IOException
+	{
+		this(questions, LoadedHistory.fromElement(questionHistoryElement), options, random, clock);
+	}
+	
+	/**
+	 * Creates a QuestionManager from a question history that was streamed 
+	 * from a file rather than loaded into a JDOM tree. 
+	 * @throws IOException If the input file is invalid
+	 */
+	QuestionManager(List<Question> questions, LoadedHistory history, Options options, SplittableRandom random, Clock clock) throws IOException
+	{
+		this(DeckState.match(questions, history, options), options, random, clock);
+	}
+	
+	/**
+	 * Creates a QuestionManager from questions that have already been matched 
+	 * up with their history, which it takes ownership of and changes. 
+	 * @throws IOException If the input file is invalid
+	 */
+	QuestionManager(DeckState state, Options options, SplittableRandom random, Clock clock) throws IOException
+	{
+		this.random = random;
+		this.clock = clock;
+		startTimeMillis = clock.millis();
 	
 		this.options = options;
 
-		Map<String, Question> loadedQuestions = new HashMap<>(); // keyed by question string 
-		for (Question q: questions)
-		{
-			Question duplicateQuestion = loadedQuestions.put(q.getQuestion(), q);
-			if (duplicateQuestion != null)
-				throw new IOException("Invalid question file - question appears more than once: \""+duplicateQuestion+"\"");
-		}
-		
-		// Then, load history file and start populating allQuestions
-		if (questionHistoryElement != null)
-		{
-			Element historyListElement = questionHistoryElement.getChild("questionHistoryList");
-			if (historyListElement != null)
-				for (Element historyElement: (List<Element>)historyListElement.getChildren())
-				{
-					String questionText = historyElement.getAttributeValue("questionText");
-					String answerText = historyElement.getAttributeValue("answerText");
-					
-					Question existingQuestion = loadedQuestions.get(questionText);
-					
-					// ignore history if the question or answer has changed - the 
-					// question list is the only authoritative source of data
-					
-					if (existingQuestion == null)
-					{
-						// but don't delete them from the on-disk file, might want to come back to them later
-						removedQuestions.add(new QuestionHistory( new Question(questionText, answerText, options.isCaseSensitive), historyElement));
-						logger.log(java.util.logging.Level.INFO, "Ignoring question which is no longer in the question file: \""+questionText+"\"");
-						continue;
-					}
-					if (!existingQuestion.isAnswerCorrect(answerText))
-					{
-						logger.log(java.util.logging.Level.INFO, "Answer has changed, so ignoring history for question: \""+existingQuestion+"\"");
-						continue;
-					}
-	
-					// remove existing QH object and replace with one that includes 
-					// history from this file (this relies on QH equality being based only on the questionText; it's also a bit inefficient)
-					QuestionHistory newQuestion = new QuestionHistory( existingQuestion, historyElement);
-					loadedQuestions.remove(questionText);
-					allQuestions.add(newQuestion);
-				}
-			
-			previousQuestionSetScores = new QuestionSetScores(questionHistoryElement.getChild(QuestionSetScores.ELEMENT_NAME)); // we handle null element here correctly
-			knowledgeIndexHistory = new KnowledgeIndexHistory(questionHistoryElement.getChild(KnowledgeIndexHistory.ELEMENT_NAME));
-		}
-		else
-		{
-			previousQuestionSetScores = new QuestionSetScores();
-			knowledgeIndexHistory = new KnowledgeIndexHistory();
-		}
-		
-		// finally add new questions that aren't in the history yet
-		for (Question q: loadedQuestions.values()) {
-			logger.log(java.util.logging.Level.INFO, "Adding new question: "+q);
-			allQuestions.add(new QuestionHistory(q));
-		}
+		allQuestions = state.store;
+		removedQuestions = state.removedQuestions;
+		previousQuestionSetScores = state.previousQuestionSetScores;
+		knowledgeIndexHistory = state.knowledgeIndexHistory;
 		
 		if (allQuestions.size() < 2)
 			throw new IOException("Invalid question file - the file contains less than two questions!");
@@ -234,40 +215,65 @@ public class QuestionManager
 		
 		averageTimePerCharacter = previousQuestionSetScores.averageTimePerCharacter;
 		
-		for (QuestionHistory qh: allQuestions)
-			if (qh.passModeCounter == 0)
-				nonPassedQuestions.add(qh);
-			else if (qh.isPrioritized)
-			{
-				if (prioritizedQuestions.size() < MAXIMUM_PRIORITIZED_QUESTIONS_BUCKET_SIZE)
-					prioritizedQuestions.add(qh);
-				else
-					qh.isPrioritized = false;
-			}
+		createIndexes();
 		
 		moveToNextQuestion();
 	}
 	
+	/**
+	 * Creates the running totals and question selector for allQuestions. 
+	 */
+	private void createIndexes()
+	{
+		aggregates = new QuestionSetAggregates(allQuestions);
+		if (Options.QUESTION_SELECTOR_SPACED_REPETITION.equals(options.getQuestionSelector()))
+			questionSelector = new SpacedRepetitionQuestionSelector(allQuestions, clock);
+		else
+			questionSelector = new DefaultQuestionSelector(allQuestions, random, options.getPrioritizedQuestionsBucketSize());
+		logger.log(Level.FINE, "Using approximately "+((long)allQuestions.size()*QuestionHistoryStore.BYTES_PER_QUESTION/1024)+"KB for the history of "+allQuestions.size()+" questions");
+	}
+	
+	/**
+	 * Changes the questions being asked to those of a question file that has 
+	 * been changed during the session, keeping the history of this session 
+	 * for the questions that haven't changed. The current question carries 
+	 * on being asked, unless it has been removed or its answer has changed. 
+	 * @param changes Must have been worked out from a DeckState with the same 
+	 * questions (and ids) as this QuestionManager. 
+	 */
+	void changeQuestions(DeckState.Changes changes)
+	{
+		DeckState state = new DeckState(allQuestions, removedQuestions, previousQuestionSetScores, knowledgeIndexHistory).apply(changes);
+		int newCurrentQuestion = changes.getNewId(currentQuestion);
+		allQuestions = state.store;
+		removedQuestions = state.removedQuestions;
+		createIndexes();
+		questionSetScores = null;
+		// the ids have changed, and the prefetched question may no longer exist
+		prefetchedQuestion = -1;
+		
+		if (newCurrentQuestion == -1)
+		{
+			currentQuestion = -1;
+			moveToNextQuestion();
+		}
+		else
+			currentQuestion = newCurrentQuestion;
+	}
+	
 	Element save() throws IOException
 	{
-		calculateScores();
-		knowledgeIndexHistory.add(new Date(), questionSetScores.knowledgeIndexScore, 
-				((System.currentTimeMillis()-startTimeMillis))
-				);
+		HistorySnapshot history = prepareSave();
 
 		// add Q history; first sort by time to answer so we can look inside the file manually and see which are worse 
 		Element questionHistoryListElement = new Element("questionHistoryList");
-		questionHistoryListElement.addContent(new Comment("Question history is sorted with longest time-to-answer (including penalties from wrong answers) at the top: "));
-		Collections.sort(allQuestions, QuestionHistory.AVERAGE_TIME_TO_ANSWER_COMPARATOR);
-		Collections.reverse(allQuestions);
-		for (QuestionHistory q: allQuestions)
-			questionHistoryListElement.addContent(q.saveToXMLElement());
-		
-		if (!removedQuestions.isEmpty())
-			questionHistoryListElement.addContent(new Comment("The following item are no longer in the current question file, but the history is retained in case they are re-added later: "));
-		for (QuestionHistory q: removedQuestions)
-			questionHistoryListElement.addContent(q.saveToXMLElement());
-
+		questionHistoryListElement.addContent(new Comment(HistoryFileWriter.SORTED_HISTORY_COMMENT));
+		for (int i = 0; i < history.records.size(); i++)
+		{
+			if (i == history.removedRecordsStart)
+				questionHistoryListElement.addContent(new Comment(HistoryFileWriter.REMOVED_HISTORY_COMMENT));
+			questionHistoryListElement.addContent(history.records.get(i).saveToXMLElement());
+		}
 		
 		// add to root element
 		Element historyRootElement = new Element("questionHistory");
@@ -278,12 +284,46 @@ public class QuestionManager
 		return historyRootElement;
 	}
 	
+	/**
+	 * Calculates the scores for this session and adds them to the knowledge 
+	 * index history (rolling up its older data points), and returns the 
+	 * history to be saved. Since the score 
+	 * for the session is recorded, this should only be called once. 
+	 * 
+	 * The result is a snapshot that isn't affected by any later changes to 
+	 * this QuestionManager, so it can be saved on another thread while the 
+	 * session carries on. Taking it only copies the history store's arrays; 
+	 * the records are sorted and created when they're first read. 
+	 */
+	HistorySnapshot prepareSave()
+	{
+		return prepareSaveState().toSnapshot();
+	}
+	
+	/**
+	 * As for prepareSave(), but returns the history as it will be once it's 
+	 * saved, i.e. with this session's scores as the previous scores, so that 
+	 * the next session can be started from it without loading it again. 
+	 */
+	DeckState prepareSaveState()
+	{
+		calculateScores();
+		knowledgeIndexHistory.add(new Date(clock.millis()), questionSetScores.knowledgeIndexScore, 
+				(sessionDurationMillis >= 0) ? sessionDurationMillis : (clock.millis()-startTimeMillis)
+				);
+		int removed = knowledgeIndexHistory.compact(clock.millis());
+		if (removed > 0)
+			logger.log(Level.FINE, "Rolled up "+removed+" old knowledge index data points");
+		
+		return new DeckState(allQuestions.copy(), new ArrayList<>(removedQuestions), getQuestionSetScores(), new KnowledgeIndexHistory(knowledgeIndexHistory));
+	}
+	
 	public Question getCurrentQuestion() {
-		return currentQuestion.question;
+		return allQuestions.getQuestion(currentQuestion);
 	}
 	
 	public String getCurrentAnswer() {
-		return currentQuestion.question.getAnswer();
+		return allQuestions.getQuestion(currentQuestion).getAnswer();
 	}	
 	
 	/**
@@ -330,6 +370,16 @@ public class QuestionManager
 		return questionSetScores;
 	}
 	
+	/**
+	 * Unlike getQuestionSetScores(), this can be called at any time (e.g. for 
+	 * a live display during the session), since the scores are calculated in 
+	 * O(1) from running totals. 
+	 * @return A new QuestionSetScores for the current state of the questions. 
+	 */
+	public QuestionSetScores getCurrentQuestionSetScores() {
+		return Scorer.getQuestionSetScores(this);
+	}
+	
 	/**
 	 * @return The scores for the last time the questions were attempted. 
 	 */
@@ -341,21 +391,6 @@ public class QuestionManager
 		return knowledgeIndexHistory;
 	}
 	
-	private enum QuestionTypeSelectionMethod
-	{
-		UNKNOWN("<unknown question selection method>"),
-		PRIORITIZED_LIST_PASSED("Question is from the prioritised 'passed' question list"),
-		PRIORITIZED_LIST_NEVER_ASKED("Question is from the prioritised 'never asked' question list"),
-		BAD_TIMES_LIST("Question is from the bad times question list"),
-		LEAST_RECENTLY_ASKED_LIST("Question had not been asked for a long time"),
-		RANDOM("Question selected randomly");
-		private final String displayText;
-		QuestionTypeSelectionMethod(String displayText) { this.displayText = displayText; }
-		@Override public String toString() { return displayText; }
-	}
-
-	private QuestionTypeSelectionMethod questionTypeSelectionMethod = QuestionTypeSelectionMethod.UNKNOWN;
-	
 	/**
 	 * This is mostly just for debugging purposes, not sure if it should be 
 	 * exposed to the user normally
@@ -364,99 +399,69 @@ public class QuestionManager
 	 */
 	public String getQuestionSelectionMethod()
 	{
-		return questionTypeSelectionMethod.toString();
+		return questionSelectionMethod;
 	}
 	
-	protected void moveToNextQuestion()
+	private String questionSelectionMethod;
+	
+	/**
+	 * The id of the question that will be asked after the current one, if it 
+	 * has already been selected by prefetchNextQuestion(), or -1. 
+	 * 
+	 * This is kept even if the current question is answered wrongly or 
+	 * passed, so the next question is picked from the selector's state 
+	 * before that answer. The answer changes where the current question is 
+	 * in the selector's indexes (e.g. adding it to the prioritized bucket), 
+	 * which can change the buckets that the next question is picked from, 
+	 * though not the question itself, which is never picked twice in a row. 
+	 * Picking again would waste the work of a plugin that has already 
+	 * prepared the prefetched question, for little benefit. 
+	 */
+	int prefetchedQuestion = -1;
+	private String prefetchedQuestionSelectionMethod;
+	
+	/**
+	 * Selects the question that will be asked after the current one, so that 
+	 * it can be prepared (e.g. by a plugin) while the user is answering the 
+	 * current question. The next call to moveToNextQuestion() will use it. 
+	 * Repeated calls return the same question. 
+	 * @return The question that will be asked next. 
+	 */
+	public Question prefetchNextQuestion()
 	{
-		// update and sort buckets
-		Collections.sort(allQuestions, QuestionHistory.TIME_LAST_ASKED_COMPARATOR);
-		Collections.sort(nonPassedQuestions, QuestionHistory.AVERAGE_TIME_TO_ANSWER_COMPARATOR);
-		checkPrioritizations();
-		
-		if (logger.isLoggable(Level.FINEST))
+		if (prefetchedQuestion == -1)
 		{
-			logger.log(Level.FINEST, "allQuestions = \n"+allQuestions+"\n");
-			logger.log(Level.FINEST, "nonPassedQuestions = \n"+nonPassedQuestions+"\n");
-			logger.log(Level.FINEST, "prioritizedQuestions = \n"+prioritizedQuestions+"\n");
-			Set<QuestionHistory> otherQs = new HashSet<QuestionHistory>();
-			otherQs.addAll(allQuestions);
-			otherQs.removeAll(nonPassedQuestions);
-			otherQs.removeAll(prioritizedQuestions);
-			logger.log(Level.FINEST, "other questions = \n"+otherQs+"\n");
+			prefetchedQuestion = questionSelector.selectNextQuestion(currentQuestion);
+			prefetchedQuestionSelectionMethod = questionSelector.getSelectionMethod();
 		}
-		
-		QuestionHistory nextQuestion = null;
+		return allQuestions.getQuestion(prefetchedQuestion);
+	}
 	
-		// list of prioritized, list of non-prioritized ordered by timeToAnswer, and by timeLastAsked
-		
-		// as a special case, when there are lots (>15%) of unknown questions, just focus on them before worrying about 
-		// improving/refreshing performance on the questions you do know
-		if (random.nextFloat() < QUESTION_SELECTION_PROBABILITY_PRIORITIZED || getUnknownQuestionsFraction() > 0.15)
-		{
-			logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: selecting from Qs in prioritized list; unknownQuestionsFraction="+getUnknownQuestionsFraction());
-			
-			// select randomly from the prioritized list
-			if (prioritizedQuestions.size() > 0)
-			{
-				nextQuestion = Utils.getElementAt(random.nextInt(prioritizedQuestions.size()), prioritizedQuestions);
-				questionTypeSelectionMethod = (nextQuestion.timeLastAsked==null)? QuestionTypeSelectionMethod.PRIORITIZED_LIST_NEVER_ASKED : QuestionTypeSelectionMethod.PRIORITIZED_LIST_PASSED;
-			}
-			else
-				logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: prioritized list is empty, trying another strategy");
-			
-		}
-		if (nextQuestion == currentQuestion) nextQuestion = null; // is quite likely when selecting from prioritized list
-
-		if (nextQuestion == null && random.nextFloat() < QUESTION_SELECTION_PROBABILITY_BAD_TIME)
-		{
-			// select randomly from the worst 20 times - excluding prioritized Qs (as long as there are at least that many - otherwise it doesn't make sense to do this)
-			logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: selecting from list of Qs with bad times");
-			
-			questionTypeSelectionMethod = QuestionTypeSelectionMethod.BAD_TIMES_LIST;
-			
-			if (nonPassedQuestions.size() >= QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE)
-				nextQuestion = nonPassedQuestions.get(nonPassedQuestions.size()-QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE+random.nextInt(QUESTION_SELECTION_BAD_TIMES_BUCKET_SIZE));
-			else
-				logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: nonPassedQuestions list is not big enough, trying another strategy");
-				
-		}
-		
-		if (nextQuestion == null)
+	protected void moveToNextQuestion()
+	{
+		int nextQuestion;
+		if (prefetchedQuestion != -1)
 		{
-			logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: selecting a random Q which has not been asked for ages");
-			questionTypeSelectionMethod = QuestionTypeSelectionMethod.LEAST_RECENTLY_ASKED_LIST;
-
-			int maxIndex = (int)Math.floor(QUESTION_SELECTION_LEAST_RECENTLY_ASKED_BUCKET_PERCENTAGE * allQuestions.size() / 100d);
-
-			// only use this method if maxIndex>4, otherwise there's no element of randomness and we'd just keep getting 
-			// questions in the same order as last time, which we want to avoid
-			if (maxIndex > 4 && maxIndex <= allQuestions.size())
-			{	
-				int rnd = random.nextInt(maxIndex);
-				nextQuestion = allQuestions.get(rnd);
-			}
-			else
-				logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: not enough questions (maxIndex="+maxIndex+"), trying another strategy");
+			nextQuestion = prefetchedQuestion;
+			questionSelectionMethod = prefetchedQuestionSelectionMethod;
+			prefetchedQuestion = -1;
 		}
-
-		while (nextQuestion == null || nextQuestion == currentQuestion)
+		else
 		{
-			logger.log(java.util.logging.Level.FINE, "QuestionManager.moveToNextQuestion: fallback after "+questionTypeSelectionMethod+" failed - selecting a random question from the entire list");
-			// select randomly
-			questionTypeSelectionMethod = QuestionTypeSelectionMethod.RANDOM;
-
-			nextQuestion = allQuestions.get(random.nextInt(allQuestions.size()));
-			
+			nextQuestion = questionSelector.selectNextQuestion(currentQuestion);
+			questionSelectionMethod = questionSelector.getSelectionMethod();
 		}
 		
-		logger.log(Level.FINEST, "moveToNextQuestion: nextQuestion = "+nextQuestion+", with answer \""+nextQuestion.question.getAnswer()+"\"");
+		if (logger.isLoggable(Level.FINEST))
+			logger.log(Level.FINEST, "moveToNextQuestion: nextQuestion = "+allQuestions.toString(nextQuestion)+", with answer \""+allQuestions.getQuestion(nextQuestion).getAnswer()+"\"");
 		
 		currentQuestion = nextQuestion;
+		questionsAsked++;
 		lastQuestionPreviousButOneScore = lastQuestionPreviousScore;
-		lastQuestionPreviousScore = Scorer.getQuestionScore(currentQuestion);
-		nextQuestion.timeLastAsked = new Date();
-		nextQuestion.totalTimesAsked++;
+		lastQuestionPreviousScore = Scorer.getQuestionScore(allQuestions, currentQuestion);
+		allQuestions.recordAsked(nextQuestion, clock.millis());
+		aggregates.questionAsked(nextQuestion);
+		questionSelector.questionAsked(nextQuestion);
 		firstAttemptAtQuestion = true;
 	}
 	
@@ -475,15 +480,19 @@ public class QuestionManager
 	 */
 	public AnswerOutcome answerQuestion(boolean isCorrect, String answerGiven, long timeToAnswer, List<Long> characterTimes) throws IllegalArgumentException
 	{
-		logger.log(java.util.logging.Level.FINE, "answerQuestion - "+((isCorrect) ? "correct" : "wrong!"));
+		if (logger.isLoggable(Level.FINE))
+			logger.log(java.util.logging.Level.FINE, "answerQuestion - "+((isCorrect) ? "correct" : "wrong!"));
+		long rawTimeToAnswer = Math.max(0, timeToAnswer);
 		
 		if (isCorrect)
 		{
 			// Do time adjustments
 			if (getAverageTimePerCharacter() > 0) {
-				logger.log(java.util.logging.Level.FINE, "Time to answer          = "+timeToAnswer+"ms");
-				timeToAnswer = timeToAnswer - currentQuestion.question.getAnswer().replaceAll(" ", "").length() * getAverageTimePerCharacter();
-				logger.log(java.util.logging.Level.FINE, "Adjusted time to answer = "+timeToAnswer+"ms");
+				if (logger.isLoggable(Level.FINE))
+					logger.log(java.util.logging.Level.FINE, "Time to answer          = "+timeToAnswer+"ms");
+				timeToAnswer = timeToAnswer - allQuestions.getQuestion(currentQuestion).getAnswer().replaceAll(" ", "").length() * getAverageTimePerCharacter();
+				if (logger.isLoggable(Level.FINE))
+					logger.log(java.util.logging.Level.FINE, "Adjusted time to answer = "+timeToAnswer+"ms");
 			}
 			
 			if (timeToAnswer < 0) {
@@ -509,35 +518,33 @@ public class QuestionManager
 		// this is a second attempt, etc.)
 		if (firstAttemptAtQuestion)
 		{
-			QuestionHistory history = currentQuestion;
-			logger.log(java.util.logging.Level.FINE, "answerQuestion: history was:    "+history);
-			history.averageTimeToAnswer = Utils.exponentialWeightedAverage(history.averageTimeToAnswer, timeToAnswer, 0.6f);
+			int id = currentQuestion;
+			if (logger.isLoggable(Level.FINE))
+				logger.log(java.util.logging.Level.FINE, "answerQuestion: history was:    "+allQuestions.toString(id));
+			aggregates.remove(id);
+			long averageTimeToAnswer = Utils.exponentialWeightedAverage(allQuestions.getAverageTimeToAnswer(id), timeToAnswer, 0.6f);
+			allQuestions.setAverageTimeToAnswer(id, averageTimeToAnswer);
+			int passModeCounter = allQuestions.getPassModeCounter(id);
 			
 			if (!isCorrect)
-			{
-				history.lastWrongAnswer = answerGiven;
-				history.totalWrongAnswers++;
-			}
+				allQuestions.recordWrongAnswer(id, answerGiven);
 			
-			if (history.passModeCounter > 0 && isCorrect) // decrement pass counter for priority Qs - but only if they got the right answer!
+			if (passModeCounter > 0 && isCorrect) // decrement pass counter for priority Qs - but only if they got the right answer!
 			{
-				history.passModeCounter--;
-				if (history.passModeCounter == 0) 
-				{ 
-					if (history.isPrioritized)
-					{
-						history.isPrioritized = false;
-						prioritizedQuestions.remove(currentQuestion);
-					}
-					nonPassedQuestions.add(history);
-				}
+				allQuestions.setPassModeCounter(id, passModeCounter-1);
 			}
-
-			logger.log(java.util.logging.Level.FINE, "answerQuestion: history is now: "+history);
+			if (options.getAnswerHistoryLength() > 0)
+				allQuestions.recordAnswer(id, clock.millis(), rawTimeToAnswer, timeToAnswer, isCorrect, options.getAnswerHistoryLength());
+			aggregates.add(id);
+			questionSelector.questionAnswered(id, isCorrect);
+			journalChange(id);
+
+			if (logger.isLoggable(Level.FINE))
+				logger.log(java.util.logging.Level.FINE, "answerQuestion: history is now: "+allQuestions.toString(id));
 		}
 		firstAttemptAtQuestion = false;
 
-		lastQuestionScore = Scorer.getQuestionScore(currentQuestion);
+		lastQuestionScore = Scorer.getQuestionScore(allQuestions, currentQuestion);
 		questionSetScores = null;
 
 		// select next question if applicable
@@ -556,13 +563,14 @@ public class QuestionManager
 	 */
 	public String passQuestion()
 	{
-		if (currentQuestion.passModeCounter == 0)
-			nonPassedQuestions.remove(currentQuestion);
+		aggregates.remove(currentQuestion);
+		allQuestions.setPassModeCounter(currentQuestion, PASS_COUNTER_VALUE);
+		allQuestions.setAverageTimeToAnswer(currentQuestion, MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER);
+		aggregates.add(currentQuestion);
+		questionSelector.questionPassed(currentQuestion);
+		journalChange(currentQuestion);
 		
-		currentQuestion.passModeCounter = PASS_COUNTER_VALUE;
-		currentQuestion.averageTimeToAnswer = MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER;
-		
-		lastQuestionScore = Scorer.getQuestionScore(currentQuestion);
+		lastQuestionScore = Scorer.getQuestionScore(allQuestions, currentQuestion);
 		questionSetScores = null;
 		
 		// if the user now gets the right answer, don't reward them for it!
@@ -571,62 +579,45 @@ public class QuestionManager
 		// Don't move on to next question
 		
 		// return the correct answer
-		return currentQuestion.question.getAnswer();
+		return allQuestions.getQuestion(currentQuestion).getAnswer();
 	}
 	
 	
 	/**
-	 * Checks that the number of questions marked as prioritized is the minimum 
-	 * of the number of passed/new questions and the maximum allowed prioritized Qs - 
-	 * and prioritizes more questions if it is not. 
-	 * 
+	 * Appends the current history of the specified question to the journal, 
+	 * if there is one. If the journal can't be written, it's abandoned for the 
+	 * rest of the session, since the history will still be saved at the end. 
 	 */
-	protected void checkPrioritizations()
+	void journalChange(int id)
 	{
-		if (prioritizedQuestions.size() < MAXIMUM_PRIORITIZED_QUESTIONS_BUCKET_SIZE)
+		if (journal == null) return;
+		try {
+			journal.append(allQuestions.getRecord(id));
+		} catch (IOException e)
 		{
-			logger.log(java.util.logging.Level.FINE, "checkPrioritization: trying to find question(s) to prioritize");
-			
-			try {
-				
-				// Before including new/never-asked questions, first try to fill the prioritized bucket 
-				// with already-asked questions that were passed, since 
-				// otherwise the newly added questions (perhaps hundreds at a time) would starve  
-				// our ability to focus on fixing question the user "passes" - getting 
-				// those fixed is more improtant than introducing new material
-				
-				for (QuestionHistory qh: allQuestions)
-				{
-					if (qh.passModeCounter > 0 && !qh.isPrioritized && qh.timeLastAsked != null)
-					{
-						logger.log(Level.FINEST, "checkPrioritization: prioritizing passed question "+qh.question);
-						qh.isPrioritized = true;
-						prioritizedQuestions.add(qh);
-						
-						if (prioritizedQuestions.size() >= MAXIMUM_PRIORITIZED_QUESTIONS_BUCKET_SIZE) return;
-					}
-				}
-				
-				for (QuestionHistory qh: allQuestions)
-				{
-					if (qh.passModeCounter > 0 && !qh.isPrioritized)
-					{
-						logger.log(Level.FINEST, "checkPrioritization: prioritizing new/never-asked "+qh.question);
-						qh.isPrioritized = true;
-						prioritizedQuestions.add(qh);
-						
-						if (prioritizedQuestions.size() >= MAXIMUM_PRIORITIZED_QUESTIONS_BUCKET_SIZE) return;
-					}
-				}
-			} 
-			finally 
-			{
-				logger.log(java.util.logging.Level.FINE, "checkPrioritization: total prioritized questions = "+prioritizedQuestions.size());
-			}
-			
+			logger.log(java.util.logging.Level.WARNING, "Failed to write question history journal, so answers will only be saved at the end of the session: "+e);
+			journal = null;
 		}
 	}
 	
+	/**
+	 * Calculates statistics from the answer logs of all the questions in the 
+	 * question file. 
+	 * @param sinceMillis Only answers given at or after this time (in epoch 
+	 * millis) are included. 
+	 * @return The statistics, or null if answers aren't being logged, i.e. 
+	 * the answerHistoryLength option isn't set. 
+	 */
+	public AnswerStatistics getAnswerStatistics(long sinceMillis)
+	{
+		if (options.getAnswerHistoryLength() == 0)
+			return null;
+		AnswerStatistics result = new AnswerStatistics();
+		for (int id = 0; id < allQuestions.size(); id++)
+			AnswerEventLog.addStatistics(allQuestions.getAnswerLog(id), sinceMillis, Long.MAX_VALUE, result);
+		return result;
+	}
+	
 	/**
 	 * @return The time to assign to any wrong answer. In milliseconds. 
 	 */
@@ -693,6 +684,7 @@ public class QuestionManager
 	public String getSessionStatus()
 	{
 		if (questionsAnswered == 0) return "";
-		return " - answered "+questionsAnswered+" in "+((System.currentTimeMillis()-startTimeMillis)/1000/60)+" mins";
+		return " - answered "+questionsAnswered+" in "+((clock.millis()-startTimeMillis)/1000/60)+" mins"
+			+", score "+Math.round(getCurrentQuestionSetScores().questionSetPercentScore)+"%";
 	}
 }
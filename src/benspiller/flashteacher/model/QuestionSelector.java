@@ -0,0 +1,56 @@
+package benspiller.flashteacher.model;
+
+/**
+ * A strategy for deciding which question to ask next. Each QuestionManager
+ * has its own instance, which maintains whatever indexes it needs over the
+ * QuestionManager's QuestionHistoryStore, using the notifications below to
+ * keep them up to date as questions are asked and answered.
+ *
+ * Questions are identified by their id in the QuestionHistoryStore. The
+ * QuestionManager updates the store before calling any of the notification
+ * methods.
+ *
+ * The strategy is chosen for each question file using the questionSelector
+ * option.
+ *
+ * Implementations are confined to the thread using their QuestionManager,
+ * so don't need to be thread-safe, but must not share mutable state (such as
+ * a static Random) between instances.
+ *
+ * @author Ben
+ */
+interface QuestionSelector
+{
+	/**
+	 * @param currentQuestion The id of the question that was just asked,
+	 * which should not be selected again (unless there is no alternative),
+	 * or -1 if no question has been asked yet.
+	 * @return The id of the question to ask next.
+	 */
+	int selectNextQuestion(int currentQuestion);
+
+	/**
+	 * @return A string explanation of how the last question returned from
+	 * selectNextQuestion was selected, mostly for debugging.
+	 */
+	String getSelectionMethod();
+
+	/**
+	 * Called when a question has been asked, after its timeLastAsked has
+	 * been updated.
+	 */
+	void questionAsked(int id);
+
+	/**
+	 * Called after the history of a question has been updated with the
+	 * user's first answer to it (subsequent attempts after a wrong answer
+	 * don't change the history, so aren't notified).
+	 */
+	void questionAnswered(int id, boolean isCorrect);
+
+	/**
+	 * Called when the user has passed a question, after its history has
+	 * been updated.
+	 */
+	void questionPassed(int id);
+}
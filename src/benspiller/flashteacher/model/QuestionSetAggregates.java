@@ -0,0 +1,108 @@
+package benspiller.flashteacher.model;
+
+import java.util.Arrays;
+
+import benspiller.flashteacher.utils.LinkedIntQueue;
+
+/**
+ * Running totals over all the questions in a QuestionHistoryStore, from
+ * which the QuestionSetScores can be calculated in O(1) at any time.
+ *
+ * The totals are updated by delta: the QuestionManager calls
+ * {@link #remove(int)} before changing the answer time or pass mode of a
+ * question and {@link #add(int)} afterwards, and {@link #questionAsked(int)}
+ * whenever its timeLastAsked changes.
+ *
+ * Not thread-safe.
+ *
+ * @author Ben
+ */
+final class QuestionSetAggregates
+{
+	final QuestionHistoryStore allQuestions;
+
+	int unknownAnswers;
+	int wrongAnswers;
+	int slowAnswers;
+	int quickAnswers;
+
+	/** The sum of averageTimeToAnswer for all questions that are not unknown. */
+	long totalTimeToAnswer;
+
+	/**
+	 * The questions that have been asked, in order of timeLastAsked (oldest
+	 * first). Since a question that is asked always becomes the most recently
+	 * asked, this can be kept in order just by moving it to the end.
+	 */
+	final LinkedIntQueue askedQuestions;
+
+	QuestionSetAggregates(QuestionHistoryStore allQuestions)
+	{
+		this.allQuestions = allQuestions;
+		for (int id = 0; id < allQuestions.size(); id++)
+			add(id);
+
+		// sort the asked questions by (timeLastAsked in seconds, id) packed into longs, to
+		// avoid creating an object per question; seconds are precise enough for this
+		long[] sortedQuestions = new long[allQuestions.size()];
+		int asked = 0;
+		for (int id = 0; id < allQuestions.size(); id++)
+			if (allQuestions.hasBeenAsked(id))
+				sortedQuestions[asked++] = ((allQuestions.getTimeLastAsked(id)/1000) << 30) | id;
+		Arrays.sort(sortedQuestions, 0, asked);
+		askedQuestions = new LinkedIntQueue(allQuestions.size());
+		for (int i = 0; i < asked; i++)
+			askedQuestions.addLast((int)(sortedQuestions[i] & ((1 << 30)-1)));
+	}
+
+	int getTotalQuestions()
+	{
+		return allQuestions.size();
+	}
+
+	/**
+	 * @return The time that the least recently asked question was asked, or
+	 * the specified current time if no questions have been asked.
+	 */
+	long getOldestQuestionAskedMillis(long currentTimeMillis)
+	{
+		if (askedQuestions.isEmpty()) return currentTimeMillis;
+		return Math.min(currentTimeMillis, allQuestions.getTimeLastAsked(askedQuestions.peekFirst()));
+	}
+
+	/** Adds the current state of the specified question to the totals. */
+	void add(int id)
+	{
+		update(id, 1);
+	}
+
+	/** Removes the current state of the specified question from the totals. */
+	void remove(int id)
+	{
+		update(id, -1);
+	}
+
+	void questionAsked(int id)
+	{
+		askedQuestions.remove(id);
+		askedQuestions.addLast(id);
+	}
+
+	private void update(int id, int delta)
+	{
+		if (allQuestions.getPassModeCounter(id) == 0)
+		{
+			long averageTimeToAnswer = allQuestions.getAverageTimeToAnswer(id);
+			if (averageTimeToAnswer > QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER)
+				wrongAnswers += delta;
+			else if (averageTimeToAnswer > 1*QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER/3)
+				slowAnswers += delta;
+			else
+				quickAnswers += delta;
+
+			totalTimeToAnswer += delta*averageTimeToAnswer;
+		}
+		else
+			unknownAnswers += delta;
+	}
+}
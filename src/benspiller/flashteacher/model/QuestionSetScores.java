@@ -3,6 +3,9 @@
  */
 package benspiller.flashteacher.model;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.jdom.Element;
 
 /**
@@ -103,4 +106,23 @@ public class QuestionSetScores
 
 		return result;
 	}	
+	
+	/**
+	 * Writes these scores as an empty element with the same attributes as 
+	 * saveToXMLElement(). 
+	 */
+	void writeXML(XMLStreamWriter writer) throws XMLStreamException
+	{
+		writer.writeEmptyElement(ELEMENT_NAME);
+		writer.writeAttribute("unknownAnswers", String.valueOf(unknownAnswers));
+		writer.writeAttribute("wrongAnswers", String.valueOf(wrongAnswers));
+		writer.writeAttribute("slowAnswers", String.valueOf(slowAnswers));
+		writer.writeAttribute("quickAnswers", String.valueOf(quickAnswers));
+		writer.writeAttribute("totalQuestions", String.valueOf(totalQuestions));
+		writer.writeAttribute("oldestQuestionAskedMillis", String.valueOf(oldestQuestionAskedMillis));
+		writer.writeAttribute("averageTimeToAnswer", String.valueOf(averageTimeToAnswer));
+		writer.writeAttribute("averageTimePerCharacter", String.valueOf(averageTimePerCharacter));
+		writer.writeAttribute("questionSetPercentScore", String.valueOf(questionSetPercentScore));
+		writer.writeAttribute("knowledgeIndexScore", String.valueOf(knowledgeIndexScore));
+	}
 }
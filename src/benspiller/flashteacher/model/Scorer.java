@@ -6,26 +6,28 @@ class Scorer
 {
 	static final Logger logger = Logger.getLogger(Scorer.class.getName());
 	
-	public static int getQuestionScore(QuestionHistory q)
+	public static int getQuestionScore(QuestionHistoryStore questions, int id)
 	{
 		int result = 30; // initial value if score is really bad
-		if (q.passModeCounter == 0)
+		int passModeCounter = questions.getPassModeCounter(id);
+		if (passModeCounter == 0)
 		{
 			// assign the remaining 70% on a linear scale based on the average 
 			// time to answer (assuming the maximum to be WRONG_ANSWER_TIME_PENALTY)
 			// so if the user always gets it wrong it'll be 30%, if the time taken is 0 it'll be 100%
-			result += (100-result) * (QuestionManager.WRONG_ANSWER_TIME_PENALTY-q.averageTimeToAnswer)/QuestionManager.WRONG_ANSWER_TIME_PENALTY;
+			result += (100-result) * (QuestionManager.WRONG_ANSWER_TIME_PENALTY-questions.getAverageTimeToAnswer(id))/QuestionManager.WRONG_ANSWER_TIME_PENALTY;
 		}
 		else
 		{
 			// passCounter=3 -> result=0%
 			// passCounter=1 -> result=20%
-			result = result - (result * q.passModeCounter / QuestionManager.PASS_COUNTER_VALUE);
+			result = result - (result * passModeCounter / QuestionManager.PASS_COUNTER_VALUE);
 		}
 		if (result < 0) result = 0;
 		if (result > 100) result = 100;
 		
-		logger.log(java.util.logging.Level.INFO, "Calculated score of "+result+" for question: "+q);
+		if (logger.isLoggable(java.util.logging.Level.INFO))
+			logger.log(java.util.logging.Level.INFO, "Calculated score of "+result+" for question: "+questions.toString(id));
 
 		return result;
 	}
@@ -34,32 +36,20 @@ class Scorer
 	{
 		QuestionSetScores result = new QuestionSetScores();
 		
-		result.oldestQuestionAskedMillis = System.currentTimeMillis();
-		
-		for (QuestionHistory qh: qm.allQuestions)
-		{
-			result.totalQuestions++;
-			
-			if (qh.passModeCounter == 0)
-			{
-				if (qh.averageTimeToAnswer > QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER)
-					result.wrongAnswers++;
-				else if (qh.averageTimeToAnswer > 1*QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER/3)
-					result.slowAnswers++;
-				else
-					result.quickAnswers++;
-				
-				result.averageTimeToAnswer += qh.averageTimeToAnswer;
-			}
-			else
-				result.unknownAnswers++;
-			
-			if (qh.timeLastAsked != null && qh.timeLastAsked.getTime() < result.oldestQuestionAskedMillis)
-				result.oldestQuestionAskedMillis = qh.timeLastAsked.getTime();
-		}
+		// the totals are maintained incrementally as questions are answered, so this is O(1)
+		QuestionSetAggregates aggregates = qm.aggregates;
+		result.totalQuestions = aggregates.getTotalQuestions();
+		result.unknownAnswers = aggregates.unknownAnswers;
+		result.wrongAnswers = aggregates.wrongAnswers;
+		result.slowAnswers = aggregates.slowAnswers;
+		result.quickAnswers = aggregates.quickAnswers;
+		result.averageTimeToAnswer = aggregates.totalTimeToAnswer;
+		long now = qm.clock.millis();
+		result.oldestQuestionAskedMillis = aggregates.getOldestQuestionAskedMillis(now);
 		if (result.totalQuestions == 0) return result;
 		
-		logger.log(java.util.logging.Level.INFO, "Longest time since a question was asked is: "+(System.currentTimeMillis()-result.oldestQuestionAskedMillis)/1000.0/60/60/24+" days");
+		if (logger.isLoggable(java.util.logging.Level.FINE))
+			logger.log(java.util.logging.Level.FINE, "Longest time since a question was asked is: "+(now-result.oldestQuestionAskedMillis)/1000.0/60/60/24+" days");
 		
 		int knownAnswers = result.totalQuestions - result.unknownAnswers;
 		
@@ -71,7 +61,8 @@ class Scorer
 		// now calculate derived values - the overall scores
 		double timeToAnswerMetric = ( (QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER-(double)result.averageTimeToAnswer) / (double)QuestionManager.MAXIMUM_MILLIS_TO_RECORD_PER_ANSWER);
 		
-		logger.log(java.util.logging.Level.INFO, "timeToAnswerMetric = "+timeToAnswerMetric);
+		if (logger.isLoggable(java.util.logging.Level.FINE))
+			logger.log(java.util.logging.Level.FINE, "timeToAnswerMetric = "+timeToAnswerMetric);
 		
 		result.questionSetPercentScore = (
 				// scale by the % of known answers, so max % is % of answers which are known (i.e. not passed)
@@ -79,13 +70,15 @@ class Scorer
 				// of this percentage, scale linearly by the difference between avg time and max time (for a correct answer)
 				timeToAnswerMetric
 				);
-		logger.log(java.util.logging.Level.INFO, "questionSetPercentScore = "+result.questionSetPercentScore);
+		if (logger.isLoggable(java.util.logging.Level.FINE))
+			logger.log(java.util.logging.Level.FINE, "questionSetPercentScore = "+result.questionSetPercentScore);
 		if (result.questionSetPercentScore < 0) result.questionSetPercentScore = 0;
 		if (result.questionSetPercentScore > 100) result.questionSetPercentScore = 100;
 		
 		result.knowledgeIndexScore = (
 				knownAnswers * (0.5f + 0.5f*timeToAnswerMetric) );
-		logger.log(java.util.logging.Level.INFO, "knowledgeIndexScore = "+result.knowledgeIndexScore);
+		if (logger.isLoggable(java.util.logging.Level.FINE))
+			logger.log(java.util.logging.Level.FINE, "knowledgeIndexScore = "+result.knowledgeIndexScore);
 		if (result.knowledgeIndexScore < 0) result.knowledgeIndexScore = 0;
 
 		// ... and the percentages
@@ -0,0 +1,193 @@
+package benspiller.flashteacher.model;
+
+import java.time.Clock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import benspiller.flashteacher.utils.IndexedIntMinHeap;
+import benspiller.flashteacher.utils.LinkedIntQueue;
+
+/**
+ * A spaced-repetition question selection strategy. Each question that has
+ * been asked is scheduled to be asked again at a due time; every correct
+ * first-time answer multiplies the interval until the next repetition by a
+ * factor that depends on the question's score (i.e. how quickly it was
+ * answered), and a wrong answer or pass resets the interval so the question
+ * comes back again shortly.
+ *
+ * Scheduled questions are kept in a min-heap keyed by due time, so selecting
+ * the next question is O(log n) regardless of the size of the question file.
+ * New (never-asked) questions are only introduced when no scheduled question
+ * is due, in the order they were loaded.
+ *
+ * If the answerHistoryLength option is set, the growth of the interval is 
+ * also scaled by the proportion of the question's logged answers that were 
+ * correct, so questions that are often forgotten are repeated more often 
+ * than those that never have been, even once they have been answered 
+ * quickly a few times. 
+ *
+ * The due time and interval of each question are persisted in the history
+ * file. Questions that were asked before this strategy was used are treated
+ * as having been due since they were last asked.
+ *
+ * @author Ben
+ */
+class SpacedRepetitionQuestionSelector implements QuestionSelector
+{
+	final Logger logger = Logger.getLogger(getClass().getName());
+
+	/**
+	 * The interval after the first correct answer (or the first correct
+	 * answer after a wrong answer or pass), in seconds.
+	 */
+	static final int FIRST_REPETITION_INTERVAL_SECONDS = 10*60;
+
+	/**
+	 * How soon a question is asked again after a wrong answer or pass, in
+	 * seconds.
+	 */
+	static final int RELEARNING_DELAY_SECONDS = 60;
+
+	/** The longest interval that will be scheduled, in seconds. */
+	static final int MAXIMUM_REPETITION_INTERVAL_SECONDS = 365*24*60*60;
+
+	/** The interval multipliers used for question scores of 0% and 100%; scores in between are interpolated. */
+	static final double MINIMUM_INTERVAL_MULTIPLIER = 1.2;
+	static final double MAXIMUM_INTERVAL_MULTIPLIER = 3.0;
+
+	final QuestionHistoryStore allQuestions;
+	final Clock clock;
+
+	/** All questions that have been asked, keyed by due time. */
+	final IndexedIntMinHeap scheduledQuestions;
+
+	/** Questions that have never been asked, in the order they were loaded. */
+	final LinkedIntQueue newQuestions;
+
+	private enum QuestionTypeSelectionMethod
+	{
+		UNKNOWN("<unknown question selection method>"),
+		DUE("Question is due for repetition"),
+		NEW("Question is new - no questions are due"),
+		AHEAD_OF_SCHEDULE("Question is the next one due - no questions are due yet");
+		private final String displayText;
+		QuestionTypeSelectionMethod(String displayText) { this.displayText = displayText; }
+		@Override public String toString() { return displayText; }
+	}
+
+	private QuestionTypeSelectionMethod questionTypeSelectionMethod = QuestionTypeSelectionMethod.UNKNOWN;
+
+	SpacedRepetitionQuestionSelector(QuestionHistoryStore allQuestions, Clock clock)
+	{
+		this.allQuestions = allQuestions;
+		this.clock = clock;
+		scheduledQuestions = new IndexedIntMinHeap(allQuestions.size());
+		newQuestions = new LinkedIntQueue(allQuestions.size());
+		for (int id = 0; id < allQuestions.size(); id++)
+		{
+			if (allQuestions.getDueTime(id) != 0)
+				scheduledQuestions.put(id, allQuestions.getDueTime(id));
+			else if (allQuestions.hasBeenAsked(id))
+				scheduledQuestions.put(id, allQuestions.getTimeLastAsked(id));
+			else
+				newQuestions.addLast(id);
+		}
+		logger.log(Level.FINE, "SpacedRepetitionQuestionSelector: "+scheduledQuestions.size()+" scheduled questions, "+newQuestions.size()+" new questions");
+	}
+
+	public String getSelectionMethod()
+	{
+		return questionTypeSelectionMethod.toString();
+	}
+
+	public int selectNextQuestion(int currentQuestion)
+	{
+		int nextDue = getNextDueQuestion(currentQuestion);
+		if (nextDue != -1 && scheduledQuestions.getKey(nextDue) <= clock.millis())
+		{
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.DUE;
+			return nextDue;
+		}
+
+		// the current question has already been removed from this queue, since it has been asked
+		if (!newQuestions.isEmpty())
+		{
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.NEW;
+			return newQuestions.peekFirst();
+		}
+
+		// nothing is due, so practice ahead of schedule
+		if (nextDue != -1)
+		{
+			questionTypeSelectionMethod = QuestionTypeSelectionMethod.AHEAD_OF_SCHEDULE;
+			return nextDue;
+		}
+
+		// can only happen if the current question is the only one, which the QuestionManager doesn't allow
+		throw new IllegalStateException("There are no other questions to select");
+	}
+
+	/**
+	 * @return The scheduled question with the earliest due time other than the
+	 * current question, or -1 if there is none.
+	 */
+	private int getNextDueQuestion(int currentQuestion)
+	{
+		if (scheduledQuestions.isEmpty()) return -1;
+		int result = scheduledQuestions.peek();
+		if (result != currentQuestion) return result;
+
+		// temporarily take the current question out to see what is underneath it
+		long currentDueTime = scheduledQuestions.getKey(currentQuestion);
+		scheduledQuestions.poll();
+		result = scheduledQuestions.isEmpty() ? -1 : scheduledQuestions.peek();
+		scheduledQuestions.put(currentQuestion, currentDueTime);
+		return result;
+	}
+
+	public void questionAsked(int id)
+	{
+		newQuestions.remove(id);
+
+		// until it has been answered, treat it as being due now
+		if (!scheduledQuestions.contains(id))
+			schedule(id, 0, allQuestions.getTimeLastAsked(id));
+	}
+
+	public void questionAnswered(int id, boolean isCorrect)
+	{
+		long now = clock.millis();
+		if (!isCorrect)
+		{
+			schedule(id, 0, now+RELEARNING_DELAY_SECONDS*1000L);
+			return;
+		}
+
+		int interval = allQuestions.getRepetitionInterval(id);
+		if (interval == 0)
+			interval = FIRST_REPETITION_INTERVAL_SECONDS;
+		else
+		{
+			double multiplier = MINIMUM_INTERVAL_MULTIPLIER +
+				(MAXIMUM_INTERVAL_MULTIPLIER-MINIMUM_INTERVAL_MULTIPLIER) * Scorer.getQuestionScore(allQuestions, id) / 100d;
+			// 1 (i.e. no effect) if there is no answer log
+			multiplier = 1 + (multiplier-1) * AnswerEventLog.getAccuracy(allQuestions.getAnswerLog(id));
+			interval = (int)Math.min(MAXIMUM_REPETITION_INTERVAL_SECONDS, Math.round(interval * multiplier));
+		}
+		schedule(id, interval, now+interval*1000L);
+	}
+
+	public void questionPassed(int id)
+	{
+		schedule(id, 0, clock.millis()+RELEARNING_DELAY_SECONDS*1000L);
+	}
+
+	private void schedule(int id, int repetitionInterval, long dueTime)
+	{
+		allQuestions.setRepetitionInterval(id, repetitionInterval);
+		allQuestions.setDueTime(id, dueTime);
+		scheduledQuestions.put(id, dueTime);
+		if (logger.isLoggable(Level.FINE))
+			logger.log(Level.FINE, "SpacedRepetitionQuestionSelector: scheduled "+allQuestions.toString(id));
+	}
+}
@@ -94,6 +94,7 @@ public class SolfegeDictationPlugin implements Plugin
 		currentDo = randomInt(doMin, doMax);
 		
 		isFirstQuestion = true; // so we can play the tonic anchor at the beginning
+		preparedQuestion = null;
 
 		String[] instruments = valueOrDefault(properties.remove("instruments"), "Piano").toLowerCase().split(",");
 		
@@ -316,32 +317,59 @@ public class SolfegeDictationPlugin implements Plugin
 	}
 	
 	protected MidiSequenceBuilder currentQuestionMidiSequence;
+	
+	/** A MIDI sequence built in advance for a question, by prepareQuestion. */
+	static class PreparedQuestion
+	{
+		final Question question;
+		final Patch patch;
+		final MidiSequenceBuilder midiSequence;
+		PreparedQuestion(Question question, Patch patch, MidiSequenceBuilder midiSequence)
+		{
+			this.question = question;
+			this.patch = patch;
+			this.midiSequence = midiSequence;
+		}
+	}
+	
+	/** Set on the background thread by prepareQuestion, and used by onQuestionChanged if it's for the same question. */
+	protected volatile PreparedQuestion preparedQuestion;
+	
+	@Override
+	public void prepareQuestion(Question question)
+	{
+		try {
+			// select instrument patch randomly per question
+			Patch patch = midiPatches[random.nextInt(midiPatches.length)];
+			preparedQuestion = new PreparedQuestion(question, patch, buildQuestionMidiSequence(question, patch, false));
+			logger.log(java.util.logging.Level.FINE, "Prepared MIDI sequence for question: "+question);
+		} catch (Exception ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+	
 	@Override
 	public void onQuestionChanged(Question question)
 	{
-		// select instrument patch randomly per question
-		currentPatch = midiPatches[random.nextInt(midiPatches.length)];
-
 		try {
-			currentQuestionMidiSequence = new MidiSequenceBuilder(currentPatch);
+			PreparedQuestion prepared = preparedQuestion;
+			preparedQuestion = null;
 			
-			if (isFirstQuestion)
+			// the first question needs the tonic anchor, which isn't in a prepared sequence (and 
+			// Question equality is by value, so check identity to avoid using one prepared before a reload)
+			if (!isFirstQuestion && prepared != null && prepared.question == question)
 			{
-				// anchor the tonic for the first question
-				currentQuestionMidiSequence.addNote(currentDo+solfegeToSemitonesAboveDo("do"), timeBetweenNotesMillisMin);
-				currentQuestionMidiSequence.addNote(currentDo-1, timeBetweenNotesMillisMin); // "ti,"
-				currentQuestionMidiSequence.addNote(currentDo+solfegeToSemitonesAboveDo("re"), timeBetweenNotesMillisMin);
-				currentQuestionMidiSequence.addNote(currentDo+solfegeToSemitonesAboveDo("do"), timeBetweenNotesMillisMin);
-				currentQuestionMidiSequence.addRest(timeBetweenNotesMillisMax);
-				isFirstQuestion = false;
+				currentPatch = prepared.patch;
+				currentQuestionMidiSequence = prepared.midiSequence;
 			}
-			
-			for (String solfege: question.getQuestion().split(" "))
-				currentQuestionMidiSequence.addNote(currentDo+solfegeToSemitonesAboveDo(solfege), 
-						randomInt(timeBetweenNotesMillisMin, timeBetweenNotesMillisMax));
-			for (int i = 0; i < additionalRandomNotes; i++)
-				currentQuestionMidiSequence.addNote(currentDo+solfegeToSemitonesAboveDo(possibleSolfegeValues[randomInt(0, possibleSolfegeValues.length-1)]), 
-						randomInt(timeBetweenNotesMillisMin, timeBetweenNotesMillisMax));
+			else
+			{
+				// select instrument patch randomly per question
+				currentPatch = midiPatches[random.nextInt(midiPatches.length)];
+				currentQuestionMidiSequence = buildQuestionMidiSequence(question, currentPatch, isFirstQuestion);
+			}
+			isFirstQuestion = false;
 
 			currentQuestionMidiSequence.play();
 		} catch (Exception ex)
@@ -350,6 +378,34 @@ public class SolfegeDictationPlugin implements Plugin
 		}
 	}
 	
+	/**
+	 * Builds the MIDI sequence for the specified question. 
+	 * @param includeTonicAnchor True to start by playing some notes around the tonic, 
+	 * to establish the key for the first question. 
+	 */
+	protected MidiSequenceBuilder buildQuestionMidiSequence(Question question, Patch patch, boolean includeTonicAnchor) throws Exception
+	{
+		MidiSequenceBuilder result = new MidiSequenceBuilder(patch);
+		
+		if (includeTonicAnchor)
+		{
+			// anchor the tonic for the first question
+			result.addNote(currentDo+solfegeToSemitonesAboveDo("do"), timeBetweenNotesMillisMin);
+			result.addNote(currentDo-1, timeBetweenNotesMillisMin); // "ti,"
+			result.addNote(currentDo+solfegeToSemitonesAboveDo("re"), timeBetweenNotesMillisMin);
+			result.addNote(currentDo+solfegeToSemitonesAboveDo("do"), timeBetweenNotesMillisMin);
+			result.addRest(timeBetweenNotesMillisMax);
+		}
+		
+		for (String solfege: question.getQuestion().split(" "))
+			result.addNote(currentDo+solfegeToSemitonesAboveDo(solfege), 
+					randomInt(timeBetweenNotesMillisMin, timeBetweenNotesMillisMax));
+		for (int i = 0; i < additionalRandomNotes; i++)
+			result.addNote(currentDo+solfegeToSemitonesAboveDo(possibleSolfegeValues[randomInt(0, possibleSolfegeValues.length-1)]), 
+					randomInt(timeBetweenNotesMillisMin, timeBetweenNotesMillisMax));
+		return result;
+	}
+	
 	/** Normalizes capitalization and single-letter short names in a string of multiple solfege values. Leaves octave designation in place. */
 	protected String normalizeSolfegeString(String s)
 	{
@@ -0,0 +1,89 @@
+package benspiller.flashteacher.simulator;
+
+import java.util.SplittableRandom;
+
+/**
+ * A learner whose memory of each question decays exponentially with time
+ * since it was last reviewed (the Ebbinghaus forgetting curve), with a
+ * stability that grows every time it is recalled successfully and is reset
+ * whenever it is forgotten. Questions that have never been reviewed are
+ * always passed.
+ *
+ * The better a question is remembered the more quickly it is answered.
+ *
+ * @author Ben
+ */
+public class ForgettingCurveLearner implements LearnerModel
+{
+	/** The memory stability after first seeing an answer, or forgetting it (half a day). */
+	public static final long DEFAULT_INITIAL_STABILITY_MILLIS = 12*60*60*1000L;
+
+	/** The factor by which the memory stability grows after each successful recall. */
+	public static final double DEFAULT_STABILITY_GROWTH = 2.5;
+
+	/** The time taken to type an answer that is remembered perfectly. */
+	static final long MINIMUM_RESPONSE_MILLIS = 1500;
+
+	/** The maximum extra time taken to recall an answer that is barely remembered. */
+	static final long MAXIMUM_RECALL_MILLIS = 15000;
+
+	private final SplittableRandom random;
+	private final long initialStabilityMillis;
+	private final double stabilityGrowth;
+
+	/** The time constant of the forgetting curve for each question; 0 if never reviewed. */
+	private final double[] stabilityMillis;
+	private final long[] lastReviewedMillis;
+
+	private long responseTimeMillis;
+
+	public ForgettingCurveLearner(int questions, SplittableRandom random, long initialStabilityMillis, double stabilityGrowth)
+	{
+		this.random = random;
+		this.initialStabilityMillis = initialStabilityMillis;
+		this.stabilityGrowth = stabilityGrowth;
+		stabilityMillis = new double[questions];
+		lastReviewedMillis = new long[questions];
+	}
+
+	public ForgettingCurveLearner(int questions, SplittableRandom random)
+	{
+		this(questions, random, DEFAULT_INITIAL_STABILITY_MILLIS, DEFAULT_STABILITY_GROWTH);
+	}
+
+	@Override
+	public Response respond(int question, long currentTimeMillis)
+	{
+		double p = getRecallProbability(question, currentTimeMillis);
+		if (p == 0)
+		{
+			responseTimeMillis = MINIMUM_RESPONSE_MILLIS;
+			return Response.PASS;
+		}
+		responseTimeMillis = MINIMUM_RESPONSE_MILLIS + (long)((1-p) * MAXIMUM_RECALL_MILLIS * (0.5+random.nextDouble()));
+		return (random.nextDouble() < p) ? Response.CORRECT : Response.WRONG;
+	}
+
+	@Override
+	public long getResponseTimeMillis()
+	{
+		return responseTimeMillis;
+	}
+
+	@Override
+	public void reviewed(int question, long currentTimeMillis, boolean recalled)
+	{
+		if (recalled && stabilityMillis[question] > 0)
+			stabilityMillis[question] *= stabilityGrowth;
+		else
+			stabilityMillis[question] = initialStabilityMillis;
+		lastReviewedMillis[question] = currentTimeMillis;
+	}
+
+	@Override
+	public double getRecallProbability(int question, long currentTimeMillis)
+	{
+		if (stabilityMillis[question] == 0) return 0;
+		return Math.exp(-(currentTimeMillis-lastReviewedMillis[question]) / stabilityMillis[question]);
+	}
+}
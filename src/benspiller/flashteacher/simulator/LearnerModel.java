@@ -0,0 +1,50 @@
+package benspiller.flashteacher.simulator;
+
+/**
+ * A synthetic model of a person learning a set of questions, used to drive
+ * a QuestionManager in the simulator. Questions are identified by their
+ * index in the simulated question set (0 to the number of questions - 1).
+ *
+ * Each simulation run has its own instance, so implementations don't need
+ * to be thread-safe.
+ *
+ * @author Ben
+ */
+public interface LearnerModel
+{
+	public enum Response
+	{
+		CORRECT,
+		WRONG,
+		/** The learner doesn't know the answer, so passes the question. */
+		PASS
+	}
+
+	/**
+	 * Decides how the learner responds when the specified question is asked.
+	 * @param question The index of the question.
+	 * @param currentTimeMillis The simulated time.
+	 */
+	public Response respond(int question, long currentTimeMillis);
+
+	/**
+	 * @return The time in milliseconds the learner took to enter their
+	 * response to the question passed to the last call to respond().
+	 */
+	public long getResponseTimeMillis();
+
+	/**
+	 * Called after the learner has seen the correct answer to a question,
+	 * either because they got it right or because it was shown to them after
+	 * a wrong answer or pass.
+	 * @param recalled True if they answered it correctly.
+	 */
+	public void reviewed(int question, long currentTimeMillis, boolean recalled);
+
+	/**
+	 * @return The probability that the learner would currently answer the
+	 * specified question correctly, used for reporting their "true"
+	 * knowledge alongside the scores calculated by FlashTeacher.
+	 */
+	public double getRecallProbability(int question, long currentTimeMillis);
+}
@@ -0,0 +1,65 @@
+package benspiller.flashteacher.simulator;
+
+import java.util.SplittableRandom;
+
+/**
+ * A learner who never learns or forgets anything: every question is
+ * answered correctly with a fixed probability, in a random time. Useful as
+ * a baseline, and for measuring the raw throughput of the QuestionManager.
+ *
+ * @author Ben
+ */
+public class RandomLearner implements LearnerModel
+{
+	public static final double DEFAULT_CORRECT_PROBABILITY = 0.8;
+	public static final double DEFAULT_PASS_PROBABILITY = 0.05;
+
+	static final long MINIMUM_RESPONSE_MILLIS = 1000;
+	static final long MAXIMUM_RESPONSE_MILLIS = 15000;
+
+	private final SplittableRandom random;
+	private final double correctProbability;
+	private final double passProbability;
+
+	private long responseTimeMillis;
+
+	public RandomLearner(SplittableRandom random, double correctProbability, double passProbability)
+	{
+		this.random = random;
+		this.correctProbability = correctProbability;
+		this.passProbability = passProbability;
+	}
+
+	public RandomLearner(SplittableRandom random)
+	{
+		this(random, DEFAULT_CORRECT_PROBABILITY, DEFAULT_PASS_PROBABILITY);
+	}
+
+	@Override
+	public Response respond(int question, long currentTimeMillis)
+	{
+		responseTimeMillis = MINIMUM_RESPONSE_MILLIS + (long)(random.nextDouble() * (MAXIMUM_RESPONSE_MILLIS-MINIMUM_RESPONSE_MILLIS));
+		double r = random.nextDouble();
+		if (r < correctProbability) return Response.CORRECT;
+		if (r < correctProbability+passProbability) return Response.PASS;
+		return Response.WRONG;
+	}
+
+	@Override
+	public long getResponseTimeMillis()
+	{
+		return responseTimeMillis;
+	}
+
+	@Override
+	public void reviewed(int question, long currentTimeMillis, boolean recalled)
+	{
+		// never learns anything
+	}
+
+	@Override
+	public double getRecallProbability(int question, long currentTimeMillis)
+	{
+		return correctProbability;
+	}
+}
@@ -0,0 +1,80 @@
+package benspiller.flashteacher.simulator;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A Clock whose time only changes when it is explicitly advanced, so that
+ * simulations can run much faster than real time (and deterministically).
+ *
+ * Not thread-safe; each simulation run has its own instance (and any copies
+ * of it in other time zones, which share its time).
+ *
+ * @author Ben
+ */
+public class SimulatedClock extends Clock
+{
+	/** The time, which is shared with any copies of the clock made by withZone(). */
+	private static final class Time
+	{
+		long currentTimeMillis;
+	}
+
+	private final Time time;
+	private final ZoneId zone;
+
+	public SimulatedClock(long startTimeMillis)
+	{
+		this.time = new Time();
+		this.time.currentTimeMillis = startTimeMillis;
+		this.zone = ZoneOffset.UTC;
+	}
+
+	private SimulatedClock(Time time, ZoneId zone)
+	{
+		this.time = time;
+		this.zone = zone;
+	}
+
+	public void advance(long millis)
+	{
+		if (millis < 0) throw new IllegalArgumentException("Cannot move time backwards: "+millis);
+		time.currentTimeMillis += millis;
+	}
+
+	public void advanceTo(long timeMillis)
+	{
+		advance(timeMillis-time.currentTimeMillis);
+	}
+
+	@Override
+	public long millis()
+	{
+		return time.currentTimeMillis;
+	}
+
+	@Override
+	public Instant instant()
+	{
+		return Instant.ofEpochMilli(time.currentTimeMillis);
+	}
+
+	@Override
+	public ZoneId getZone()
+	{
+		return zone;
+	}
+
+	/**
+	 * @return A clock in the specified time zone, which shares this clock's 
+	 * time, so advancing either of them advances both.
+	 */
+	@Override
+	public Clock withZone(ZoneId zone)
+	{
+		if (zone.equals(this.zone)) return this;
+		return new SimulatedClock(time, zone);
+	}
+}
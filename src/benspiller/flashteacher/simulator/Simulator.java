@@ -0,0 +1,385 @@
+package benspiller.flashteacher.simulator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jdom.Element;
+
+import benspiller.flashteacher.model.Options;
+import benspiller.flashteacher.model.Question;
+import benspiller.flashteacher.model.QuestionManager;
+import benspiller.flashteacher.model.QuestionSetScores;
+
+/**
+ * A headless simulator that drives QuestionManager instances with synthetic
+ * learners instead of the QuestionWindow, to see how the question selection
+ * algorithm and its options affect how quickly a question set is learned,
+ * and to measure the throughput of the model.
+ *
+ * Each run simulates one learner practising a generated question set for a
+ * number of days, with its own seeded QuestionManager and a simulated clock,
+ * so results are reproducible for a given seed. Runs are spread across a pool
+ * of threads, and the learning curves are averaged over all runs. All runs
+ * share the same Question objects, as they are immutable.
+ *
+ * With <code>--stress</code>, every run is then repeated on its own, and the
+ * simulator fails if any run behaved differently when it was running
+ * concurrently with the others, or if any run failed; this checks that
+ * sessions in the same JVM are isolated from each other. For example:
+ * <code>--stress --runs 5000 --questions 200 --days 2 --threads 16</code>.
+ *
+ * Run with <code>--help</code> for the available arguments.
+ *
+ * @author Ben
+ */
+public class Simulator
+{
+	static final Logger logger = Logger.getLogger(Simulator.class.getName());
+
+	/** All runs start at the same simulated time, so results don't depend on when they are run. */
+	static final long START_TIME_MILLIS = 1577836800000L; // 2020-01-01T00:00:00Z
+
+	static final long DAY_MILLIS = 24*60*60*1000L;
+
+	/** Time taken to type in the correct answer after a wrong answer or pass. */
+	static final long RETRY_MILLIS = 3000;
+
+	int questions = 1000;
+	int runs = 8;
+	int threads = Runtime.getRuntime().availableProcessors();
+	int days = 30;
+	int answersPerDay = 200;
+	long seed = 1;
+	String learner = "forgettingCurve";
+	boolean stress = false;
+	/** Attributes to set on the simulated questionList element, e.g. questionSelector. */
+	final Map<String, String> options = new LinkedHashMap<>();
+
+	/**
+	 * The state of the simulation at the end of one day, for one run or
+	 * averaged over all runs.
+	 */
+	static class DayStatistics
+	{
+		/** FlashTeacher's own percentage score for the question set. */
+		double questionSetPercentScore;
+		double knowledgeIndexScore;
+		/** The percentage of questions not yet known, according to FlashTeacher. */
+		double unknownAnswersPercent;
+		/** The learner's average probability of recalling each question correctly, as a percentage. */
+		double recallPercent;
+		/** The percentage of answers during the day that were correct first time. */
+		double correctPercent;
+	}
+
+	static class RunResult
+	{
+		final DayStatistics[] days;
+		long answers;
+		/** A hash of every question asked and every response, to check whether two runs behaved identically. */
+		long fingerprint;
+		RunResult(int days)
+		{
+			this.days = new DayStatistics[days];
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Simulator simulator = new Simulator();
+		try {
+			simulator.parseArgs(args);
+		} catch (IllegalArgumentException ex)
+		{
+			System.err.println(ex.getMessage());
+			System.err.println();
+			printUsage();
+			System.exit(1);
+		}
+		simulator.run();
+	}
+
+	static void printUsage()
+	{
+		System.out.println("Usage: "+Simulator.class.getName()+" [args]");
+		System.out.println("  --questions N       Number of questions in the simulated question set (default 1000)");
+		System.out.println("  --days N            Number of simulated days of practice (default 30)");
+		System.out.println("  --answersPerDay N   Number of questions answered each day (default 200)");
+		System.out.println("  --runs N            Number of independent learners to simulate (default 8)");
+		System.out.println("  --threads N         Number of threads to use (default is the number of CPUs)");
+		System.out.println("  --seed N            Seed for all random number generators (default 1)");
+		System.out.println("  --learner NAME      forgettingCurve (default) or random");
+		System.out.println("  --option NAME=VALUE Set a question file option, e.g. questionSelector=spacedRepetition");
+		System.out.println("  --stress            Repeat each run on its own and check the results are identical to the concurrent run");
+		System.out.println("  --verbose           Don't suppress logging from the model");
+	}
+
+	void parseArgs(String[] args) throws IllegalArgumentException
+	{
+		boolean verbose = false;
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("--help"))
+			{
+				printUsage();
+				System.exit(0);
+			}
+			if (arg.equals("--verbose"))
+			{
+				verbose = true;
+				continue;
+			}
+			if (arg.equals("--stress"))
+			{
+				stress = true;
+				continue;
+			}
+			if (i+1 == args.length)
+				throw new IllegalArgumentException("Missing value for argument: "+arg);
+			String value = args[++i];
+			try {
+				switch (arg)
+				{
+				case "--questions": questions = Integer.parseInt(value); break;
+				case "--days": days = Integer.parseInt(value); break;
+				case "--answersPerDay": answersPerDay = Integer.parseInt(value); break;
+				case "--runs": runs = Integer.parseInt(value); break;
+				case "--threads": threads = Integer.parseInt(value); break;
+				case "--seed": seed = Long.parseLong(value); break;
+				case "--learner": learner = value; createLearner(1, new SplittableRandom()); break; // validate it
+				case "--option":
+					if (!value.contains("=")) throw new IllegalArgumentException("Option must be specified as NAME=VALUE: "+value);
+					options.put(value.substring(0, value.indexOf('=')), value.substring(value.indexOf('=')+1));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument: "+arg);
+				}
+			} catch (NumberFormatException ex)
+			{
+				throw new IllegalArgumentException("Invalid number for "+arg+": "+value);
+			}
+		}
+		if (questions < 2 || days < 1 || answersPerDay < 1 || runs < 1 || threads < 1)
+			throw new IllegalArgumentException("Numeric arguments must be positive, and there must be at least 2 questions");
+
+		if (!verbose)
+		{
+			// the model logs lots at INFO level, which would slow the simulation down and obscure the results
+			Logger.getLogger("").setLevel(Level.WARNING);
+			for (Handler h: Logger.getLogger("").getHandlers())
+				h.setLevel(Level.WARNING);
+		}
+	}
+
+	LearnerModel createLearner(int questions, SplittableRandom random)
+	{
+		switch (learner)
+		{
+		case "forgettingCurve": return new ForgettingCurveLearner(questions, random);
+		case "random": return new RandomLearner(random);
+		default: throw new IllegalArgumentException("Unknown learner: "+learner);
+		}
+	}
+
+	Options createOptions()
+	{
+		Element questionListElement = new Element("questionList");
+		// these are required, and usually defaulted by the DTD
+		questionListElement.setAttribute("questionFontSize", "25");
+		questionListElement.setAttribute("answerFontSize", "40");
+		for (Map.Entry<String, String> option: options.entrySet())
+			questionListElement.setAttribute(option.getKey(), option.getValue());
+		return new Options(questionListElement);
+	}
+
+	/** A generated question that knows its index, so the learner can identify it quickly. */
+	static class SimulatedQuestion extends Question
+	{
+		final int index;
+		SimulatedQuestion(int index)
+		{
+			super("question "+index, "answer"+index, true);
+			this.index = index;
+		}
+		
+		/** Checks an answer in the same way as the UI does. */
+		boolean checkAnswer(String answer)
+		{
+			return isAnswerCorrect(answer);
+		}
+	}
+	
+	/**
+	 * Creates a random number generator for each run, for the QuestionManager 
+	 * and learner model, split from a single generator for the seed so the 
+	 * runs are independent but reproducible. 
+	 */
+	SplittableRandom[] createRandoms()
+	{
+		SplittableRandom seedRandom = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[runs*2];
+		for (int i = 0; i < randoms.length; i++)
+			randoms[i] = seedRandom.split();
+		return randoms;
+	}
+
+	void run() throws Exception
+	{
+		System.out.println("FlashTeacher learner simulation: questions="+questions+", days="+days+", answersPerDay="+answersPerDay
+				+", runs="+runs+", threads="+threads+", seed="+seed+", learner="+learner+", options="+options+(stress ? ", stress" : ""));
+		createOptions(); // fail fast if the options are invalid
+
+		final List<Question> questionList = new ArrayList<>(questions);
+		for (int i = 0; i < questions; i++)
+			questionList.add(new SimulatedQuestion(i));
+		final SplittableRandom[] randoms = createRandoms();
+
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<RunResult> results = new ArrayList<>();
+		try {
+			List<Future<RunResult>> futures = new ArrayList<>();
+			for (int run = 0; run < runs; run++)
+			{
+				final int runIndex = run;
+				futures.add(executor.submit(() -> simulateRun(questionList, randoms[runIndex*2], randoms[runIndex*2+1])));
+			}
+			for (Future<RunResult> f: futures)
+				results.add(f.get());
+		} catch (ExecutionException ex)
+		{
+			throw new Exception("Simulation failed: "+ex.getCause(), ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		double elapsedSeconds = (System.nanoTime()-startTime)/1000000000.0;
+
+		long totalAnswers = 0;
+		for (RunResult r: results)
+			totalAnswers += r.answers;
+
+		System.out.println();
+		System.out.println(String.format("Throughput: %,d answers in %.2f s = %,.0f answers/minute",
+				totalAnswers, elapsedSeconds, totalAnswers/elapsedSeconds*60));
+		
+		if (stress)
+		{
+			// repeat each run on its own with the same seeds, which should give identical results
+			SplittableRandom[] repeatRandoms = createRandoms();
+			int differences = 0;
+			for (int run = 0; run < runs; run++)
+				if (simulateRun(questionList, repeatRandoms[run*2], repeatRandoms[run*2+1]).fingerprint != results.get(run).fingerprint)
+				{
+					if (differences == 0)
+						System.err.println("Run "+run+" behaved differently when run concurrently with other runs");
+					differences++;
+				}
+			System.out.println();
+			if (differences > 0)
+			{
+				System.err.println("Stress test FAILED: "+differences+" of "+runs+" concurrent runs were not isolated from other runs");
+				System.exit(2);
+			}
+			System.out.println("Stress test passed: all "+runs+" concurrent runs gave the same results as when run on their own");
+		}
+		System.out.println();
+		System.out.println("Learning curve (mean of "+runs+" runs, at the end of each day):");
+		System.out.println(String.format("%6s %10s %10s %10s %10s %14s", "Day", "Correct%", "Unknown%", "Score%", "Recall%", "KnowledgeIdx"));
+		for (int day = 0; day < days; day++)
+		{
+			DayStatistics mean = new DayStatistics();
+			for (RunResult r: results)
+			{
+				DayStatistics d = r.days[day];
+				mean.correctPercent += d.correctPercent/runs;
+				mean.unknownAnswersPercent += d.unknownAnswersPercent/runs;
+				mean.questionSetPercentScore += d.questionSetPercentScore/runs;
+				mean.recallPercent += d.recallPercent/runs;
+				mean.knowledgeIndexScore += d.knowledgeIndexScore/runs;
+			}
+			System.out.println(String.format("%6d %10.1f %10.1f %10.1f %10.1f %14.1f", day+1,
+					mean.correctPercent, mean.unknownAnswersPercent, mean.questionSetPercentScore, mean.recallPercent, mean.knowledgeIndexScore));
+		}
+	}
+
+	/**
+	 * Simulates a single learner, using only objects owned by this run 
+	 * (apart from the immutable questions), so it can safely run concurrently 
+	 * with other runs.
+	 */
+	RunResult simulateRun(List<Question> questionList, SplittableRandom modelRandom, SplittableRandom learnerRandom) throws Exception
+	{
+		SimulatedClock clock = new SimulatedClock(START_TIME_MILLIS);
+		// use different streams for the model and the learner, so changing one doesn't perturb the other
+		QuestionManager qm = new QuestionManager(questionList, null, createOptions(), modelRandom, clock);
+		LearnerModel learnerModel = createLearner(questions, learnerRandom);
+
+		RunResult result = new RunResult(days);
+		for (int day = 0; day < days; day++)
+		{
+			int correct = 0;
+			for (int answer = 0; answer < answersPerDay; answer++)
+			{
+				SimulatedQuestion question = (SimulatedQuestion)qm.getCurrentQuestion();
+				long askedTime = clock.millis();
+				LearnerModel.Response response = learnerModel.respond(question.index, askedTime);
+				long responseTime = learnerModel.getResponseTimeMillis();
+				clock.advance(responseTime);
+				result.fingerprint = result.fingerprint*31 + question.index*3 + response.ordinal();
+				switch (response)
+				{
+				case CORRECT:
+					correct++;
+					learnerModel.reviewed(question.index, askedTime, true);
+					if (!question.checkAnswer(question.getAnswer()))
+						throw new IllegalStateException("Correct answer was not accepted for "+question);
+					qm.answerQuestion(true, question.getAnswer(), responseTime, null);
+					break;
+				case WRONG:
+					if (question.checkAnswer("?"))
+						throw new IllegalStateException("Wrong answer was accepted for "+question);
+					qm.answerQuestion(false, "?", responseTime, null);
+					learnerModel.reviewed(question.index, clock.millis(), false);
+					clock.advance(RETRY_MILLIS);
+					qm.answerQuestion(true, question.getAnswer(), RETRY_MILLIS, null);
+					break;
+				case PASS:
+					qm.passQuestion();
+					learnerModel.reviewed(question.index, clock.millis(), false);
+					clock.advance(RETRY_MILLIS);
+					qm.answerQuestion(true, question.getAnswer(), RETRY_MILLIS, null);
+					break;
+				}
+			}
+			result.answers += answersPerDay;
+
+			QuestionSetScores scores = qm.getCurrentQuestionSetScores();
+			DayStatistics statistics = new DayStatistics();
+			statistics.correctPercent = 100d*correct/answersPerDay;
+			statistics.unknownAnswersPercent = scores.unknownAnswersPercent;
+			statistics.questionSetPercentScore = scores.questionSetPercentScore;
+			statistics.knowledgeIndexScore = scores.knowledgeIndexScore;
+			double recall = 0;
+			for (int i = 0; i < questions; i++)
+				recall += learnerModel.getRecallProbability(i, clock.millis());
+			statistics.recallPercent = 100d*recall/questions;
+			result.days[day] = statistics;
+			result.fingerprint = result.fingerprint*31 + Double.hashCode(scores.questionSetPercentScore);
+
+			// the next session starts at the same time the following day
+			clock.advanceTo(Math.max(clock.millis(), START_TIME_MILLIS+(day+1)*DAY_MILLIS));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,90 @@
+package benspiller.flashteacher.utils;
+
+/**
+ * Reduces the number of points in a series for plotting, using the
+ * Largest-Triangle-Three-Buckets algorithm (Sveinn Steinarsson, 2013), which
+ * keeps the points that contribute most to the shape of the line, so the
+ * result looks almost the same as the full series when drawn at a typical
+ * chart width.
+ *
+ * The first and last points are always kept, and the points in between are
+ * divided into equal-sized buckets, from each of which the point that forms
+ * the largest triangle with the point chosen from the previous bucket and
+ * the average of the next bucket is kept. This is O(n) and doesn't allocate
+ * anything other than the result.
+ */
+public final class Downsampler
+{
+	private Downsampler()
+	{
+	}
+
+	/**
+	 * @param data The series to downsample, as data[0] = x values (in
+	 * ascending order) and data[1] = y values, as used by JFreeChart's
+	 * DefaultXYDataset.
+	 * @param maxPoints The most points to return; must be at least 3.
+	 * @return A series of at most maxPoints points in the same form, or data
+	 * itself if it doesn't have more points than that.
+	 */
+	public static double[][] largestTriangleThreeBuckets(double[][] data, int maxPoints)
+	{
+		if (maxPoints < 3)
+			throw new IllegalArgumentException("maxPoints must be at least 3");
+		double[] x = data[0];
+		double[] y = data[1];
+		int length = x.length;
+		if (length <= maxPoints)
+			return data;
+
+		double[][] result = new double[2][maxPoints];
+		// the first and last points are always kept, so the rest go into maxPoints-2 buckets
+		double bucketSize = (double)(length-2) / (maxPoints-2);
+
+		int selected = 0;
+		result[0][0] = x[0];
+		result[1][0] = y[0];
+		for (int bucket = 0; bucket < maxPoints-2; bucket++)
+		{
+			int start = (int)(bucket*bucketSize) + 1;
+			int end = (int)((bucket+1)*bucketSize) + 1;
+
+			// the average of the next bucket (which for the last bucket is just the last point)
+			int nextStart = end;
+			int nextEnd = Math.min((int)((bucket+2)*bucketSize) + 1, length);
+			if (bucket == maxPoints-3)
+			{
+				nextStart = length-1;
+				nextEnd = length;
+			}
+			double averageX = 0, averageY = 0;
+			for (int i = nextStart; i < nextEnd; i++)
+			{
+				averageX += x[i];
+				averageY += y[i];
+			}
+			averageX /= (nextEnd-nextStart);
+			averageY /= (nextEnd-nextStart);
+
+			double maxArea = -1;
+			int maxAreaIndex = start;
+			for (int i = start; i < end; i++)
+			{
+				// twice the area of the triangle, which is all we need to compare them
+				double area = Math.abs((x[selected]-averageX) * (y[i]-y[selected])
+						- (x[selected]-x[i]) * (averageY-y[selected]));
+				if (area > maxArea)
+				{
+					maxArea = area;
+					maxAreaIndex = i;
+				}
+			}
+			selected = maxAreaIndex;
+			result[0][bucket+1] = x[selected];
+			result[1][bucket+1] = y[selected];
+		}
+		result[0][maxPoints-1] = x[length-1];
+		result[1][maxPoints-1] = y[length-1];
+		return result;
+	}
+}
@@ -0,0 +1,186 @@
+package benspiller.flashteacher.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A priority queue of small non-negative int ids, each with a long key, where
+ * the id with the smallest key (then the smallest id, to make the order
+ * deterministic) is at the top. Adding, removing (from the top or anywhere
+ * else) and changing the key of an id are all O(log n); peeking at the top
+ * and membership tests are O(1).
+ *
+ * Implemented as a binary heap in an array, plus a second array mapping each
+ * id to its position in the heap, so no objects are allocated once the arrays
+ * have grown to the required size.
+ *
+ * Not thread-safe.
+ */
+public final class IndexedIntMinHeap
+{
+	private static final int ABSENT = -1;
+
+	private int[] heap;
+	/** The position of each id in the heap array, or ABSENT. */
+	private int[] positions;
+	/** The key of each id, indexed by id. */
+	private long[] keys;
+	private int size = 0;
+
+	public IndexedIntMinHeap(int initialCapacity)
+	{
+		initialCapacity = Math.max(initialCapacity, 16);
+		heap = new int[initialCapacity];
+		positions = new int[initialCapacity];
+		keys = new long[initialCapacity];
+		Arrays.fill(positions, ABSENT);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public boolean contains(int id)
+	{
+		return id >= 0 && id < positions.length && positions[id] != ABSENT;
+	}
+
+	/**
+	 * @throws NoSuchElementException If the id is not present.
+	 */
+	public long getKey(int id) throws NoSuchElementException
+	{
+		if (!contains(id)) throw new NoSuchElementException("Id is not present: "+id);
+		return keys[id];
+	}
+
+	/**
+	 * Adds the id with the specified key, or changes its key if it is already
+	 * present.
+	 */
+	public void put(int id, long key)
+	{
+		if (id < 0) throw new IllegalArgumentException("Invalid id: "+id);
+		if (contains(id))
+		{
+			long oldKey = keys[id];
+			keys[id] = key;
+			if (key < oldKey)
+				siftUp(positions[id]);
+			else
+				siftDown(positions[id]);
+			return;
+		}
+
+		if (id >= positions.length)
+		{
+			int oldLength = positions.length;
+			int newLength = Math.max(id+1, oldLength*2);
+			positions = Arrays.copyOf(positions, newLength);
+			keys = Arrays.copyOf(keys, newLength);
+			Arrays.fill(positions, oldLength, newLength, ABSENT);
+		}
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, size*2);
+
+		keys[id] = key;
+		heap[size] = id;
+		positions[id] = size;
+		size++;
+		siftUp(size-1);
+	}
+
+	/**
+	 * @return The id with the smallest key, without removing it.
+	 * @throws NoSuchElementException If the heap is empty.
+	 */
+	public int peek() throws NoSuchElementException
+	{
+		if (size == 0) throw new NoSuchElementException();
+		return heap[0];
+	}
+
+	/**
+	 * Removes and returns the id with the smallest key.
+	 * @throws NoSuchElementException If the heap is empty.
+	 */
+	public int poll() throws NoSuchElementException
+	{
+		int result = peek();
+		remove(result);
+		return result;
+	}
+
+	/**
+	 * @return <code>true</code> if the id was removed, <code>false</code> if
+	 * it was not present.
+	 */
+	public boolean remove(int id)
+	{
+		if (!contains(id)) return false;
+
+		int position = positions[id];
+		positions[id] = ABSENT;
+		size--;
+		if (position == size) return true;
+
+		// move the last element into the gap, and restore the heap order
+		int last = heap[size];
+		heap[position] = last;
+		positions[last] = position;
+		siftDown(position);
+		siftUp(positions[last]);
+		return true;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+			positions[heap[i]] = ABSENT;
+		size = 0;
+	}
+
+	private boolean isLess(int id1, int id2)
+	{
+		return keys[id1] < keys[id2] || (keys[id1] == keys[id2] && id1 < id2);
+	}
+
+	private void siftUp(int position)
+	{
+		int id = heap[position];
+		while (position > 0)
+		{
+			int parent = (position-1)/2;
+			if (!isLess(id, heap[parent])) break;
+			heap[position] = heap[parent];
+			positions[heap[position]] = position;
+			position = parent;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+
+	private void siftDown(int position)
+	{
+		int id = heap[position];
+		while (true)
+		{
+			int child = 2*position+1;
+			if (child >= size) break;
+			if (child+1 < size && isLess(heap[child+1], heap[child]))
+				child++;
+			if (!isLess(heap[child], id)) break;
+			heap[position] = heap[child];
+			positions[heap[position]] = position;
+			position = child;
+		}
+		heap[position] = id;
+		positions[id] = position;
+	}
+}
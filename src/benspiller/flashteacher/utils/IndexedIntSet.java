@@ -0,0 +1,111 @@
+package benspiller.flashteacher.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of small non-negative int ids that supports O(1) insertion, removal,
+ * membership tests and access by index (e.g. for picking a random element),
+ * without allocating any objects once it has grown to the required size.
+ *
+ * The elements are held in a dense array, and a second array maps each id to
+ * its position in the first; removal moves the last element into the gap, so
+ * the order of the elements is not preserved.
+ *
+ * Not thread-safe.
+ */
+public final class IndexedIntSet
+{
+	private static final int ABSENT = -1;
+
+	private int[] elements;
+	/** The position of each id in the elements array, or ABSENT. */
+	private int[] positions;
+	private int size = 0;
+
+	public IndexedIntSet(int initialCapacity)
+	{
+		initialCapacity = Math.max(initialCapacity, 16);
+		elements = new int[initialCapacity];
+		positions = new int[initialCapacity];
+		Arrays.fill(positions, ABSENT);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public boolean contains(int id)
+	{
+		return id >= 0 && id < positions.length && positions[id] != ABSENT;
+	}
+
+	/**
+	 * @return The id at the specified index, which must be between 0 and size()-1.
+	 * @throws IndexOutOfBoundsException If the index is out of range.
+	 */
+	public int get(int index) throws IndexOutOfBoundsException
+	{
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index "+index+" is out of range; size is "+size);
+		return elements[index];
+	}
+
+	/**
+	 * @return <code>true</code> if the id was added, <code>false</code> if it
+	 * was already present.
+	 */
+	public boolean add(int id)
+	{
+		if (id < 0) throw new IllegalArgumentException("Invalid id: "+id);
+		if (contains(id)) return false;
+
+		if (id >= positions.length)
+		{
+			int oldLength = positions.length;
+			positions = Arrays.copyOf(positions, Math.max(id+1, oldLength*2));
+			Arrays.fill(positions, oldLength, positions.length, ABSENT);
+		}
+		if (size == elements.length)
+			elements = Arrays.copyOf(elements, size*2);
+
+		elements[size] = id;
+		positions[id] = size;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the id was removed, <code>false</code> if
+	 * it was not present.
+	 */
+	public boolean remove(int id)
+	{
+		if (!contains(id)) return false;
+
+		int position = positions[id];
+		int last = elements[size-1];
+		elements[position] = last;
+		positions[last] = position;
+		positions[id] = ABSENT;
+		size--;
+		return true;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+			positions[elements[i]] = ABSENT;
+		size = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(Arrays.copyOf(elements, size));
+	}
+}
@@ -0,0 +1,132 @@
+package benspiller.flashteacher.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A first-in-first-out queue of small non-negative int ids, where each id can
+ * be present at most once. Adding to the end, removing from the front,
+ * removing an arbitrary id and membership tests are all O(1).
+ *
+ * Implemented as a doubly-linked list whose links are stored in arrays
+ * indexed by id, so no objects are allocated once the arrays have grown to
+ * the required size.
+ *
+ * Not thread-safe.
+ */
+public final class LinkedIntQueue
+{
+	private static final int NIL = -1;
+	/** Value of previous[] for ids that are not in the queue. */
+	private static final int ABSENT = -2;
+
+	private int[] next;
+	private int[] previous;
+	private int head = NIL;
+	private int tail = NIL;
+	private int size = 0;
+
+	public LinkedIntQueue(int initialCapacity)
+	{
+		initialCapacity = Math.max(initialCapacity, 16);
+		next = new int[initialCapacity];
+		previous = new int[initialCapacity];
+		Arrays.fill(previous, ABSENT);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public boolean contains(int id)
+	{
+		return id >= 0 && id < previous.length && previous[id] != ABSENT;
+	}
+
+	/**
+	 * Adds the id to the end of the queue, unless it is already present (in
+	 * which case its position is unchanged).
+	 * @return <code>true</code> if the id was added.
+	 */
+	public boolean addLast(int id)
+	{
+		if (id < 0) throw new IllegalArgumentException("Invalid id: "+id);
+		if (contains(id)) return false;
+
+		if (id >= previous.length)
+		{
+			int oldLength = previous.length;
+			int newLength = Math.max(id+1, oldLength*2);
+			next = Arrays.copyOf(next, newLength);
+			previous = Arrays.copyOf(previous, newLength);
+			Arrays.fill(previous, oldLength, newLength, ABSENT);
+		}
+
+		previous[id] = tail;
+		next[id] = NIL;
+		if (tail == NIL)
+			head = id;
+		else
+			next[tail] = id;
+		tail = id;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return The id at the front of the queue, without removing it.
+	 * @throws NoSuchElementException If the queue is empty.
+	 */
+	public int peekFirst() throws NoSuchElementException
+	{
+		if (head == NIL) throw new NoSuchElementException();
+		return head;
+	}
+
+	/**
+	 * Removes and returns the id at the front of the queue.
+	 * @throws NoSuchElementException If the queue is empty.
+	 */
+	public int pollFirst() throws NoSuchElementException
+	{
+		int result = peekFirst();
+		remove(result);
+		return result;
+	}
+
+	/**
+	 * Removes the specified id from wherever it is in the queue.
+	 * @return <code>true</code> if the id was present.
+	 */
+	public boolean remove(int id)
+	{
+		if (!contains(id)) return false;
+
+		int p = previous[id];
+		int n = next[id];
+		if (p == NIL)
+			head = n;
+		else
+			next[p] = n;
+		if (n == NIL)
+			tail = p;
+		else
+			previous[n] = p;
+
+		previous[id] = ABSENT;
+		size--;
+		return true;
+	}
+
+	public void clear()
+	{
+		while (head != NIL)
+			remove(head);
+	}
+}
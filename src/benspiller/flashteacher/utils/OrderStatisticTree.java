@@ -0,0 +1,242 @@
+package benspiller.flashteacher.utils;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of int ids (typically indexes into some other list), ordered
+ * by a long key associated with each id, with ties broken by the id itself.
+ *
+ * Supports insertion, removal, key updates and selection by rank (i.e. "get
+ * the i'th smallest element") in O(log n), so it can replace a list that
+ * would otherwise need to be re-sorted every time a key changes.
+ *
+ * Implemented as a treap whose nodes are stored in parallel arrays indexed
+ * by id, so ids must be small non-negative integers and no objects are
+ * allocated after the arrays have grown to the required size. The treap
+ * priorities are derived from a hash of the id rather than a random number
+ * generator, so the shape of the tree is deterministic.
+ *
+ * Not thread-safe.
+ */
+public final class OrderStatisticTree
+{
+	private static final int NIL = -1;
+
+	private int[] left;
+	private int[] right;
+	/** The size of the subtree rooted at each node, or 0 if the id is not in the tree. */
+	private int[] size;
+	private long[] keys;
+
+	private int root = NIL;
+
+	public OrderStatisticTree(int initialCapacity)
+	{
+		initialCapacity = Math.max(initialCapacity, 16);
+		left = new int[initialCapacity];
+		right = new int[initialCapacity];
+		size = new int[initialCapacity];
+		keys = new long[initialCapacity];
+	}
+
+	private void ensureCapacity(int id)
+	{
+		if (id < size.length) return;
+		int newCapacity = Math.max(id+1, size.length*2);
+		left = Arrays.copyOf(left, newCapacity);
+		right = Arrays.copyOf(right, newCapacity);
+		size = Arrays.copyOf(size, newCapacity);
+		keys = Arrays.copyOf(keys, newCapacity);
+	}
+
+	/**
+	 * @return The number of ids in this tree.
+	 */
+	public int size()
+	{
+		return root == NIL ? 0 : size[root];
+	}
+
+	public boolean contains(int id)
+	{
+		return id >= 0 && id < size.length && size[id] > 0;
+	}
+
+	/**
+	 * @return The key the specified id was added with. Undefined if the id is
+	 * not in the tree.
+	 */
+	public long getKey(int id)
+	{
+		return keys[id];
+	}
+
+	/**
+	 * Adds the specified id to the tree.
+	 * @throws IllegalArgumentException If the id is negative or already present.
+	 */
+	public void add(int id, long key) throws IllegalArgumentException
+	{
+		if (id < 0) throw new IllegalArgumentException("Invalid id: "+id);
+		ensureCapacity(id);
+		if (size[id] > 0) throw new IllegalArgumentException("Id is already present in the tree: "+id);
+
+		keys[id] = key;
+		left[id] = NIL;
+		right[id] = NIL;
+		size[id] = 1;
+		root = insert(root, id);
+	}
+
+	/**
+	 * Removes the specified id from the tree, if present.
+	 * @return <code>true</code> if the id was removed.
+	 */
+	public boolean remove(int id)
+	{
+		if (!contains(id)) return false;
+		root = delete(root, id);
+		size[id] = 0;
+		return true;
+	}
+
+	/**
+	 * Changes the key of the specified id, adding it to the tree if it is
+	 * not already present.
+	 */
+	public void update(int id, long key)
+	{
+		if (contains(id))
+		{
+			if (keys[id] == key) return;
+			remove(id);
+		}
+		add(id, key);
+	}
+
+	/**
+	 * Returns the id at the specified rank, where rank 0 is the id with the
+	 * smallest key.
+	 * @throws IndexOutOfBoundsException If rank is not between 0 and size()-1.
+	 */
+	public int get(int rank) throws IndexOutOfBoundsException
+	{
+		if (rank < 0 || rank >= size()) throw new IndexOutOfBoundsException("Rank "+rank+" is out of range; size is "+size());
+		int node = root;
+		while (true)
+		{
+			int leftSize = sizeOf(left[node]);
+			if (rank < leftSize)
+				node = left[node];
+			else if (rank == leftSize)
+				return node;
+			else
+			{
+				rank -= leftSize+1;
+				node = right[node];
+			}
+		}
+	}
+
+	/**
+	 * Removes all ids from this tree.
+	 */
+	public void clear()
+	{
+		Arrays.fill(size, 0);
+		root = NIL;
+	}
+
+	private int sizeOf(int node)
+	{
+		return node == NIL ? 0 : size[node];
+	}
+
+	private void updateSize(int node)
+	{
+		size[node] = 1 + sizeOf(left[node]) + sizeOf(right[node]);
+	}
+
+	/** Returns true if id a belongs before id b. */
+	private boolean before(int a, int b)
+	{
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+	}
+
+	private static int priority(int id)
+	{
+		// murmur3 finalizer; gives a well-distributed pseudo-random priority for each id
+		int h = id;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private int insert(int node, int id)
+	{
+		if (node == NIL) return id;
+		if (before(id, node))
+		{
+			left[node] = insert(left[node], id);
+			if (priority(left[node]) > priority(node)) node = rotateRight(node);
+		}
+		else
+		{
+			right[node] = insert(right[node], id);
+			if (priority(right[node]) > priority(node)) node = rotateLeft(node);
+		}
+		updateSize(node);
+		return node;
+	}
+
+	private int delete(int node, int id)
+	{
+		if (node == id)
+			return merge(left[node], right[node]);
+		if (before(id, node))
+			left[node] = delete(left[node], id);
+		else
+			right[node] = delete(right[node], id);
+		updateSize(node);
+		return node;
+	}
+
+	/** Merges two subtrees where every id in a belongs before every id in b. */
+	private int merge(int a, int b)
+	{
+		if (a == NIL) return b;
+		if (b == NIL) return a;
+		if (priority(a) > priority(b))
+		{
+			right[a] = merge(right[a], b);
+			updateSize(a);
+			return a;
+		}
+		left[b] = merge(a, left[b]);
+		updateSize(b);
+		return b;
+	}
+
+	private int rotateRight(int node)
+	{
+		int newRoot = left[node];
+		left[node] = right[newRoot];
+		right[newRoot] = node;
+		updateSize(node);
+		updateSize(newRoot);
+		return newRoot;
+	}
+
+	private int rotateLeft(int node)
+	{
+		int newRoot = right[node];
+		right[node] = left[newRoot];
+		left[newRoot] = node;
+		updateSize(node);
+		updateSize(newRoot);
+		return newRoot;
+	}
+}
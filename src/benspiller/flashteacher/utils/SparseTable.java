@@ -0,0 +1,89 @@
+package benspiller.flashteacher.utils;
+
+import java.util.Arrays;
+
+/**
+ * Answers minimum and maximum queries over any range of a fixed array of
+ * values in O(1), after O(n log n) preparation.
+ *
+ * Level k of each table holds the minimum (or maximum) of the 2^k values
+ * starting at each index, so any range can be covered by two overlapping
+ * blocks from the same level. The tables take 2 * n * (log2(n)+1) doubles,
+ * which is fine for the few thousand values this is used for, but would be
+ * too much for millions.
+ *
+ * Immutable, and so thread-safe once constructed.
+ */
+public final class SparseTable
+{
+	private final int length;
+	/** mins[k][i] is the minimum of values i to i+2^k-1. */
+	private final double[][] mins;
+	private final double[][] maxs;
+
+	/**
+	 * @param values The values to index; copied, so later changes to the
+	 * array don't affect this table.
+	 * @param length The number of values to use from the start of the array.
+	 */
+	public SparseTable(double[] values, int length)
+	{
+		this.length = length;
+		int levels = (length == 0) ? 0 : 32-Integer.numberOfLeadingZeros(length);
+		mins = new double[levels][];
+		maxs = new double[levels][];
+		if (levels == 0) return;
+		mins[0] = Arrays.copyOf(values, length);
+		maxs[0] = mins[0];
+		for (int k = 1; k < levels; k++)
+		{
+			int half = 1 << (k-1);
+			int count = length - (1 << k) + 1;
+			mins[k] = new double[count];
+			maxs[k] = new double[count];
+			for (int i = 0; i < count; i++)
+			{
+				mins[k][i] = Math.min(mins[k-1][i], mins[k-1][i+half]);
+				maxs[k][i] = Math.max(maxs[k-1][i], maxs[k-1][i+half]);
+			}
+		}
+	}
+
+	/** @return The number of values in the table. */
+	public int size()
+	{
+		return length;
+	}
+
+	/**
+	 * @param from Inclusive.
+	 * @param to Exclusive; must be greater than from.
+	 * @return The smallest value in the range.
+	 * @throws IndexOutOfBoundsException If the range is empty or out of bounds.
+	 */
+	public double min(int from, int to)
+	{
+		int k = getLevel(from, to);
+		return Math.min(mins[k][from], mins[k][to-(1 << k)]);
+	}
+
+	/**
+	 * @param from Inclusive.
+	 * @param to Exclusive; must be greater than from.
+	 * @return The largest value in the range.
+	 * @throws IndexOutOfBoundsException If the range is empty or out of bounds.
+	 */
+	public double max(int from, int to)
+	{
+		int k = getLevel(from, to);
+		return Math.max(maxs[k][from], maxs[k][to-(1 << k)]);
+	}
+
+	/** @return The level whose blocks are the largest that fit in the range. */
+	private int getLevel(int from, int to)
+	{
+		if (from < 0 || to > length || from >= to)
+			throw new IndexOutOfBoundsException("Invalid range "+from+" to "+to+" of "+length+" values");
+		return 31-Integer.numberOfLeadingZeros(to-from);
+	}
+}
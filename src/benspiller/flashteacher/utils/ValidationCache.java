@@ -0,0 +1,216 @@
+package benspiller.flashteacher.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Remembers which XML files have passed DTD validation, so that a file that
+ * hasn't changed since it was last validated can be parsed without
+ * validating it again, and keeps the DTDs themselves in memory so they
+ * don't have to be read from disk for every file.
+ *
+ * A file is only treated as unchanged if its size and modification time are
+ * the same, as are those of every DTD it was validated against. Since a
+ * file can be changed without changing either (e.g. by two edits within
+ * the resolution of the file system's timestamps), the caller also
+ * compares a checksum of the contents, which it calculates while parsing,
+ * and validates the file after all if it doesn't match.
+ *
+ * Thread-safety: this class is thread-safe.
+ *
+ * @author Ben
+ */
+final class ValidationCache
+{
+	/** DTDs larger than this are read from disk each time, rather than cached. */
+	private static final long MAX_CACHED_DTD_SIZE = 1024*1024;
+
+	/** The size and modification time of a file, which change whenever its contents do (almost always). */
+	static final class FileStamp
+	{
+		final File file;
+		final long size;
+		final long lastModified;
+
+		FileStamp(File file)
+		{
+			this.file = file;
+			this.size = file.length();
+			this.lastModified = file.lastModified();
+		}
+
+		/** @return True if the file still has the same size and modification time. */
+		boolean isCurrent()
+		{
+			return file.length() == size && file.lastModified() == lastModified;
+		}
+	}
+
+	private static final class ValidatedFile
+	{
+		final FileStamp stamp;
+		final long checksum;
+		final List<FileStamp> dtds;
+
+		ValidatedFile(FileStamp stamp, long checksum, List<FileStamp> dtds)
+		{
+			this.stamp = stamp;
+			this.checksum = checksum;
+			this.dtds = dtds;
+		}
+	}
+
+	private static final class CachedDTD
+	{
+		final FileStamp stamp;
+		final byte[] contents;
+
+		CachedDTD(FileStamp stamp, byte[] contents)
+		{
+			this.stamp = stamp;
+			this.contents = contents;
+		}
+	}
+
+	/** Keyed by absolute path. */
+	private final Map<String, ValidatedFile> validatedFiles = new ConcurrentHashMap<>();
+	/** Keyed by absolute path. */
+	private final Map<String, CachedDTD> dtds = new ConcurrentHashMap<>();
+
+	/**
+	 * @param stamp The size and modification time of the file, taken before
+	 * it was opened.
+	 * @return The checksum of the file's contents when it was validated, if
+	 * it has been validated and neither it nor its DTDs appear to have
+	 * changed since then, or null if it must be validated.
+	 */
+	Long getValidatedChecksum(FileStamp stamp)
+	{
+		ValidatedFile validated = validatedFiles.get(stamp.file.getAbsolutePath());
+		if (validated == null || validated.stamp.size != stamp.size || validated.stamp.lastModified != stamp.lastModified)
+			return null;
+		for (FileStamp dtd: validated.dtds)
+			if (!dtd.isCurrent())
+				return null;
+		return validated.checksum;
+	}
+
+	/**
+	 * Records that the specified file has passed validation.
+	 * @param stamp The size and modification time of the file, taken before
+	 * it was opened. Nothing is recorded if the file has changed since.
+	 * @param checksum The checksum of the contents that were validated.
+	 * @param resolver The resolver used while validating it, which knows
+	 * which DTDs it was validated against.
+	 */
+	void putValidated(FileStamp stamp, long checksum, Resolver resolver)
+	{
+		String path = stamp.file.getAbsolutePath();
+		if (!stamp.isCurrent() || resolver.uncachedDTDs)
+		{
+			validatedFiles.remove(path);
+			return;
+		}
+		validatedFiles.put(path, new ValidatedFile(stamp, checksum, resolver.getDTDs()));
+	}
+
+	/**
+	 * @param fallback Used to resolve entities first, e.g. the handler the
+	 * file is being parsed with; may be null.
+	 * @return A new resolver that supplies DTDs from this cache, to be used
+	 * for parsing a single file.
+	 */
+	Resolver newResolver(EntityResolver fallback)
+	{
+		return new Resolver(fallback);
+	}
+
+	/**
+	 * Resolves local DTD files from the cache, reading them from disk only
+	 * if they have changed, and records which ones were used.
+	 */
+	final class Resolver implements EntityResolver
+	{
+		private final EntityResolver fallback;
+		private final List<FileStamp> usedDTDs = new ArrayList<>(1);
+		/** True if any entities were resolved some other way, so we can't tell if they have changed. */
+		boolean uncachedDTDs;
+
+		Resolver(EntityResolver fallback)
+		{
+			this.fallback = fallback;
+		}
+
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException
+		{
+			if (fallback != null)
+			{
+				InputSource result = fallback.resolveEntity(publicId, systemId);
+				if (result != null)
+				{
+					uncachedDTDs = true;
+					return result;
+				}
+			}
+
+			File file = toFile(systemId);
+			if (file == null || !file.isFile() || file.length() > MAX_CACHED_DTD_SIZE)
+			{
+				// let the parser open it itself
+				uncachedDTDs = true;
+				return null;
+			}
+
+			String path = file.getAbsolutePath();
+			CachedDTD dtd = dtds.get(path);
+			if (dtd == null || !dtd.stamp.isCurrent())
+			{
+				FileStamp stamp = new FileStamp(file);
+				dtd = new CachedDTD(stamp, Files.readAllBytes(file.toPath()));
+				if (stamp.isCurrent())
+					dtds.put(path, dtd);
+			}
+			usedDTDs.add(dtd.stamp);
+
+			InputSource result = new InputSource(new ByteArrayInputStream(dtd.contents));
+			result.setPublicId(publicId);
+			result.setSystemId(systemId);
+			return result;
+		}
+
+		List<FileStamp> getDTDs()
+		{
+			return Collections.unmodifiableList(new ArrayList<>(usedDTDs));
+		}
+	}
+
+	/**
+	 * @return The local file identified by the specified system id, or null
+	 * if it isn't a file URI.
+	 */
+	private static File toFile(String systemId)
+	{
+		if (systemId == null || !systemId.startsWith("file:"))
+			return null;
+		try {
+			return new File(new URI(systemId));
+		} catch (URISyntaxException | IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+}
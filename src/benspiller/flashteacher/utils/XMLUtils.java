@@ -1,27 +1,93 @@
 package benspiller.flashteacher.utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.logging.Logger;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
 import org.jdom.Document;
 import org.jdom.JDOMException;
 import org.jdom.input.JDOMParseException;
 import org.jdom.input.SAXBuilder;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class XMLUtils
 {
 	final static Logger logger = Logger.getLogger(XMLUtils.class.getName());
 	static final Charset CHARSET = Charset.forName("UTF-8");
 	
+	/** Lets us skip validating files that haven't changed since they were last loaded, which is most of them. */
+	private static final ValidationCache validationCache = new ValidationCache();
+	
+	/**
+	 * Parses a file's contents, with or without DTD validation. 
+	 */
+	private interface Parser<T>
+	{
+		T parse(InputSource source, boolean validate, EntityResolver resolver) throws IOException;
+	}
+	
+	/**
+	 * Parses the specified file, validating it only if it has changed since 
+	 * it was last validated successfully (or if it's the first time). 
+	 * @param fallbackResolver Used to resolve entities before the DTD cache; 
+	 * may be null. 
+	 */
+	private static <T> T parseWithValidationCache(File f, EntityResolver fallbackResolver, Parser<T> parser) throws IOException
+	{
+		ValidationCache.FileStamp stamp = new ValidationCache.FileStamp(f);
+		Long validatedChecksum = validationCache.getValidatedChecksum(stamp);
+		ValidationCache.Resolver resolver = validationCache.newResolver(fallbackResolver);
+		
+		T result;
+		CheckedInputStream inputStream = new CheckedInputStream(new BufferedInputStream(new FileInputStream(f)), new CRC32());
+		try {
+			InputSource source = new InputSource(inputStream);
+			source.setSystemId(f.toURI().toString()); // so relative DTD paths are resolved
+			// (the parser reads to the end of the file, since anything but whitespace and comments after the root element is an error)
+			result = parser.parse(source, validatedChecksum == null, resolver);
+		} finally {
+			inputStream.close();
+		}
+		long checksum = inputStream.getChecksum().getValue();
+		
+		if (validatedChecksum != null)
+		{
+			if (validatedChecksum == checksum)
+			{
+				logger.log(java.util.logging.Level.FINE, "Skipped validation of unchanged file: "+f);
+				return result;
+			}
+			// rare, but possible if it was edited twice within the file system's timestamp resolution
+			logger.log(java.util.logging.Level.INFO, "File has changed although its size and modification time haven't, so validating it: "+f);
+			resolver = validationCache.newResolver(fallbackResolver);
+			checksum = validateXML(f, resolver);
+		}
+		validationCache.putValidated(stamp, checksum, resolver);
+		return result;
+	}
+	
 	/**
 	 * Loads the specified JDOM XML document from a file. Throws a 
 	 * readily-displayable error message in the event of a problem. 
@@ -29,54 +95,183 @@ public class XMLUtils
 	 * @return The JDOM document
 	 * @throws IOException
 	 */
-	public static Document loadXML(File f) throws IOException
+	public static Document loadXML(final File f) throws IOException
 	{
-		SAXBuilder builder = new SAXBuilder();
-		builder.setValidation(true);
-		
-		try {
-			return builder.build(f);
-		} catch (JDOMParseException e)
-		{
-			StringBuilder b = new StringBuilder();
-			
-			final int CONTEXT_LINES = 2;
-			final String CONTEXT_PREFIX = "      ";
-			
-			BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), CHARSET));
+		return parseWithValidationCache(f, null, (source, validate, resolver) -> {
+			SAXBuilder builder = new SAXBuilder();
+			builder.setValidation(validate);
+			builder.setEntityResolver(resolver);
 			try {
-				String line;
-				int lineNumber = 0;
-				while ((line = r.readLine()) != null)
-				{
-					lineNumber++;
-					if (lineNumber > e.getLineNumber()+CONTEXT_LINES)
-						break;
-					if (lineNumber >= e.getLineNumber()-CONTEXT_LINES)
-					{
-						b.append('\n');
-						b.append(CONTEXT_PREFIX);
-						b.append(line);
-					}
-				}
-			} catch (Exception e2)
+				return builder.build(source);
+			} catch (JDOMParseException e)
 			{
-				logger.log(java.util.logging.Level.FINE, "Failed to extract relevant bit of XML for error message: "+e2.getMessage());
-				// ignore
-			} finally {
-				r.close();
+				throw new IOException(getParseErrorMessage(f, e.getMessage(), e.getLineNumber()), e);
+			} catch (JDOMException e)
+			{
+				throw new IOException(e);
 			}
+		});
+	}
+	
+	/**
+	 * Parses the specified XML file with a validating SAX parser, passing 
+	 * its contents to the specified handler, without building a document in 
+	 * memory. Throws a readily-displayable error message in the event of a 
+	 * problem, including validation errors. Files that haven't changed since 
+	 * they were last validated are not validated again. 
+	 * @param handler Receives the content and is used to resolve entities 
+	 * such as the DTD; its error methods are not used. 
+	 * @throws IOException
+	 */
+	public static void parseXML(final File f, final DefaultHandler handler) throws IOException
+	{
+		parseWithValidationCache(f, handler, (source, validate, resolver) -> {
+			parse(f, source, handler, validate, resolver);
+			return null;
+		});
+	}
+	
+	/**
+	 * Parses the part of the specified XML file that starts at the specified 
+	 * position, without validation, as if it followed the specified prefix. 
+	 * This allows the last few elements of a large file to be read without 
+	 * parsing the rest, given the position where they start. Error messages 
+	 * don't include the lines around the error, since their line numbers are 
+	 * relative to the prefix. 
+	 * @param position The offset in bytes from the start of the file. 
+	 * @param prefix For example the start tag of the element that contains 
+	 * the part of the file being parsed. 
+	 */
+	public static void parseXML(File f, long position, String prefix, DefaultHandler handler) throws IOException
+	{
+		FileInputStream fileStream = new FileInputStream(f);
+		try {
+			fileStream.getChannel().position(position);
+			InputSource source = new InputSource(new SequenceInputStream(
+					new ByteArrayInputStream(prefix.getBytes(CHARSET)), new BufferedInputStream(fileStream)));
+			source.setEncoding(CHARSET.name());
+			source.setSystemId(f.toURI().toString());
+			parse(null, source, handler, false, handler);
+		} finally {
+			fileStream.close();
+		}
+	}
+	
+	/**
+	 * Validates the specified file, without doing anything with its contents. 
+	 * @return The checksum of the contents that were validated. 
+	 */
+	private static long validateXML(File f, EntityResolver resolver) throws IOException
+	{
+		CheckedInputStream inputStream = new CheckedInputStream(new BufferedInputStream(new FileInputStream(f)), new CRC32());
+		try {
+			InputSource source = new InputSource(inputStream);
+			source.setSystemId(f.toURI().toString());
+			parse(f, source, new DefaultHandler(), true, resolver);
+		} finally {
+			inputStream.close();
+		}
+		return inputStream.getChecksum().getValue();
+	}
+	
+	/**
+	 * @param f The file being parsed, for quoting the lines around any error; 
+	 * or null if they can't be quoted. 
+	 */
+	private static void parse(File f, InputSource source, DefaultHandler handler, boolean validate, EntityResolver resolver) throws IOException
+	{
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setValidating(validate);
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.setDTDHandler(handler);
+			reader.setEntityResolver(resolver);
+			reader.setErrorHandler(new ErrorHandler() {
+				// as for SAXBuilder, treat validation errors as fatal
+				public void warning(SAXParseException e) { }
+				public void error(SAXParseException e) throws SAXException { throw e; }
+				public void fatalError(SAXParseException e) throws SAXException { throw e; }
+			});
 			
-			if (b.length() == 0)
-				b.insert(0, e.getMessage()+".");
-			else
-				b.insert(0, e.getMessage());
-
-			throw new IOException(b.toString(), e);
-		} catch (JDOMException e)
+			reader.parse(source);
+		} catch (SAXParseException e)
+		{
+			String message = "Error on line "+e.getLineNumber()+" of document "+source.getSystemId()+": "+e.getMessage();
+			throw new IOException((f == null) ? message+"." : getParseErrorMessage(f, message, e.getLineNumber()), e);
+		} catch (SAXException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		} catch (ParserConfigurationException e)
 		{
 			throw new IOException(e);
-		}	
+		}
+	}
+	
+	/**
+	 * @return The specified parser error message, followed by the lines of 
+	 * the file around the error. 
+	 */
+	private static String getParseErrorMessage(File f, String message, int errorLineNumber) throws IOException
+	{
+		StringBuilder b = new StringBuilder();
+		
+		final int CONTEXT_LINES = 2;
+		final String CONTEXT_PREFIX = "      ";
+		
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), CHARSET));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = r.readLine()) != null)
+			{
+				lineNumber++;
+				if (lineNumber > errorLineNumber+CONTEXT_LINES)
+					break;
+				if (lineNumber >= errorLineNumber-CONTEXT_LINES)
+				{
+					b.append('\n');
+					b.append(CONTEXT_PREFIX);
+					b.append(line);
+				}
+			}
+		} catch (Exception e2)
+		{
+			logger.log(java.util.logging.Level.FINE, "Failed to extract relevant bit of XML for error message: "+e2.getMessage());
+			// ignore
+		} finally {
+			r.close();
+		}
+		
+		if (b.length() == 0)
+			b.insert(0, message+".");
+		else
+			b.insert(0, message);
+		return b.toString();
+	}
+	
+	/**
+	 * @return The specified text with leading and trailing whitespace removed 
+	 * and internal whitespace collapsed to single spaces, as for JDOM's 
+	 * getTextNormalize(). 
+	 */
+	public static String normalizeText(CharSequence text)
+	{
+		StringBuilder result = new StringBuilder(text.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r')
+				pendingSpace = result.length() > 0;
+			else
+			{
+				if (pendingSpace) result.append(' ');
+				pendingSpace = false;
+				result.append(c);
+			}
+		}
+		return result.toString();
 	}
 	
 	public static void saveXML(Document doc, File file) throws IOException